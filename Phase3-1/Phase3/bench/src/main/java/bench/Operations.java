@@ -0,0 +1,314 @@
+package bench;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Properties;
+
+
+/**
+ * The HotelOperations of the application, called from a named package.
+ * The application lives in the default package, which Java code in any
+ * other package cannot name, and JMH refuses benchmarks in the default
+ * package, so every method is looked up once into a static final
+ * MethodHandle; the JIT treats those as constants and inlines the calls
+ * like direct ones.
+ *
+ */
+public final class Operations {
+
+   private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup ();
+   private static final Class<?> OPS = type ("HotelOperations");
+
+   private static final MethodHandle ADD_CUSTOMER = op ("addCustomer", int.class, String.class, String.class,
+                                                        String.class, Long.class, String.class, String.class);
+   private static final MethodHandle ADD_ROOM = op ("addRoom", int.class, int.class, String.class);
+   private static final MethodHandle ADD_COMPANY = op ("addMaintenanceCompany", int.class, String.class,
+                                                       String.class, boolean.class);
+   private static final MethodHandle ADD_REPAIR = op ("addRepair", int.class, int.class, int.class, int.class,
+                                                      String.class, String.class, String.class);
+   private static final MethodHandle BOOK_ROOM = op ("bookRoom", int.class, int.class, int.class, int.class,
+                                                     String.class, Integer.class, BigDecimal.class);
+   private static final MethodHandle ASSIGN = op ("assignHouseCleaningToRoom", int.class, int.class, int.class,
+                                                  int.class);
+   private static final MethodHandle REQUEST = op ("repairRequest", int.class, int.class, int.class, String.class,
+                                                   String.class);
+   private static final MethodHandle NEVER_BOOKED = op ("numberOfAvailableRooms", void.class, int.class,
+                                                        PrintStream.class);
+   private static final MethodHandle AVAILABLE = op ("numberOfAvailableRooms", void.class, int.class, String.class,
+                                                     String.class, PrintStream.class);
+   private static final MethodHandle BOOKED = op ("numberOfBookedRooms", void.class, int.class, PrintStream.class);
+   private static final MethodHandle WEEK = op ("listHotelRoomBookingsForAWeek", void.class, int.class,
+                                                String.class, PrintStream.class);
+   private static final MethodHandle TOP_ROOMS = op ("topKHighestRoomPriceForADateRange", void.class, String.class,
+                                                     String.class, int.class, PrintStream.class);
+   private static final MethodHandle TOP_CUSTOMER = op ("topKHighestPriceBookingsForACustomer", void.class,
+                                                        String.class, String.class, int.class, PrintStream.class);
+   private static final MethodHandle COST = op ("totalCostForCustomer", void.class, int.class, String.class,
+                                                String.class, String.class, String.class, PrintStream.class);
+   private static final MethodHandle REPAIRS = op ("listRepairsMade", void.class, String.class, PrintStream.class);
+   private static final MethodHandle TOP_COMPANIES = op ("topKMaintenanceCompany", void.class, int.class,
+                                                         PrintStream.class);
+   private static final MethodHandle PER_YEAR = op ("numberOfRepairsForEachRoomPerYear", void.class, int.class,
+                                                    int.class, PrintStream.class);
+   private static final MethodHandle MOST_REPAIRED = op ("roomsWithMostRepairs", void.class, int.class, int.class,
+                                                         int.class, PrintStream.class);
+
+   private final Object ops;
+   // the DBProject behind a Postgres engine, null in memory
+   private final Object database;
+
+   private Operations (Object ops, Object database) {
+      this.ops = ops;
+      this.database = database;
+   }//end Operations
+
+   /**
+    * @param data a directory of csv files as in Phase3/data
+    * @return the in-process MemoryOperations over them
+    */
+   public static Operations memory (File data) {
+      try {
+         Object ops = LOOKUP.findStatic (type ("MemoryOperations"), "load",
+                                         MethodType.methodType (type ("MemoryOperations"), File.class))
+                            .invoke (data);
+         return new Operations (ops, null);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end memory
+
+   /**
+    * Reloads a database from a directory of csv files with BulkLoader and
+    * connects to it.
+    *
+    * @return PostgresOperations over the database
+    */
+   public static Operations postgres (String dbname, String port, String user, File data) {
+      try {
+         Properties props = new Properties ();
+         props.setProperty ("user", user);
+         props.setProperty ("password", "");
+         String url = "jdbc:postgresql://localhost:" + port + "/" + dbname;
+         Class.forName ("org.postgresql.Driver");
+         Object loader = LOOKUP.findConstructor (type ("BulkLoader"),
+                                                 MethodType.methodType (void.class, String.class, Properties.class,
+                                                                        File.class, int.class))
+                               .invoke (url, props, data, Math.min (9, Runtime.getRuntime ().availableProcessors ()));
+         LOOKUP.findVirtual (type ("BulkLoader"), "load", MethodType.methodType (void.class)).invoke (loader);
+
+         Object esql = LOOKUP.findConstructor (type ("DBProject"),
+                                               MethodType.methodType (void.class, String.class, String.class,
+                                                                      String.class, String.class))
+                             .invoke (dbname, port, user, "");
+         Object ops = LOOKUP.findConstructor (type ("PostgresOperations"),
+                                              MethodType.methodType (void.class, type ("DBProject")))
+                            .invoke (esql);
+         return new Operations (ops, esql);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end postgres
+
+   /**
+    * Closes the connections of a Postgres engine.
+    */
+   public void close () {
+      if (database == null)
+         return;
+      try {
+         LOOKUP.findVirtual (type ("DBProject"), "cleanup", MethodType.methodType (void.class)).invoke (database);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end close
+
+   public int addCustomer (String fName, String lName, String address, Long phNo, String dob, String gender) {
+      try {
+         return (int) ADD_CUSTOMER.invokeExact (ops, fName, lName, address, phNo, dob, gender);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end addCustomer
+
+   public int addRoom (int hotelID, String roomType) {
+      try {
+         return (int) ADD_ROOM.invokeExact (ops, hotelID, roomType);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end addRoom
+
+   public int addMaintenanceCompany (String name, String address, boolean isCertified) {
+      try {
+         return (int) ADD_COMPANY.invokeExact (ops, name, address, isCertified);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end addMaintenanceCompany
+
+   public int addRepair (int hotelID, int roomNo, int mCompany, String repairDate, String description,
+                         String repairType) {
+      try {
+         return (int) ADD_REPAIR.invokeExact (ops, hotelID, roomNo, mCompany, repairDate, description, repairType);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end addRepair
+
+   public int bookRoom (int customer, int hotelID, int roomNo, String bookingDate, Integer noOfPeople, BigDecimal price) {
+      try {
+         return (int) BOOK_ROOM.invokeExact (ops, customer, hotelID, roomNo, bookingDate, noOfPeople, price);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end bookRoom
+
+   public int assignHouseCleaningToRoom (int SSN, int hotelID, int roomNo) {
+      try {
+         return (int) ASSIGN.invokeExact (ops, SSN, hotelID, roomNo);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   public int repairRequest (int managerID, int repairID, String requestDate, String description) {
+      try {
+         return (int) REQUEST.invokeExact (ops, managerID, repairID, requestDate, description);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end repairRequest
+
+   public void numberOfAvailableRooms (int hotelID, PrintStream out) {
+      try {
+         NEVER_BOOKED.invokeExact (ops, hotelID, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public void numberOfAvailableRooms (int hotelID, String from, String to, PrintStream out) {
+      try {
+         AVAILABLE.invokeExact (ops, hotelID, from, to, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public void numberOfBookedRooms (int hotelID, PrintStream out) {
+      try {
+         BOOKED.invokeExact (ops, hotelID, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end numberOfBookedRooms
+
+   public void listHotelRoomBookingsForAWeek (int hotelID, String date, PrintStream out) {
+      try {
+         WEEK.invokeExact (ops, hotelID, date, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   public void topKHighestRoomPriceForADateRange (String startDate, String endDate, int K, PrintStream out) {
+      try {
+         TOP_ROOMS.invokeExact (ops, startDate, endDate, K, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   public void topKHighestPriceBookingsForACustomer (String fname, String lname, int K, PrintStream out) {
+      try {
+         TOP_CUSTOMER.invokeExact (ops, fname, lname, K, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   public void totalCostForCustomer (int hotelID, String fname, String lname, String brange, String erange,
+                                     PrintStream out) {
+      try {
+         COST.invokeExact (ops, hotelID, fname, lname, brange, erange, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end totalCostForCustomer
+
+   public void listRepairsMade (String companyName, PrintStream out) {
+      try {
+         REPAIRS.invokeExact (ops, companyName, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end listRepairsMade
+
+   public void topKMaintenanceCompany (int K, PrintStream out) {
+      try {
+         TOP_COMPANIES.invokeExact (ops, K, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end topKMaintenanceCompany
+
+   public void numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, PrintStream out) {
+      try {
+         PER_YEAR.invokeExact (ops, hotelID, roomNo, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   public void roomsWithMostRepairs (int hotelID, int year, int K, PrintStream out) {
+      try {
+         MOST_REPAIRED.invokeExact (ops, hotelID, year, K, out);
+      } catch (Throwable t) {
+         throw failed (t);
+      }//end try
+   }//end roomsWithMostRepairs
+
+   public String toString () {
+      return String.valueOf (ops);
+   }//end toString
+
+   private static Class<?> type (String name) {
+      try {
+         return Class.forName (name);
+      } catch (ClassNotFoundException e) {
+         throw new IllegalStateException ("The application classes are not on the classpath", e);
+      }//end try
+   }//end type
+
+   /*
+    * Looks up a method of HotelOperations, typed to take the receiver as an
+    * Object so that invokeExact can be called on it from here.
+    */
+   private static MethodHandle op (String name, Class<?> returns, Class<?>... params) {
+      try {
+         MethodHandle h = LOOKUP.findVirtual (OPS, name, MethodType.methodType (returns, params));
+         return h.asType (h.type ().changeParameterType (0, Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+         throw new IllegalStateException ("HotelOperations." + name + " is missing", e);
+      }//end try
+   }//end op
+
+   /*
+    * An operation failure, unchecked so that JMH reports it and stops.
+    */
+   private static RuntimeException failed (Throwable t) {
+      if (t instanceof RuntimeException)
+         return (RuntimeException) t;
+      if (t instanceof Error)
+         throw (Error) t;
+      if (t instanceof SQLException)
+         return new IllegalStateException ("SQLState " + ((SQLException) t).getSQLState () + ": " + t.getMessage (), t);
+      return new IllegalStateException (t);
+   }//end failed
+
+}//end Operations
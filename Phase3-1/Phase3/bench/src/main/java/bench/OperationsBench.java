@@ -0,0 +1,372 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * One benchmark per operation of the DBProject menu, against either engine
+ * and any directory of csv files:
+ *
+ *    engine=memory     MemoryOperations over the csv files, no database;
+ *                      the default
+ *    engine=postgres   PostgresOperations over a database reloaded from the
+ *                      csv files by BulkLoader, which empties its tables
+ *                      first, so it only runs when asked for with
+ *                      -p engine=postgres; the database is started by
+ *                      postgresql/startPostgreSQL.sh, -Dbench.db,
+ *                      -Dbench.port and -Dbench.user name it, by default
+ *                      $USER_DB on $PGPORT
+ *    dataset=<dir>     the csv files, relative to the bench directory
+ *
+ * Throughput and sampled latency (p50, p99, ...) are both reported; add
+ * -prof gc for the allocation rate per operation.  Each benchmark takes
+ * its keys from the rows of the dataset, round robin, so that the reports
+ * see hits and the inserts see valid foreign keys.  Inserts do add rows,
+ * which a trial of a few seconds keeps to a small share of the data.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationsBench {
+
+   // the rows read from each csv file for keys
+   private static final int SAMPLE = 10000;
+   // the first booking date, past any in the data, so that bookRoom never collides
+   private static final int FIRST_BOOKING_YEAR = 2100;
+
+   @Param({"memory"})
+   public String engine;
+
+   @Param({"../data"})
+   public String dataset;
+
+   private Operations ops;
+   private final AtomicLong next = new AtomicLong ();
+   private final Discard discard = new Discard ();
+   private final PrintStream out = new PrintStream (discard);
+
+   private int[] hotels;
+   private int[][] rooms;          // hotelID, roomNo
+   private String[][] customers;   // customerID, fName, lName
+   private int[] companies;
+   private String[] companyNames;
+   private int[] managers;
+   private int[] cleaners;
+   private int[] repairs;
+   private String[] dates;         // booking dates as MM/DD/YYYY
+
+   @Setup(Level.Trial)
+   public void setup () throws IOException {
+      File dir = new File (dataset);
+      read (dir);
+      if ("memory".equals (engine))
+         ops = Operations.memory (dir);
+      else if ("postgres".equals (engine))
+         ops = Operations.postgres (System.getProperty ("bench.db", System.getProperty ("user.name") + "_DB"),
+                                    System.getProperty ("bench.port", env ("PGPORT", "8192")),
+                                    System.getProperty ("bench.user", System.getProperty ("user.name")), dir);
+      else
+         throw new IllegalArgumentException ("Unknown engine " + engine);
+   }//end setup
+
+   @TearDown(Level.Trial)
+   public void tearDown () {
+      ops.close ();
+   }//end tearDown
+
+   // 1
+   @Benchmark
+   public int addCustomer () {
+      long n = next.getAndIncrement ();
+      return ops.addCustomer ("bench", "c" + n, "address", 5550000000L + n, "01/01/1980", "Other");
+   }//end addCustomer
+
+   // 2
+   @Benchmark
+   public int addRoom () {
+      return ops.addRoom (hotels[pick (hotels.length)], "Suite");
+   }//end addRoom
+
+   // 3
+   @Benchmark
+   public int addMaintenanceCompany () {
+      return ops.addMaintenanceCompany ("bench" + next.getAndIncrement (), "address", true);
+   }//end addMaintenanceCompany
+
+   // 4
+   @Benchmark
+   public int addRepair () {
+      int[] room = rooms[pick (rooms.length)];
+      return ops.addRepair (room[0], room[1], companies[pick (companies.length)], dates[pick (dates.length)],
+                            "bench", "Small");
+   }//end addRepair
+
+   // 5
+   @Benchmark
+   public int bookRoom () {
+      long n = next.getAndIncrement ();
+      int[] room = rooms[(int) (n % rooms.length)];
+      String[] customer = customers[(int) (n % customers.length)];
+      // every room once on each day, then the next day
+      String date = format (FIRST_BOOKING_YEAR * 336L + n / rooms.length);
+      return ops.bookRoom (Integer.parseInt (customer[0]), room[0], room[1], date, 2, BigDecimal.valueOf (100 + n % 9000));
+   }//end bookRoom
+
+   // 6
+   @Benchmark
+   public int assignHouseCleaningToRoom () {
+      int[] room = rooms[pick (rooms.length)];
+      return ops.assignHouseCleaningToRoom (cleaners[pick (cleaners.length)], room[0], room[1]);
+   }//end assignHouseCleaningToRoom
+
+   // 7
+   @Benchmark
+   public int repairRequest () {
+      return ops.repairRequest (managers[pick (managers.length)], repairs[pick (repairs.length)],
+                                dates[pick (dates.length)], "bench");
+   }//end repairRequest
+
+   // 8
+   @Benchmark
+   public long numberOfAvailableRooms () {
+      ops.numberOfAvailableRooms (hotels[pick (hotels.length)], out);
+      return written ();
+   }//end numberOfAvailableRooms
+
+   // 8, over a date range
+   @Benchmark
+   public long numberOfAvailableRoomsForADateRange () {
+      int d = pick (dates.length - 1);
+      ops.numberOfAvailableRooms (hotels[pick (hotels.length)], min (dates[d], dates[d + 1]),
+                                  max (dates[d], dates[d + 1]), out);
+      return written ();
+   }//end numberOfAvailableRoomsForADateRange
+
+   // 9
+   @Benchmark
+   public long numberOfBookedRooms () {
+      ops.numberOfBookedRooms (hotels[pick (hotels.length)], out);
+      return written ();
+   }//end numberOfBookedRooms
+
+   // 10
+   @Benchmark
+   public long listHotelRoomBookingsForAWeek () {
+      ops.listHotelRoomBookingsForAWeek (hotels[pick (hotels.length)], dates[pick (dates.length)], out);
+      return written ();
+   }//end listHotelRoomBookingsForAWeek
+
+   // 11
+   @Benchmark
+   public long topKHighestRoomPriceForADateRange () {
+      int d = pick (dates.length - 1);
+      ops.topKHighestRoomPriceForADateRange (min (dates[d], dates[d + 1]), max (dates[d], dates[d + 1]), 10, out);
+      return written ();
+   }//end topKHighestRoomPriceForADateRange
+
+   // 12
+   @Benchmark
+   public long topKHighestPriceBookingsForACustomer () {
+      String[] customer = customers[pick (customers.length)];
+      ops.topKHighestPriceBookingsForACustomer (customer[1], customer[2], 10, out);
+      return written ();
+   }//end topKHighestPriceBookingsForACustomer
+
+   // 13
+   @Benchmark
+   public long totalCostForCustomer () {
+      String[] customer = customers[pick (customers.length)];
+      ops.totalCostForCustomer (hotels[pick (hotels.length)], customer[1], customer[2], "01/01/2000", "12/31/2030",
+                                out);
+      return written ();
+   }//end totalCostForCustomer
+
+   // 14
+   @Benchmark
+   public long listRepairsMade () {
+      ops.listRepairsMade (companyNames[pick (companyNames.length)], out);
+      return written ();
+   }//end listRepairsMade
+
+   // 15
+   @Benchmark
+   public long topKMaintenanceCompany () {
+      ops.topKMaintenanceCompany (10, out);
+      return written ();
+   }//end topKMaintenanceCompany
+
+   // 16
+   @Benchmark
+   public long numberOfRepairsForEachRoomPerYear () {
+      int[] room = rooms[pick (rooms.length)];
+      ops.numberOfRepairsForEachRoomPerYear (room[0], room[1], out);
+      return written ();
+   }//end numberOfRepairsForEachRoomPerYear
+
+   @Benchmark
+   public long roomsWithMostRepairs () {
+      ops.roomsWithMostRepairs (hotels[pick (hotels.length)], 2015, 10, out);
+      return written ();
+   }//end roomsWithMostRepairs
+
+   private int pick (int n) {
+      return (int) (next.getAndIncrement () % n);
+   }//end pick
+
+   /*
+    * The bytes the last report wrote, which JMH consumes so that the
+    * report is not optimized away.
+    */
+   private long written () {
+      out.flush ();
+      return discard.take ();
+   }//end written
+
+   private void read (File dir) throws IOException {
+      List<String[]> rows = csv (new File (dir, "room.csv"));
+      rooms = new int[rows.size ()][];
+      for (int i = 0; i < rooms.length; ++i)
+         rooms[i] = new int[] {Integer.parseInt (rows.get (i)[0]), Integer.parseInt (rows.get (i)[1])};
+
+      rows = csv (new File (dir, "hotel.csv"));
+      hotels = new int[rows.size ()];
+      for (int i = 0; i < hotels.length; ++i)
+         hotels[i] = Integer.parseInt (rows.get (i)[0]);
+
+      customers = csv (new File (dir, "customer.csv")).toArray (new String[0][]);
+
+      rows = csv (new File (dir, "maintenanceCompany.csv"));
+      companies = new int[rows.size ()];
+      companyNames = new String[rows.size ()];
+      for (int i = 0; i < companies.length; ++i) {
+         companies[i] = Integer.parseInt (rows.get (i)[0]);
+         companyNames[i] = rows.get (i)[1];
+      }//end for
+
+      List<Integer> m = new ArrayList<> (), c = new ArrayList<> ();
+      for (String[] staff : csv (new File (dir, "staff.csv")))
+         if ("Manager".equals (staff[4]))
+            m.add (Integer.parseInt (staff[0]));
+         else if ("HouseCleaning".equals (staff[4]))
+            c.add (Integer.parseInt (staff[0]));
+      managers = ints (m);
+      cleaners = ints (c);
+
+      rows = csv (new File (dir, "repair.csv"));
+      repairs = new int[rows.size ()];
+      for (int i = 0; i < repairs.length; ++i)
+         repairs[i] = Integer.parseInt (rows.get (i)[0]);
+
+      rows = csv (new File (dir, "booking.csv"));
+      dates = new String[rows.size ()];
+      for (int i = 0; i < dates.length; ++i) {
+         String[] mdy = rows.get (i)[4].split ("/");
+         dates[i] = format (Integer.parseInt (mdy[2]) * 336L + (Integer.parseInt (mdy[0]) - 1) * 28L +
+                            Math.min (Integer.parseInt (mdy[1]), 28) - 1);
+      }//end for
+
+      if (rooms.length == 0 || customers.length == 0 || companies.length == 0 || managers.length == 0 ||
+          cleaners.length == 0 || repairs.length < 1 || dates.length < 2)
+         throw new IllegalArgumentException (dir + " has too few rows to benchmark");
+   }//end read
+
+   /*
+    * The first SAMPLE rows of a csv file after the placeholder row 0.
+    */
+   private static List<String[]> csv (File file) throws IOException {
+      List<String[]> rows = new ArrayList<> ();
+      try (BufferedReader in = new BufferedReader (new InputStreamReader (new FileInputStream (file),
+                                                                          StandardCharsets.UTF_8))) {
+         String line = in.readLine ();
+         while ((line = in.readLine ()) != null && rows.size () < SAMPLE)
+            if (!line.isEmpty ())
+               rows.add (line.split (",", -1));
+      }//end try
+      return rows;
+   }//end csv
+
+   private static int[] ints (List<Integer> list) {
+      int[] a = new int[list.size ()];
+      for (int i = 0; i < a.length; ++i)
+         a[i] = list.get (i);
+      return a;
+   }//end ints
+
+   /*
+    * A date as MM/DD/YYYY from a count of days in 28-day months, so that
+    * every count is a valid date and different counts are different dates.
+    */
+   private static String format (long count) {
+      long year = count / 336, month = count % 336 / 28, day = count % 28;
+      return String.format ("%02d/%02d/%04d", month + 1, day + 1, year);
+   }//end format
+
+   private static String min (String a, String b) {
+      return sortable (a).compareTo (sortable (b)) <= 0 ? a : b;
+   }//end min
+
+   private static String max (String a, String b) {
+      return sortable (a).compareTo (sortable (b)) <= 0 ? b : a;
+   }//end max
+
+   private static String sortable (String mdy) {
+      return mdy.substring (6) + mdy.substring (0, 5);
+   }//end sortable
+
+   /*
+    * Counts and drops what the reports print.
+    */
+   private static final class Discard extends OutputStream {
+      private long bytes;
+
+      public void write (int b) {
+         ++bytes;
+      }//end write
+
+      public void write (byte[] b, int off, int len) {
+         bytes += len;
+      }//end write
+
+      long take () {
+         long n = bytes;
+         bytes = 0;
+         return n;
+      }//end take
+   }//end Discard
+
+   private static String env (String name, String otherwise) {
+      String value = System.getenv (name);
+      return value == null || value.isEmpty () ? otherwise : value;
+   }//end env
+
+}//end OperationsBench
@@ -0,0 +1,347 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Runs hotel operations from a script instead of the interactive menu.
+ * Every non-blank line that does not start with '#' is one operation: a
+ * verb followed by key=value arguments, where values containing blanks are
+ * written in double quotes, e.g.
+ *
+ *    book customer=12 hotel=381 room=5 date=05/12/2015 people=2 price=150
+ *    repair hotel=145 room=4 company=6 date=04/09/2015 description="leaking tap" type=Small
+ *    week hotel=381 date=05/10/2015
+ *
+ * The inserts go through the same code as the menu, collected into JDBC
+ * batches and committed every commitInterval operations.  Reports commit
+ * the pending inserts first so that they see them.  Failing operations are
+ * reported with their line number and the run goes on.
+ *
+ * The operations can also run against MemoryOperations, where each one
+ * takes effect at once and commitInterval does not apply.
+ *
+ */
+public class BatchRunner {
+
+   static final String USAGE =
+      "Operations (arguments in [] are optional):\n" +
+      "  customer fname= lname= [address=] [phone=] [dob=] [gender=]\n" +
+      "  room hotel= type=\n" +
+      "  company name= certified=yes|no [address=]\n" +
+      "  repair hotel= room= company= date= [description=] [type=]\n" +
+      "  book customer= hotel= room= date= price= [people=]\n" +
+      "  assign staff= hotel= room=\n" +
+      "  request manager= repair= date= [description=]\n" +
+      "  available hotel= [from=] [to=]\n" +
+      "  booked hotel=\n" +
+      "  week hotel= date=\n" +
+      "  toprooms from= to= k=\n" +
+      "  topcustomer fname= lname= k=\n" +
+      "  cost hotel= fname= lname= from= to=\n" +
+      "  repairs company=\n" +
+      "  topcompanies k=\n" +
+      "  repairsperyear hotel= room=\n" +
+      "  mostrepaired hotel= year= [k=]\n" +
+      "  rebuild                      (reconcile the in-memory indexes, e.g. after BulkLoader)";
+
+   /*
+    * Operation counts of one verb.
+    */
+   private static class Tally {
+      long ops;
+      long errors;
+   }//end Tally
+
+   private final HotelOperations ops;
+   // the database batches go to, null when ops are not run against one
+   private final DBProject esql;
+   private final int commitInterval;
+   private final PrintStream out;
+   private final Map<String, Tally> tallies = new TreeMap<>();
+
+   /**
+    * @param esql the database the operations run against
+    * @param commitInterval the number of operations per transaction
+    * @param out where reports and the summary are written
+    */
+   public BatchRunner (DBProject esql, int commitInterval, PrintStream out) {
+      this (esql.getOperations (), esql, commitInterval, out);
+   }//end BatchRunner
+
+   /**
+    * @param ops the implementation the operations run against, unbatched
+    * @param out where reports and the summary are written
+    */
+   public BatchRunner (HotelOperations ops, PrintStream out) {
+      this (ops, null, 1, out);
+   }//end BatchRunner
+
+   private BatchRunner (HotelOperations ops, DBProject esql, int commitInterval, PrintStream out) {
+      this.ops = ops;
+      this.esql = esql;
+      this.commitInterval = Math.max (1, commitInterval);
+      this.out = out;
+   }//end BatchRunner
+
+   /**
+    * Runs every operation of the script and prints a summary.
+    *
+    * @param script the operations, one per line
+    * @return the number of operations that failed
+    * @throws java.io.IOException when the script cannot be read
+    * @throws java.sql.SQLException when the database connection fails
+    */
+   public long run (BufferedReader script) throws IOException, SQLException {
+      long start = System.nanoTime ();
+      long total = 0, failed = 0;
+      BatchSession batch = esql != null ? esql.beginBatch () : null;
+      try {
+         String line;
+         int lineNo = 0, uncommitted = 0;
+         while ((line = script.readLine ()) != null) {
+            ++lineNo;
+            line = line.trim ();
+            if (line.isEmpty () || line.startsWith ("#"))
+               continue;
+
+            List<String> words;
+            try {
+               words = split (line);
+            } catch (IllegalArgumentException e) {
+               ++total;
+               ++failed;
+               System.err.println ("line " + lineNo + ": " + e.getMessage ());
+               continue;
+            }//end try
+            String verb = words.get (0).toLowerCase ();
+            Tally tally = tally (verb);
+            ++tally.ops;
+            ++total;
+            if (batch != null)
+               batch.setTag (lineNo + " (" + verb + ")");
+            try {
+               if (batch != null && !isInsert (verb))
+                  batch.commit ();
+               run (verb, arguments (words));
+            } catch (IllegalArgumentException | SQLException e) {
+               ++tally.errors;
+               ++failed;
+               System.err.println ("line " + lineNo + " (" + verb + "): " + e.getMessage ());
+            }//end try
+
+            if (batch != null && isInsert (verb) && ++uncommitted >= commitInterval) {
+               batch.commit ();
+               uncommitted = 0;
+            }//end if
+            if (batch != null)
+               failed += report (batch.takeFailures ());
+         }//end while
+      } finally {
+         if (esql != null)
+            esql.endBatch ();
+      }//end try
+      if (batch != null)
+         failed += report (batch.takeFailures ());
+
+      double secs = (System.nanoTime () - start) / 1e9;
+      out.println ();
+      out.printf ("%-16s %10s %10s%n", "operation", "count", "errors");
+      for (Map.Entry<String, Tally> e : tallies.entrySet ())
+         out.printf ("%-16s %10d %10d%n", e.getKey (), e.getValue ().ops, e.getValue ().errors);
+      out.printf ("%d operations, %d failed, in %.2f s (%.0f ops/s)%n",
+                  total, failed, secs, secs > 0 ? total / secs : 0.0);
+      return failed;
+   }//end run
+
+   /*
+    * Runs one operation through the same code the menu uses.
+    */
+   private void run (String verb, Map<String, String> a) throws SQLException {
+      switch (verb) {
+         case "customer":
+            ops.addCustomer (required (a, "fname"), required (a, "lname"), a.get ("address"),
+                             a.containsKey ("phone") ? Long.valueOf (a.get ("phone")) : null,
+                             a.get ("dob"), a.get ("gender"));
+            break;
+         case "room":
+            ops.addRoom (integer (a, "hotel"), required (a, "type"));
+            break;
+         case "company":
+            ops.addMaintenanceCompany (required (a, "name"), a.get ("address"),
+                                       yesNo (required (a, "certified")));
+            break;
+         case "repair":
+            ops.addRepair (integer (a, "hotel"), integer (a, "room"), integer (a, "company"),
+                           required (a, "date"), a.get ("description"), a.get ("type"));
+            break;
+         case "book":
+            ops.bookRoom (integer (a, "customer"), integer (a, "hotel"), integer (a, "room"),
+                          required (a, "date"), a.containsKey ("people") ? integer (a, "people") : null,
+                          money (a, "price"));
+            break;
+         case "assign":
+            ops.assignHouseCleaningToRoom (integer (a, "staff"), integer (a, "hotel"), integer (a, "room"));
+            break;
+         case "request":
+            ops.repairRequest (integer (a, "manager"), integer (a, "repair"), required (a, "date"),
+                               a.get ("description"));
+            break;
+         case "available":
+            if (a.containsKey ("from"))
+               ops.numberOfAvailableRooms (integer (a, "hotel"), a.get ("from"),
+                                           a.containsKey ("to") ? a.get ("to") : a.get ("from"), out);
+            else
+               ops.numberOfAvailableRooms (integer (a, "hotel"), out);
+            break;
+         case "booked":
+            ops.numberOfBookedRooms (integer (a, "hotel"), out);
+            break;
+         case "week":
+            ops.listHotelRoomBookingsForAWeek (integer (a, "hotel"), required (a, "date"), out);
+            break;
+         case "toprooms":
+            ops.topKHighestRoomPriceForADateRange (required (a, "from"), required (a, "to"),
+                                                   integer (a, "k"), out);
+            break;
+         case "topcustomer":
+            ops.topKHighestPriceBookingsForACustomer (required (a, "fname"), required (a, "lname"),
+                                                      integer (a, "k"), out);
+            break;
+         case "cost":
+            ops.totalCostForCustomer (integer (a, "hotel"), required (a, "fname"), required (a, "lname"),
+                                      required (a, "from"), required (a, "to"), out);
+            break;
+         case "repairs":
+            ops.listRepairsMade (required (a, "company"), out);
+            break;
+         case "topcompanies":
+            ops.topKMaintenanceCompany (integer (a, "k"), out);
+            break;
+         case "repairsperyear":
+            ops.numberOfRepairsForEachRoomPerYear (integer (a, "hotel"), integer (a, "room"), out);
+            break;
+         case "mostrepaired":
+            ops.roomsWithMostRepairs (integer (a, "hotel"), integer (a, "year"),
+                                      a.containsKey ("k") ? integer (a, "k") : 10, out);
+            break;
+         case "rebuild":
+            out.println ("Rebuilt the in-memory indexes, " + ops.rebuild () + " repair counters corrected");
+            break;
+         default:
+            throw new IllegalArgumentException ("unknown operation '" + verb + "'");
+      }//end switch
+   }//end run
+
+   private static boolean isInsert (String verb) {
+      switch (verb) {
+         case "customer": case "room": case "company": case "repair":
+         case "book": case "assign": case "request":
+            return true;
+         default:
+            return false;
+      }//end switch
+   }//end isInsert
+
+   private long report (List<BatchSession.Failure> failures) {
+      // the in-memory indexes already counted the rolled back inserts
+      if (!failures.isEmpty ())
+         esql.clearCaches ();
+      for (BatchSession.Failure f : failures) {
+         String tag = String.valueOf (f.tag);
+         tally (tag.substring (tag.indexOf ('(') + 1, tag.length () - 1)).errors++;
+         System.err.println ("line " + tag + ": " + f.error.getMessage ());
+      }//end for
+      return failures.size ();
+   }//end report
+
+   private Tally tally (String verb) {
+      Tally t = tallies.get (verb);
+      if (t == null)
+         tallies.put (verb, t = new Tally ());
+      return t;
+   }//end tally
+
+   /*
+    * Splits a line at blanks, keeping double-quoted values together.
+    */
+   static List<String> split (String line) {
+      List<String> words = new ArrayList<>();
+      StringBuilder word = new StringBuilder ();
+      boolean quoted = false, any = false;
+      for (int i = 0; i < line.length (); ++i) {
+         char c = line.charAt (i);
+         if (c == '"') {
+            quoted = !quoted;
+            any = true;
+         } else if (Character.isWhitespace (c) && !quoted) {
+            if (any)
+               words.add (word.toString ());
+            word.setLength (0);
+            any = false;
+         } else {
+            word.append (c);
+            any = true;
+         }//end if
+      }//end for
+      if (quoted)
+         throw new IllegalArgumentException ("unterminated quote");
+      if (any)
+         words.add (word.toString ());
+      return words;
+   }//end split
+
+   private static Map<String, String> arguments (List<String> words) {
+      Map<String, String> args = new HashMap<>();
+      for (String w : words.subList (1, words.size ())) {
+         int eq = w.indexOf ('=');
+         if (eq <= 0)
+            throw new IllegalArgumentException ("expected key=value but found '" + w + "'");
+         String value = w.substring (eq + 1);
+         if (!value.isEmpty ())
+            args.put (w.substring (0, eq).toLowerCase (), value);
+      }//end for
+      return args;
+   }//end arguments
+
+   private static String required (Map<String, String> a, String key) {
+      String v = a.get (key);
+      if (v == null)
+         throw new IllegalArgumentException ("missing " + key + "=");
+      return v;
+   }//end required
+
+   private static int integer (Map<String, String> a, String key) {
+      String v = required (a, key);
+      try {
+         return Integer.parseInt (v);
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException (key + "=" + v + " is not a number");
+      }//end try
+   }//end integer
+
+   private static BigDecimal money (Map<String, String> a, String key) {
+      String v = required (a, key);
+      try {
+         return new BigDecimal (v);
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException (key + "=" + v + " is not a number");
+      }//end try
+   }//end money
+
+   private static boolean yesNo (String v) {
+      if (v.equalsIgnoreCase ("yes") || v.equalsIgnoreCase ("true"))
+         return true;
+      if (v.equalsIgnoreCase ("no") || v.equalsIgnoreCase ("false"))
+         return false;
+      throw new IllegalArgumentException ("expected yes or no but found '" + v + "'");
+   }//end yesNo
+
+}//end BatchRunner
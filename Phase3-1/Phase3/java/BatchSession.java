@@ -0,0 +1,165 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Collects the inserts issued by one thread into JDBC batches on a single
+ * connection and commits them in transactions.  While a session is open
+ * (DBProject.beginBatch), DBProject.executeUpdate hands its statement to
+ * the session instead of running it.  Consecutive executions of the same
+ * SQL are sent as one batch; a different statement first flushes the
+ * current batch, so the order of the operations is kept.
+ *
+ * When a batch fails, the transaction is rolled back and the operations
+ * since the last commit are replayed one at a time, each behind a
+ * savepoint, so that every failing operation is reported on its own and
+ * the others are still committed.
+ *
+ */
+public class BatchSession {
+
+   /**
+    * An operation that failed, with the tag it was issued under.
+    */
+   public static class Failure {
+      public final Object tag;
+      public final SQLException error;
+
+      Failure (Object tag, SQLException error) {
+         this.tag = tag;
+         this.error = error;
+      }
+   }//end Failure
+
+   /*
+    * A statement sent since the last commit, kept for a replay.
+    */
+   private static class Pending {
+      final String sql;
+      final Object[] params;
+      final Object tag;
+
+      Pending (String sql, Object[] params, Object tag) {
+         this.sql = sql;
+         this.params = params;
+         this.tag = tag;
+      }
+   }//end Pending
+
+   private final DBProject esql;
+   private final ConnectionPool.PooledConnection pc;
+   private final List<Pending> pending = new ArrayList<>();
+   private final List<Failure> failures = new ArrayList<>();
+
+   // the statement whose batch is being filled and its SQL text.
+   private PreparedStatement current;
+   private String currentSql;
+   private int batched;
+   private Object tag;
+
+   BatchSession (DBProject esql, ConnectionPool.PooledConnection pc) throws SQLException {
+      this.esql = esql;
+      this.pc = pc;
+      pc.getConnection ().setAutoCommit (false);
+   }//end BatchSession
+
+   /**
+    * Sets the tag recorded with the statements that follow, e.g. the line
+    * of the batch file they come from.
+    */
+   public void setTag (Object tag) {
+      this.tag = tag;
+   }//end setTag
+
+   /**
+    * Adds a statement to the batch.
+    */
+   void add (String sql, Object[] params) throws SQLException {
+      if (!sql.equals (currentSql))
+         flush ();
+      current = esql.prepare (pc, sql, params);
+      currentSql = sql;
+      current.addBatch ();
+      ++batched;
+      pending.add (new Pending (sql, params.clone (), tag));
+   }//end add
+
+   /**
+    * Sends the batch being filled to the server.  A failure is handled by
+    * replaying everything since the last commit.
+    */
+   public void flush () throws SQLException {
+      if (current == null)
+         return;
+      PreparedStatement stmt = current;
+      Metrics.Timer timer = esql.getMetrics ().statement (currentSql);
+      long start = System.nanoTime ();
+      int rows = batched;
+      current = null;
+      currentSql = null;
+      batched = 0;
+      try {
+         stmt.executeBatch ();
+         esql.completed (timer, start, rows, 0, null);
+      } catch (SQLException e) {
+         esql.failed (timer, start, e, null);
+         stmt.clearBatch ();
+         replay ();
+      }//end try
+   }//end flush
+
+   /**
+    * Flushes and commits everything sent so far.
+    */
+   public void commit () throws SQLException {
+      flush ();
+      pc.getConnection ().commit ();
+      pending.clear ();
+   }//end commit
+
+   /**
+    * @return the number of statements waiting in the current batch
+    */
+   public int getBatched () {
+      return batched;
+   }//end getBatched
+
+   /**
+    * @return the operations that failed since the last call, oldest first
+    */
+   public List<Failure> takeFailures () {
+      List<Failure> taken = new ArrayList<>(failures);
+      failures.clear ();
+      return taken;
+   }//end takeFailures
+
+   ConnectionPool.PooledConnection getConnection () {
+      return pc;
+   }//end getConnection
+
+   /*
+    * Rolls the transaction back and runs the pending statements one by one,
+    * so that only the failing ones are left out.
+    */
+   private void replay () throws SQLException {
+      Connection conn = pc.getConnection ();
+      conn.rollback ();
+      for (Pending p : pending) {
+         Savepoint sp = conn.setSavepoint ();
+         try {
+            esql.prepare (pc, p.sql, p.params).executeUpdate ();
+            conn.releaseSavepoint (sp);
+         } catch (SQLException e) {
+            conn.rollback (sp);
+            failures.add (new Failure (p.tag, e));
+         }//end try
+      }//end for
+      conn.commit ();
+      pending.clear ();
+   }//end replay
+
+}//end BatchSession
@@ -0,0 +1,87 @@
+/**
+ * A Bloom filter over long keys.  mightContain never answers false for a
+ * key that was put, and answers true for a key that was not put with about
+ * the false positive rate the filter was sized for, as long as no more
+ * keys than expected are put.  Keys cannot be removed.
+ *
+ * The k bit positions of a key come from one 64-bit mix of it, split into
+ * two 32-bit hashes combined as h1 + i * h2 (Kirsch and Mitzenmacher).
+ * Not thread safe.
+ *
+ */
+public class BloomFilter {
+
+   private final long[] words;
+   private final long bits;
+   private final int hashes;
+   private final long expected;
+   private long count;
+
+   /**
+    * @param expected the number of keys the filter is sized for
+    * @param fpp the wanted false positive rate, e.g. 0.01
+    */
+   public BloomFilter (long expected, double fpp) {
+      if (fpp <= 0 || fpp >= 1)
+         throw new IllegalArgumentException ("false positive rate must be between 0 and 1");
+      this.expected = Math.max (1, expected);
+      long m = (long) Math.ceil (-this.expected * Math.log (fpp) / (Math.log (2) * Math.log (2)));
+      this.words = new long[(int) Math.max (1, (m + 63) >>> 6)];
+      this.bits = (long) words.length << 6;
+      this.hashes = Math.max (1, (int) Math.round ((double) bits / this.expected * Math.log (2)));
+   }//end BloomFilter
+
+   public void put (long key) {
+      long h = mix (key);
+      int h1 = (int) h, h2 = (int) (h >>> 32);
+      for (int i = 1; i <= hashes; ++i) {
+         long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+         words[(int) (bit >>> 6)] |= 1L << bit;
+      }//end for
+      ++count;
+   }//end put
+
+   /**
+    * @return false when key was certainly never put
+    */
+   public boolean mightContain (long key) {
+      long h = mix (key);
+      int h1 = (int) h, h2 = (int) (h >>> 32);
+      for (int i = 1; i <= hashes; ++i) {
+         long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+         if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0)
+            return false;
+      }//end for
+      return true;
+   }//end mightContain
+
+   /**
+    * @return the number of keys put, counting repeated keys again
+    */
+   public long getCount () { return count; }
+   public long getExpected () { return expected; }
+   public long getBits () { return bits; }
+   public int getHashes () { return hashes; }
+
+   /**
+    * @return the bytes the bit array takes
+    */
+   public long memoryUsage () {
+      return 16 + 8L * words.length;
+   }//end memoryUsage
+
+   public String toString () {
+      return String.format ("bloom[keys=%d/%d, bits=%d, hashes=%d]", count, expected, bits, hashes);
+   }//end toString
+
+   /*
+    * The splitmix64 finalizer: every key bit affects every hash bit.
+    */
+   private static long mix (long key) {
+      long z = key + 0x9E3779B97F4A7C15L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }//end mix
+
+}//end BloomFilter
@@ -0,0 +1,292 @@
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.IsoFields;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Client-side copy of the bookings of the most recently used hotels,
+ * partitioned by hotel and ISO week and ordered by day within a week, so
+ * that a week or date range of one hotel is read from one or a few small
+ * arrays instead of the booking table.  A hotel is read with a single query
+ * the first time it is asked about; bookRoom adds to hotels already read.
+ *
+ * The number of bookings held is bounded (-Ddbproject.calendar.maxBookings).
+ * Past the bound the least recently used hotels are dropped whole, and read
+ * again if they are asked about later.
+ *
+ */
+public class BookingCalendar {
+
+   /**
+    * Receives the bookings of a range in day order.
+    */
+   public interface Visitor {
+      void visit (int bID, int customer, int roomNo, LocalDate day, long priceCents);
+   }//end Visitor
+
+   /*
+    * The bookings of one hotel in one ISO week as parallel arrays, sorted
+    * by day, then bID.
+    */
+   private static class Week {
+      int size;
+      int[] bID = new int[4];
+      int[] customer = new int[4];
+      int[] roomNo = new int[4];
+      long[] day = new long[4];
+      long[] price = new long[4];
+
+      /*
+       * Inserts a booking in its place, unless it is already there.
+       */
+      boolean add (int id, int cust, int room, long d, long cents) {
+         int at = size;
+         while (at > 0 && (day[at - 1] > d || (day[at - 1] == d && bID[at - 1] >= id))) {
+            if (day[at - 1] == d && bID[at - 1] == id)
+               return false;
+            --at;
+         }//end while
+         if (size == bID.length) {
+            int n = size * 2;
+            bID = Arrays.copyOf (bID, n);
+            customer = Arrays.copyOf (customer, n);
+            roomNo = Arrays.copyOf (roomNo, n);
+            day = Arrays.copyOf (day, n);
+            price = Arrays.copyOf (price, n);
+         }//end if
+         int tail = size - at;
+         System.arraycopy (bID, at, bID, at + 1, tail);
+         System.arraycopy (customer, at, customer, at + 1, tail);
+         System.arraycopy (roomNo, at, roomNo, at + 1, tail);
+         System.arraycopy (day, at, day, at + 1, tail);
+         System.arraycopy (price, at, price, at + 1, tail);
+         bID[at] = id;
+         customer[at] = cust;
+         roomNo[at] = room;
+         day[at] = d;
+         price[at] = cents;
+         ++size;
+         return true;
+      }//end add
+   }//end Week
+
+   /*
+    * The bookings of one hotel by ISO week.  All access is synchronized on
+    * the Hotel.
+    */
+   private static class Hotel {
+      volatile boolean loaded;
+      int bookings;
+      // the bookings added to the calendar's total, guarded by hotels
+      int counted;
+      final Map<Integer, Week> weeks = new HashMap<>();
+
+      boolean add (int bID, int customer, int roomNo, LocalDate day, long cents) {
+         int key = week (day);
+         Week w = weeks.get (key);
+         if (w == null)
+            weeks.put (key, w = new Week ());
+         if (!w.add (bID, customer, roomNo, day.toEpochDay (), cents))
+            return false;
+         ++bookings;
+         return true;
+      }//end add
+   }//end Hotel
+
+   private final DBProject esql;
+   private final long maxBookings;
+   // hotels in access order, guarded by itself
+   private final LinkedHashMap<Integer, Hotel> hotels = new LinkedHashMap<>(16, 0.75f, true);
+   private long bookings;
+
+   private long hits;
+   private long misses;
+   private long evictions;
+
+   /**
+    * @param esql the database hotels are read from
+    * @param maxBookings the number of bookings kept before hotels are dropped
+    */
+   public BookingCalendar (DBProject esql, long maxBookings) {
+      this.esql = esql;
+      this.maxBookings = maxBookings;
+   }//end BookingCalendar
+
+   /**
+    * Hands every booking of a hotel from one day to another to visitor, in
+    * day order.
+    *
+    * @param hotelID the hotel
+    * @param from the first day
+    * @param to the last day, inclusive
+    * @param visitor receives the bookings
+    * @return the number of bookings visited
+    * @throws java.sql.SQLException when the hotel cannot be read
+    */
+   public int forEach (int hotelID, LocalDate from, LocalDate to, Visitor visitor) throws SQLException {
+      Hotel h = load (hotelID);
+      long first = from.toEpochDay (), last = to.toEpochDay ();
+      int count = 0;
+      synchronized (h) {
+         for (LocalDate monday = from.with (DayOfWeek.MONDAY); !monday.isAfter (to); monday = monday.plusWeeks (1)) {
+            Week w = h.weeks.get (week (monday));
+            if (w == null)
+               continue;
+            for (int i = 0; i < w.size; ++i) {
+               long d = w.day[i];
+               if (d < first)
+                  continue;
+               if (d > last)
+                  break;
+               visitor.visit (w.bID[i], w.customer[i], w.roomNo[i], LocalDate.ofEpochDay (d), w.price[i]);
+               ++count;
+            }//end for
+         }//end for
+      }//end synchronized
+      return count;
+   }//end forEach
+
+   /**
+    * Adds the price of every booking of a hotel from one day to another
+    * made by one of the given customers.
+    *
+    * @return the total in cents, or -1 when there is no such booking
+    * @throws java.sql.SQLException when the hotel cannot be read
+    */
+   public long totalCost (int hotelID, final Set<Integer> customers, LocalDate from, LocalDate to)
+         throws SQLException {
+      final long[] total = { -1 };
+      forEach (hotelID, from, to, (bID, customer, roomNo, day, cents) -> {
+         if (customers.contains (customer))
+            total[0] = Math.max (total[0], 0) + cents;
+      });
+      return total[0];
+   }//end totalCost
+
+   /**
+    * Records a booking inserted into the database, if its hotel is held.
+    */
+   public void booked (int bID, int customer, int hotelID, int roomNo, LocalDate day, long priceCents) {
+      Hotel h;
+      synchronized (hotels) {
+         h = hotels.get (hotelID);
+      }//end synchronized
+      if (h == null)
+         return;
+      synchronized (h) {
+         if (!h.loaded || !h.add (bID, customer, roomNo, day, priceCents))
+            return;
+      }//end synchronized
+      synchronized (hotels) {
+         if (hotels.get (hotelID) == h) {
+            ++bookings;
+            ++h.counted;
+         }//end if
+         evict (hotelID);
+      }//end synchronized
+   }//end booked
+
+   /**
+    * Drops a hotel, so that it is read from the database again on next use.
+    */
+   public void forget (int hotelID) {
+      synchronized (hotels) {
+         Hotel h = hotels.remove (hotelID);
+         if (h != null)
+            bookings -= h.counted;
+      }//end synchronized
+   }//end forget
+
+   /**
+    * Drops every hotel.
+    */
+   public void clear () {
+      synchronized (hotels) {
+         hotels.clear ();
+         bookings = 0;
+      }//end synchronized
+   }//end clear
+
+   public String toString () {
+      synchronized (hotels) {
+         return String.format ("calendar[hotels=%d, bookings=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                               hotels.size (), bookings, maxBookings, hits, misses, evictions);
+      }//end synchronized
+   }//end toString
+
+   /*
+    * Returns the hotel, reading it first when it is not held.  Concurrent
+    * callers for the same hotel wait for one read.
+    */
+   private Hotel load (int hotelID) throws SQLException {
+      final Hotel h;
+      synchronized (hotels) {
+         Hotel held = hotels.get (hotelID);
+         if (held == null) {
+            hotels.put (hotelID, held = new Hotel ());
+            ++misses;
+         } else {
+            ++hits;
+         }//end if
+         h = held;
+      }//end synchronized
+      int read;
+      SQLException failure = null;
+      synchronized (h) {
+         if (h.loaded)
+            return h;
+         try {
+            esql.streamQuery ("SELECT bID, customer, roomNo, bookingDate, price FROM booking WHERE hotelID = ?",
+                              row -> h.add (row.getInt (1), row.getInt (2), row.getInt (3),
+                                            row.getDate (4), row.getMoney (5)), hotelID);
+            h.loaded = true;
+         } catch (SQLException e) {
+            failure = e;
+         }//end try
+         read = h.bookings;
+      }//end synchronized
+      synchronized (hotels) {
+         if (hotels.get (hotelID) == h) {
+            if (failure != null) {
+               hotels.remove (hotelID);
+            } else {
+               bookings += read;
+               h.counted += read;
+            }//end if
+         }//end if
+         evict (hotelID);
+      }//end synchronized
+      if (failure != null)
+         throw failure;
+      return h;
+   }//end load
+
+   /*
+    * Drops least recently used hotels, other than the one just used, until
+    * the bookings held are within the bound.  Called holding hotels.
+    */
+   private void evict (int keep) {
+      for (Iterator<Map.Entry<Integer, Hotel>> it = hotels.entrySet ().iterator ();
+           bookings > maxBookings && it.hasNext (); ) {
+         Map.Entry<Integer, Hotel> e = it.next ();
+         Hotel h = e.getValue ();
+         if (e.getKey () == keep || !h.loaded)
+            continue;
+         it.remove ();
+         bookings -= h.counted;
+         ++evictions;
+      }//end for
+   }//end evict
+
+   private static int week (LocalDate day) {
+      return day.get (IsoFields.WEEK_BASED_YEAR) * 100 + day.get (IsoFields.WEEK_OF_WEEK_BASED_YEAR);
+   }//end week
+
+}//end BookingCalendar
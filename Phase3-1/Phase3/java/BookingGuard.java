@@ -0,0 +1,181 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Refuses a booking that overlaps an existing booking of the same room.
+ * Every room has an interval index of its bookings (start day to end day,
+ * exclusive; a booking in this schema is the one night [bookingDate,
+ * bookingDate + 1)), read from the database the first time the room is
+ * booked through this process.  The check and the insert run under a lock
+ * chosen by hashing (hotelID, roomNo) into a fixed array of stripes, so two
+ * clerks booking the same room are serialized while bookings of different
+ * rooms almost never wait for each other.
+ *
+ * The stripes only cover this process.  The booking_no_overlap exclusion
+ * constraint in create.sql catches bookings made concurrently by other
+ * processes; when it fires the room is re-read and the error is passed on.
+ *
+ */
+public class BookingGuard {
+
+   /** SQLState of an exclusion constraint violation. */
+   public static final String EXCLUSION_VIOLATION = "23P01";
+
+   /**
+    * The insert that makes a checked booking.
+    */
+   public interface Insert {
+      void run () throws SQLException;
+   }//end Insert
+
+   private final DBProject esql;
+   private final ReentrantLock[] stripes;
+   // bookings of each room seen so far, start epoch day to end epoch day;
+   // a room's map is only touched while holding its stripe
+   private final Map<Long, NavigableMap<Long, Long>> rooms = new ConcurrentHashMap<>();
+
+   private final AtomicLong bookings = new AtomicLong ();
+   private final AtomicLong conflicts = new AtomicLong ();
+   private final AtomicLong contended = new AtomicLong ();
+
+   /**
+    * @param esql the database the room bookings are read from
+    * @param stripes the number of locks, rounded up to a power of two
+    */
+   public BookingGuard (DBProject esql, int stripes) {
+      this.esql = esql;
+      int n = Integer.highestOneBit (Math.max (1, stripes - 1)) << 1;
+      this.stripes = new ReentrantLock[n];
+      for (int i = 0; i < n; ++i)
+         this.stripes[i] = new ReentrantLock ();
+   }//end BookingGuard
+
+   /**
+    * Runs insert if the room is free from start to end, and records the
+    * booking.
+    *
+    * @param hotelID the hotel
+    * @param roomNo the room
+    * @param start the first day
+    * @param end the day after the last day
+    * @param insert the statement making the booking
+    * @throws java.sql.SQLException with SQLState 23P01 when the room is
+    *    already booked on one of the days, or when the insert fails
+    */
+   public void book (int hotelID, int roomNo, LocalDate start, LocalDate end, Insert insert) throws SQLException {
+      long key = key (hotelID, roomNo);
+      long from = start.toEpochDay (), to = end.toEpochDay ();
+      ReentrantLock lock = stripe (key);
+      if (!lock.tryLock ()) {
+         contended.incrementAndGet ();
+         lock.lock ();
+      }//end if
+      try {
+         NavigableMap<Long, Long> booked = load (key, hotelID, roomNo);
+         Map.Entry<Long, Long> before = booked.floorEntry (from);
+         Map.Entry<Long, Long> after = booked.higherEntry (from);
+         if ((before != null && before.getValue () > from) || (after != null && after.getKey () < to)) {
+            conflicts.incrementAndGet ();
+            throw new SQLException ("Room " + roomNo + " of hotel " + hotelID +
+                                    " is already booked on " + start, EXCLUSION_VIOLATION);
+         }//end if
+         try {
+            insert.run ();
+         } catch (SQLException e) {
+            // another process booked the room first, re-read it next time
+            if (EXCLUSION_VIOLATION.equals (e.getSQLState ()))
+               rooms.remove (key);
+            throw e;
+         }//end try
+         booked.put (from, to);
+         bookings.incrementAndGet ();
+      } finally {
+         lock.unlock ();
+      }//end try
+   }//end book
+
+   /**
+    * Records a booking another process made, if the room is held.
+    */
+   public void booked (int hotelID, int roomNo, LocalDate start, LocalDate end) {
+      long key = key (hotelID, roomNo);
+      ReentrantLock lock = stripe (key);
+      lock.lock ();
+      try {
+         NavigableMap<Long, Long> booked = rooms.get (key);
+         if (booked != null)
+            booked.put (start.toEpochDay (), end.toEpochDay ());
+      } finally {
+         lock.unlock ();
+      }//end try
+   }//end booked
+
+   /**
+    * Drops a room, so that it is read from the database again.
+    */
+   public void forget (int hotelID, int roomNo) {
+      long key = key (hotelID, roomNo);
+      ReentrantLock lock = stripe (key);
+      lock.lock ();
+      try {
+         rooms.remove (key);
+      } finally {
+         lock.unlock ();
+      }//end try
+   }//end forget
+
+   /**
+    * Drops every room, so that each is read from the database again.
+    */
+   public void clear () {
+      rooms.clear ();
+   }//end clear
+
+   public long getBookings () { return bookings.get (); }
+   public long getConflicts () { return conflicts.get (); }
+   public long getContended () { return contended.get (); }
+
+   public String toString () {
+      return String.format ("bookings[booked=%d, conflicts=%d, contended=%d, rooms=%d, stripes=%d]",
+                            getBookings (), getConflicts (), getContended (), rooms.size (), stripes.length);
+   }//end toString
+
+   /*
+    * Returns the bookings of a room, reading them on first use.  Called
+    * with the room's stripe held.
+    */
+   private NavigableMap<Long, Long> load (long key, int hotelID, int roomNo) throws SQLException {
+      NavigableMap<Long, Long> booked = rooms.get (key);
+      if (booked == null) {
+         final NavigableMap<Long, Long> read = new TreeMap<>();
+         esql.streamQuery ("SELECT bookingDate FROM booking WHERE hotelID = ? AND roomNo = ?", row -> {
+            LocalDate day = row.getDate (1);
+            if (day != null)
+               read.put (day.toEpochDay (), day.toEpochDay () + 1);
+         }, hotelID, roomNo);
+         rooms.put (key, booked = read);
+      }//end if
+      return booked;
+   }//end load
+
+   private ReentrantLock stripe (long key) {
+      return stripes[spread (key) & (stripes.length - 1)];
+   }//end stripe
+
+   private static long key (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end key
+
+   private static int spread (long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+   }//end spread
+
+}//end BookingGuard
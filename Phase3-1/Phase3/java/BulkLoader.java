@@ -0,0 +1,421 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+
+
+/**
+ * Reloads the hotel database from the data/*.csv files of any directory.
+ *
+ * The files are streamed to the server with the client-side COPY protocol
+ * (COPY ... FROM STDIN), so they do not have to be readable by the server
+ * process.  Before loading, the foreign keys and secondary indexes of the
+ * nine tables are read from the catalog and dropped, and the tables are
+ * truncated; afterwards the indexes are rebuilt in parallel and the foreign
+ * keys are added back.  Each table starts loading as soon as the tables it
+ * references are loaded, so independent tables load in parallel.
+ *
+ * The change notification triggers of notify.sql are disabled while the
+ * tables load, so that running clients are not sent one notification per
+ * copied row on top of the RELOAD the TRUNCATE sends them; they are
+ * enabled again at the end, and a single RELOAD tells the clients to read
+ * the loaded tables, whether the load succeeded or not.
+ *
+ * When a step fails, whatever was dropped is put back before the error is
+ * reported: the indexes with CREATE INDEX IF NOT EXISTS and the foreign keys
+ * that are missing as NOT VALID, which enforces them for new rows without
+ * checking the partly loaded ones.  Anything that cannot be put back is
+ * printed, so that it can be run by hand.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> <dataDir> [threads]
+ *
+ */
+public class BulkLoader {
+
+   /*
+    * A table, the csv file it is loaded from and the columns in file order,
+    * as in the COPY statements of sql/create.sql.
+    */
+   static final String[][] TABLES = {
+      { "hotel",              "hotel.csv",              "hotelID, address, manager" },
+      { "staff",              "staff.csv",              "SSN, fName, lName, address, role, employerID" },
+      { "room",               "room.csv",               "hotelID, roomNo, roomType" },
+      { "customer",           "customer.csv",           "customerID, fName, lName, Address, phNo, DOB, gender" },
+      { "maintenancecompany", "maintenanceCompany.csv", "cmpID, name, address, isCertified" },
+      { "booking",            "booking.csv",            "bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price" },
+      { "repair",             "repair.csv",             "rID, hotelID, roomNo, mCompany, repairDate, description, repairType" },
+      { "request",            "request.csv",            "reqID, managerID, repairID, requestDate, description" },
+      { "assigned",           "assigned.csv",           "asgID, staffID, hotelID, roomNo" },
+   };
+
+   /*
+    * The id sequences of sql/sequences.sql and the column they follow.
+    */
+   static final String[][] SEQUENCES = {
+      { IdAllocator.CUSTOMER,            "customer",           "customerID" },
+      { IdAllocator.MAINTENANCE_COMPANY, "maintenancecompany", "cmpID" },
+      { IdAllocator.REPAIR,              "repair",             "rID" },
+      { IdAllocator.BOOKING,             "booking",            "bID" },
+      { IdAllocator.ASSIGNED,            "assigned",           "asgID" },
+      { IdAllocator.REQUEST,             "request",            "reqID" },
+   };
+
+   /*
+    * A foreign key read from the catalog before it was dropped.
+    */
+   static class ForeignKey {
+      final String table, name, referenced, definition;
+
+      ForeignKey (String table, String name, String referenced, String definition) {
+         this.table = table;
+         this.name = name;
+         this.referenced = referenced;
+         this.definition = definition;
+      }
+   }//end ForeignKey
+
+   private final String url;
+   private final Properties props;
+   private final File dataDir;
+   private final ExecutorService workers;
+
+   public BulkLoader (String url, Properties props, File dataDir, int threads) {
+      this.url = url;
+      this.props = props;
+      this.dataDir = dataDir;
+      this.workers = Executors.newFixedThreadPool (threads);
+   }//end BulkLoader
+
+   /**
+    * Runs the whole reload: drop, truncate, load, rebuild.
+    *
+    * @throws java.lang.Exception when any step fails
+    */
+   public void load () throws Exception {
+      long start = System.nanoTime ();
+      List<ForeignKey> fks = new ArrayList<>();
+      List<String> indexes = new ArrayList<>();
+      List<String[]> muted = new ArrayList<>();
+      boolean restored = false;
+      try (Connection conn = connect ()) {
+         fks.addAll (readForeignKeys (conn));
+         indexes.addAll (readIndexes (conn));
+         List<String[]> triggers = readNotifyTriggers (conn);
+
+         try (Statement stmt = conn.createStatement ()) {
+            for (ForeignKey fk : fks)
+               stmt.executeUpdate ("ALTER TABLE " + fk.table + " DROP CONSTRAINT " + fk.name);
+            for (String index : indexes)
+               stmt.executeUpdate ("DROP INDEX IF EXISTS " + indexName (index));
+            for (String[] t : triggers) {
+               stmt.executeUpdate ("ALTER TABLE " + t[0] + " DISABLE TRIGGER " + t[1]);
+               muted.add (t);
+            }//end for
+            stmt.executeUpdate ("TRUNCATE " + tableList ());
+         }//end try
+         System.out.println ("Dropped " + fks.size () + " foreign keys and " +
+                             indexes.size () + " indexes");
+
+         loadTables (fks);
+         rebuildIndexes (indexes);
+
+         try (Statement stmt = conn.createStatement ()) {
+            // validating a foreign key locks both tables, so they go one at a time
+            for (ForeignKey fk : fks)
+               stmt.executeUpdate ("ALTER TABLE " + fk.table + " ADD CONSTRAINT " +
+                                   fk.name + " " + fk.definition);
+            System.out.println ("Restored " + fks.size () + " foreign keys");
+            restored = true;
+            stmt.executeUpdate ("ANALYZE " + tableList ());
+         }//end try
+         reseedSequences (conn);
+      } finally {
+         workers.shutdown ();
+         if (!restored)
+            restoreAfterFailure (fks, indexes);
+         unmute (muted);
+      }//end try
+      System.out.printf ("Reload finished in %.2f s%n", (System.nanoTime () - start) / 1e9);
+   }//end load
+
+   /*
+    * Starts every table as soon as the tables it references have loaded.
+    * References that form a cycle (hotel.manager <-> staff.employerID) are
+    * ignored, the constraints are not in place during the load anyway.
+    */
+   private void loadTables (List<ForeignKey> fks) throws Exception {
+      Map<String, List<String>> dependsOn = new HashMap<>();
+      for (String[] t : TABLES)
+         dependsOn.put (t[0], new ArrayList<String>());
+      for (ForeignKey fk : fks)
+         if (dependsOn.containsKey (fk.table) && dependsOn.containsKey (fk.referenced)
+             && !fk.table.equals (fk.referenced) && !reaches (dependsOn, fk.referenced, fk.table))
+            dependsOn.get (fk.table).add (fk.referenced);
+
+      Map<String, CompletableFuture<Void>> done = new LinkedHashMap<>();
+      for (int remaining = TABLES.length; remaining > 0; ) {
+         for (final String[] t : TABLES) {
+            if (done.containsKey (t[0]) || !done.keySet ().containsAll (dependsOn.get (t[0])))
+               continue;
+            List<CompletableFuture<Void>> before = new ArrayList<>();
+            for (String d : dependsOn.get (t[0]))
+               before.add (done.get (d));
+            CompletableFuture<Void> ready = CompletableFuture.allOf (before.toArray (new CompletableFuture<?>[0]));
+            done.put (t[0], ready.thenRunAsync (() -> copyTable (t), workers));
+            --remaining;
+         }//end for
+      }//end for
+      waitFor (new ArrayList<Future<?>>(done.values ()));
+   }//end loadTables
+
+   /*
+    * Streams one csv file to the server and reports its throughput.
+    */
+   private void copyTable (String[] t) {
+      File file = new File (dataDir, t[1]);
+      long start = System.nanoTime ();
+      try (Connection conn = connect ();
+           InputStream data = new FileInputStream (file)) {
+         try (Statement stmt = conn.createStatement ()) {
+            // the csv files write dates as M/D/YYYY
+            stmt.execute ("SET datestyle = 'ISO, MDY'");
+         }//end try
+         long rows = conn.unwrap (PGConnection.class).getCopyAPI ()
+            .copyIn ("COPY " + t[0] + "(" + t[2] + ") FROM STDIN WITH DELIMITER ','", data, 1 << 16);
+         double secs = (System.nanoTime () - start) / 1e9;
+         System.out.printf ("%-20s %10d rows %8.2f s %12.0f rows/s%n", t[0], rows, secs, rows / secs);
+      } catch (Exception e) {
+         throw new RuntimeException ("Loading " + file + " failed: " + e.getMessage (), e);
+      }//end try
+   }//end copyTable
+
+   private void rebuildIndexes (List<String> indexes) throws Exception {
+      List<Future<?>> builds = new ArrayList<>();
+      for (final String definition : indexes)
+         builds.add (workers.submit (() -> {
+            try (Connection conn = connect (); Statement stmt = conn.createStatement ()) {
+               stmt.executeUpdate (definition);
+            }//end try
+            return null;
+         }));
+      waitFor (builds);
+      System.out.println ("Rebuilt " + indexes.size () + " indexes");
+   }//end rebuildIndexes
+
+   /*
+    * Puts back the indexes and foreign keys a failed reload left missing,
+    * on a new connection since the failure may have broken the old one.
+    */
+   private void restoreAfterFailure (List<ForeignKey> fks, List<String> indexes) {
+      if (fks.isEmpty () && indexes.isEmpty ())
+         return;
+      List<String> left = new ArrayList<>();
+      for (String definition : indexes)
+         left.add (definition.replaceFirst ("(?i)\\bINDEX\\s+", "INDEX IF NOT EXISTS "));
+      for (ForeignKey fk : fks)
+         left.add ("ALTER TABLE " + fk.table + " ADD CONSTRAINT " + fk.name + " " + fk.definition + " NOT VALID");
+      try (Connection conn = connect (); Statement stmt = conn.createStatement ()) {
+         for (int i = 0; i < indexes.size (); ++i) {
+            stmt.executeUpdate (left.get (0));
+            left.remove (0);
+         }//end for
+         for (ForeignKey fk : fks) {
+            if (!hasConstraint (conn, fk))
+               stmt.executeUpdate (left.get (0));
+            left.remove (0);
+         }//end for
+         System.err.println ("Reload failed, the indexes and foreign keys were restored");
+      } catch (SQLException e) {
+         System.err.println ("Reload failed, and restoring the indexes and foreign keys failed: " +
+                             e.getMessage () + "\nRun these to restore them:");
+         for (String ddl : left)
+            System.err.println (ddl + ";");
+      }//end try
+   }//end restoreAfterFailure
+
+   /*
+    * Enables the notification triggers again and tells every client to read
+    * the tables afresh.
+    */
+   private void unmute (List<String[]> muted) {
+      try (Connection conn = connect (); Statement stmt = conn.createStatement ()) {
+         for (String[] t : muted)
+            stmt.executeUpdate ("ALTER TABLE " + t[0] + " ENABLE TRIGGER " + t[1]);
+         if (!muted.isEmpty ())
+            stmt.execute ("SELECT pg_notify('" + ChangeListener.CHANNEL + "', " +
+                          "concat_ws(chr(31), current_setting('application_name'), '*', 'RELOAD'))");
+      } catch (SQLException e) {
+         System.err.println ("Enabling the change notifications failed: " + e.getMessage () +
+                             "\nRun these to enable them:");
+         for (String[] t : muted)
+            System.err.println ("ALTER TABLE " + t[0] + " ENABLE TRIGGER " + t[1] + ";");
+      }//end try
+   }//end unmute
+
+   private static boolean hasConstraint (Connection conn, ForeignKey fk) throws SQLException {
+      try (PreparedStatement stmt = conn.prepareStatement (
+              "SELECT 1 FROM pg_constraint WHERE conname = ? AND lower(conrelid::regclass::text) = ?")) {
+         stmt.setString (1, fk.name);
+         stmt.setString (2, fk.table);
+         try (ResultSet rs = stmt.executeQuery ()) {
+            return rs.next ();
+         }//end try
+      }//end try
+   }//end hasConstraint
+
+   /*
+    * Moves the id sequences past the reloaded ids, if they exist.
+    */
+   private void reseedSequences (Connection conn) throws SQLException {
+      try (Statement stmt = conn.createStatement ()) {
+         for (String[] s : SEQUENCES) {
+            try (ResultSet rs = stmt.executeQuery ("SELECT 1 FROM information_schema.sequences " +
+                                                   "WHERE sequence_name = '" + s[0] + "'")) {
+               if (!rs.next ())
+                  continue;
+            }//end try
+            stmt.execute ("SELECT setval('" + s[0] + "', COALESCE(MAX(" + s[2] + "), 0)::bigint + 1, false) " +
+                          "FROM " + s[1]);
+         }//end for
+      }//end try
+   }//end reseedSequences
+
+   private List<ForeignKey> readForeignKeys (Connection conn) throws SQLException {
+      List<ForeignKey> fks = new ArrayList<>();
+      String query = "SELECT lower(c.conrelid::regclass::text), c.conname, " +
+                     "lower(c.confrelid::regclass::text), pg_get_constraintdef(c.oid) " +
+                     "FROM pg_constraint c WHERE c.contype = 'f' " +
+                     "AND lower(c.conrelid::regclass::text) IN (" + quotedTableList () + ")";
+      try (Statement stmt = conn.createStatement (); ResultSet rs = stmt.executeQuery (query)) {
+         while (rs.next ())
+            fks.add (new ForeignKey (rs.getString (1), rs.getString (2), rs.getString (3), rs.getString (4)));
+      }//end try
+      return fks;
+   }//end readForeignKeys
+
+   /*
+    * The row triggers of notify.sql on the loaded tables, as (table, trigger).
+    */
+   private List<String[]> readNotifyTriggers (Connection conn) throws SQLException {
+      List<String[]> triggers = new ArrayList<>();
+      String query = "SELECT lower(t.tgrelid::regclass::text), t.tgname " +
+                     "FROM pg_trigger t JOIN pg_proc p ON p.oid = t.tgfoid " +
+                     "WHERE NOT t.tgisinternal AND p.proname = 'notify_change' " +
+                     "AND lower(t.tgrelid::regclass::text) IN (" + quotedTableList () + ")";
+      try (Statement stmt = conn.createStatement (); ResultSet rs = stmt.executeQuery (query)) {
+         while (rs.next ())
+            triggers.add (new String[] { rs.getString (1), rs.getString (2) });
+      }//end try
+      return triggers;
+   }//end readNotifyTriggers
+
+   /*
+    * Secondary indexes only; the primary keys stay in place.
+    */
+   private List<String> readIndexes (Connection conn) throws SQLException {
+      List<String> indexes = new ArrayList<>();
+      String query = "SELECT pg_get_indexdef(i.indexrelid) FROM pg_index i " +
+                     "WHERE NOT i.indisprimary AND NOT EXISTS " +
+                     "(SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid) " +
+                     "AND lower(i.indrelid::regclass::text) IN (" + quotedTableList () + ")";
+      try (Statement stmt = conn.createStatement (); ResultSet rs = stmt.executeQuery (query)) {
+         while (rs.next ())
+            indexes.add (rs.getString (1));
+      }//end try
+      return indexes;
+   }//end readIndexes
+
+   /*
+    * "CREATE INDEX index_booking ON public.booking ..." -> "index_booking"
+    */
+   private static String indexName (String definition) {
+      String[] words = definition.split ("\\s+");
+      for (int i = 0; i < words.length - 1; ++i)
+         if (words[i].equalsIgnoreCase ("INDEX"))
+            return words[i + 1];
+      throw new IllegalArgumentException ("Not an index definition: " + definition);
+   }//end indexName
+
+   private static boolean reaches (Map<String, List<String>> dependsOn, String from, String to) {
+      if (from.equals (to))
+         return true;
+      for (String next : dependsOn.get (from))
+         if (reaches (dependsOn, next, to))
+            return true;
+      return false;
+   }//end reaches
+
+   private static void waitFor (List<Future<?>> futures) throws Exception {
+      for (Future<?> f : futures) {
+         try {
+            f.get ();
+         } catch (ExecutionException e) {
+            Throwable cause = e.getCause ();
+            while (cause.getCause () != null && cause instanceof RuntimeException)
+               cause = cause.getCause ();
+            throw cause instanceof Exception ? (Exception) cause : e;
+         }//end try
+      }//end for
+   }//end waitFor
+
+   private static String tableList () {
+      StringBuilder sb = new StringBuilder ();
+      for (String[] t : TABLES)
+         sb.append (sb.length () == 0 ? "" : ", ").append (t[0]);
+      return sb.toString ();
+   }//end tableList
+
+   private static String quotedTableList () {
+      return "'" + tableList ().replace (", ", "', '") + "'";
+   }//end quotedTableList
+
+   private Connection connect () throws SQLException {
+      return DriverManager.getConnection (url, props);
+   }//end connect
+
+   public static void main (String[] args) {
+      if (args.length < 4 || args.length > 5) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName () +
+                             " <dbname> <port> <user> <dataDir> [threads]");
+         return;
+      }//end if
+      File dataDir = new File (args[3]);
+      if (!dataDir.isDirectory ()) {
+         System.err.println ("Not a directory: " + dataDir);
+         return;
+      }//end if
+      int threads = args.length == 5 ? Integer.parseInt (args[4])
+                                     : Math.min (TABLES.length, Runtime.getRuntime ().availableProcessors ());
+
+      Properties props = new Properties ();
+      props.setProperty ("user", args[2]);
+      props.setProperty ("password", "");
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      try {
+         Class.forName ("org.postgresql.Driver");
+         new BulkLoader (url, props, dataDir, threads).load ();
+      } catch (Exception e) {
+         System.err.println ("Error - Bulk load failed: " + e.getMessage ());
+         System.exit (-1);
+      }//end try
+   }//end main
+
+}//end BulkLoader
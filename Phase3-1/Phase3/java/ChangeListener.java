@@ -0,0 +1,270 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+
+/**
+ * Keeps the in-memory indexes of this process current with the writes of
+ * other processes.  The triggers in notify.sql send every row inserted into
+ * or deleted from the cached tables on channel dbproject_changes; a daemon
+ * thread LISTENs on its own connection and applies each change:
+ *
+ *    insert of a booking, repair, room, customer or company is added to the
+ *    indexes that hold its hotel, room or name, the same way the insert
+ *    methods of this process add their own rows;
+ *    delete drops what the indexes hold about the hotel, room or table, to
+ *    be read again on next use, since nothing in the client deletes rows.
+ *
+ * Either way the report outputs reading the table are marked stale.  Changes
+ * whose origin is this process (its application_name) are skipped.  A
+ * RELOAD, sent when a table is truncated and when BulkLoader finishes,
+ * clears every index whatever its origin.  When the connection is lost the
+ * listener reconnects and, since notifications sent in between are lost,
+ * clears every index once it listens again; it does the same after its
+ * first LISTEN.  Each time it then refills them from the snapshot, if there
+ * is one, before applying any notification.
+ *
+ */
+public class ChangeListener implements Runnable {
+
+   /** Channel the triggers in notify.sql notify on. */
+   public static final String CHANNEL = "dbproject_changes";
+
+   // longest wait for notifications before checking for close
+   private static final int POLL_MS = 500;
+   private static final long MAX_BACKOFF_MS = 30000;
+
+   private final DBProject esql;
+   private final String origin;
+   private final Thread thread;
+   private volatile boolean closed;
+   private volatile boolean listening;
+   private volatile Connection connection;
+
+   private final AtomicLong applied = new AtomicLong ();
+   private final AtomicLong skipped = new AtomicLong ();
+   private final AtomicLong unreadable = new AtomicLong ();
+   private final AtomicLong reconnects = new AtomicLong ();
+   private final AtomicLong reloads = new AtomicLong ();
+
+   /**
+    * @param esql the database and the indexes changes are applied to
+    * @param origin the application_name of this process's connections
+    */
+   public ChangeListener (DBProject esql, String origin) {
+      this.esql = esql;
+      this.origin = origin;
+      this.thread = new Thread (this, "change-listener");
+      this.thread.setDaemon (true);
+   }//end ChangeListener
+
+   /**
+    * Starts listening in the background.
+    */
+   public void start () {
+      thread.start ();
+   }//end start
+
+   /**
+    * Stops listening and closes the connection.
+    */
+   public void close () {
+      closed = true;
+      closeConnection ();
+      thread.interrupt ();
+      try {
+         thread.join (POLL_MS * 2);
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+      }//end try
+   }//end close
+
+   public void run () {
+      long backoff = 1000;
+      boolean listened = false;
+      while (!closed) {
+         try {
+            connection = esql.getPool ().openUnpooled ();
+            try (Statement stmt = connection.createStatement ()) {
+               stmt.execute ("LISTEN " + CHANNEL);
+            }//end try
+            // whatever changed before we listened is unknown: on a reconnect
+            // the changes missed meanwhile, at startup those made while an
+            // index was read before the first LISTEN
+            if (listened)
+               reconnects.incrementAndGet ();
+            esql.clearCaches ();
+            esql.restoreSnapshot ();
+            listened = true;
+            listening = true;
+            backoff = 1000;
+            PGConnection pg = connection.unwrap (PGConnection.class);
+            while (!closed) {
+               PGNotification[] changes = pg.getNotifications (POLL_MS);
+               if (changes != null)
+                  for (PGNotification n : changes)
+                     apply (n.getParameter ());
+            }//end while
+         } catch (SQLException e) {
+            if (closed)
+               break;
+            System.err.println ("Change listener: " + e.getMessage () + ", retrying in " + backoff + "ms");
+            try {
+               Thread.sleep (backoff);
+            } catch (InterruptedException ie) {
+               break;
+            }//end try
+            backoff = Math.min (backoff * 2, MAX_BACKOFF_MS);
+         } finally {
+            listening = false;
+            closeConnection ();
+         }//end try
+      }//end while
+   }//end run
+
+   /**
+    * Applies one notification payload: origin, table, operation and the
+    * row's keys separated by chr(31).  A payload that cannot be read clears
+    * every index.
+    */
+   void apply (String payload) {
+      String[] f = payload.split ("\u001f", -1);
+      if (f.length < 3) {
+         unreadable.incrementAndGet ();
+         esql.clearCaches ();
+         return;
+      }//end if
+      if (f[2].equals ("RELOAD")) {
+         // the tables were replaced underneath, nothing held about them is right
+         reloads.incrementAndGet ();
+         esql.clearCaches ();
+         return;
+      }//end if
+      if (f[0].equals (origin)) {
+         skipped.incrementAndGet ();
+         return;
+      }//end if
+      String table = f[1];
+      boolean insert = f[2].equals ("INSERT");
+      try {
+         switch (table) {
+            case ResultCache.BOOKING: {
+               int bID = Integer.parseInt (f[3]), customer = Integer.parseInt (f[4]);
+               int hotelID = Integer.parseInt (f[5]), roomNo = Integer.parseInt (f[6]);
+               if (insert) {
+                  LocalDate day = Row.parseDate (f[7]);
+                  long cents = Row.parseMoney (f[8]);
+                  esql.getOccupancy ().booked (hotelID, roomNo, f[7]);
+                  esql.getBookings ().booked (hotelID, roomNo, day, day.plusDays (1));
+                  esql.getCalendar ().booked (bID, customer, hotelID, roomNo, day, cents);
+                  esql.getTopK ().booked (bID, customer, hotelID, roomNo, day, cents);
+               } else {
+                  esql.getOccupancy ().forget (hotelID);
+                  esql.getBookings ().forget (hotelID, roomNo);
+                  esql.getCalendar ().forget (hotelID);
+                  esql.getTopK ().clear ();
+               }//end if
+               break;
+            }
+            case ResultCache.REPAIR: {
+               int hotelID = Integer.parseInt (f[4]), roomNo = Integer.parseInt (f[5]);
+               int mCompany = Integer.parseInt (f[6]);
+               // the inserting transaction, sent by notify.sql since it was added
+               long xid = f.length > 8 ? Long.parseLong (f[8]) : -1;
+               if (insert) {
+                  esql.getRepairCounts ().notified (mCompany, xid);
+                  esql.getReferences ().repairAdded (Integer.parseInt (f[3]));
+                  esql.getRepairYears ().notified (hotelID, roomNo, f[7], xid);
+               } else {
+                  esql.getRepairCounts ().clear ();
+                  esql.getRepairYears ().clear ();
+               }//end if
+               break;
+            }
+            case ResultCache.ROOM: {
+               int hotelID = Integer.parseInt (f[3]), roomNo = Integer.parseInt (f[4]);
+               if (insert) {
+                  esql.getOccupancy ().roomAdded (hotelID, roomNo);
+                  esql.getReferences ().roomAdded (hotelID, roomNo);
+               } else {
+                  esql.getOccupancy ().forget (hotelID);
+               }//end if
+               esql.getIds ().forgetRoomNo (hotelID);
+               break;
+            }
+            case ResultCache.CUSTOMER: {
+               int customerID = Integer.parseInt (f[3]);
+               if (insert) {
+                  esql.getCustomers ().added (customerID, f[4], f[5]);
+                  esql.getReferences ().customerAdded (customerID);
+               } else {
+                  esql.getCustomers ().clear ();
+               }//end if
+               break;
+            }
+            case ResultCache.MAINTENANCE_COMPANY: {
+               int cmpID = Integer.parseInt (f[3]);
+               if (insert)
+                  esql.getRepairCounts ().added (cmpID, f[4]);
+               else
+                  esql.getRepairCounts ().clear ();
+               break;
+            }
+            case ResultCache.STAFF: {
+               // only the existence of staff is cached, deleted SSNs are left to the foreign keys
+               if (insert)
+                  esql.getReferences ().staffAdded (Integer.parseInt (f[3]));
+               break;
+            }
+            default:
+               unreadable.incrementAndGet ();
+               return;
+         }//end switch
+      } catch (RuntimeException e) {
+         // short, misplaced or malformed keys
+         unreadable.incrementAndGet ();
+         esql.clearCaches ();
+         return;
+      }//end try
+      esql.getResults ().bump (table);
+      applied.incrementAndGet ();
+   }//end apply
+
+   /**
+    * @return whether the listener is connected, i.e. no change of another
+    *    process can be missed right now
+    */
+   public boolean isListening () {
+      return listening;
+   }//end isListening
+
+   public long getApplied () { return applied.get (); }
+   public long getSkipped () { return skipped.get (); }
+   public long getUnreadable () { return unreadable.get (); }
+   public long getReconnects () { return reconnects.get (); }
+   public long getReloads () { return reloads.get (); }
+
+   public String toString () {
+      return String.format ("listener[applied=%d, skipped=%d, unreadable=%d, reconnects=%d, reloads=%d, origin=%s]",
+                            getApplied (), getSkipped (), getUnreadable (), getReconnects (), getReloads (),
+                            origin);
+   }//end toString
+
+   private void closeConnection () {
+      Connection c = connection;
+      connection = null;
+      if (c == null)
+         return;
+      try {
+         c.close ();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeConnection
+
+}//end ChangeListener
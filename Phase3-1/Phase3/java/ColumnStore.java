@@ -0,0 +1,267 @@
+import java.util.Arrays;
+
+
+/**
+ * The room, booking and repair tables of MemoryOperations as primitive
+ * columns, one array per column indexed by row number:
+ *
+ *    keys      int
+ *    dates     int days since 1970-01-01, as LocalDate.toEpochDay counts
+ *              them and as Postgres stores a date
+ *    prices    long cents, as Row.parseMoney scales a Numeric(6,2)
+ *    types     byte codes of a Dictionary (roomType, repairType)
+ *
+ * A room takes 9 bytes, a booking 28 and a repair 21, where a row of boxed
+ * fields or strings takes well over a hundred, so that 100 million
+ * bookings with their indexes fit in a few GB.  The columns grow by half
+ * when full.  The reports reach rows through the chains of MemoryOperations
+ * (an int array of next row numbers per key) and the byDay order, so each
+ * step is a data-dependent array read rather than a counted loop the JIT
+ * could vectorize; what the columns save is the object headers, pointers
+ * and boxing of a row object, and the cache misses that come with them.
+ * Not thread safe.
+ *
+ */
+public class ColumnStore {
+
+   public static final class Rooms {
+      int size;
+      int[] hotel = new int[16];
+      int[] no = new int[16];
+      byte[] type = new byte[16];
+      final Dictionary types = new Dictionary ();
+
+      /**
+       * @return the new row
+       * @throws java.lang.IllegalStateException when roomType would be the 256th type
+       */
+      int add (int hotelID, int roomNo, String roomType) {
+         byte code = types.encode (roomType);
+         int r = size++;
+         hotel = grow (hotel, r);
+         no = grow (no, r);
+         type = grow (type, r);
+         hotel[r] = hotelID;
+         no[r] = roomNo;
+         type[r] = code;
+         return r;
+      }//end add
+
+      long memoryUsage () {
+         return 4L * hotel.length + 4L * no.length + type.length;
+      }//end memoryUsage
+   }//end Rooms
+
+   public static final class Bookings {
+      int size;
+      int[] id = new int[16];
+      int[] customer = new int[16];
+      int[] hotel = new int[16];
+      int[] room = new int[16];
+      int[] day = new int[16];
+      long[] price = new long[16];
+      // the rows ordered by day, then id; valid after order
+      int[] byDay = new int[16];
+
+      /**
+       * Adds a row without placing it in byDay, for loading many rows
+       * before one call of order.
+       *
+       * @return the new row
+       */
+      int append (int bID, int customerID, int hotelID, int roomNo, int date, long cents) {
+         int b = size++;
+         id = grow (id, b);
+         customer = grow (customer, b);
+         hotel = grow (hotel, b);
+         room = grow (room, b);
+         day = grow (day, b);
+         price = grow (price, b);
+         id[b] = bID;
+         customer[b] = customerID;
+         hotel[b] = hotelID;
+         room[b] = roomNo;
+         day[b] = date;
+         price[b] = cents;
+         return b;
+      }//end append
+
+      /**
+       * Adds a row and places it in byDay.
+       *
+       * @return the new row
+       */
+      int insert (int bID, int customerID, int hotelID, int roomNo, int date, long cents) {
+         int b = append (bID, customerID, hotelID, roomNo, date, cents);
+         byDay = grow (byDay, b);
+         // after the rows of earlier days and of the same day with a lower id
+         int at = b;
+         while (at > 0 && (day[byDay[at - 1]] > date || (day[byDay[at - 1]] == date && id[byDay[at - 1]] > bID)))
+            --at;
+         System.arraycopy (byDay, at, byDay, at + 1, b - at);
+         byDay[at] = b;
+         return b;
+      }//end insert
+
+      /**
+       * Rebuilds byDay from all rows with one primitive sort.
+       */
+      void order () {
+         long[] keys = new long[size];
+         for (int b = 0; b < size; ++b)
+            keys[b] = ((long) day[b] << 32) | b;
+         Arrays.sort (keys);
+         byDay = new int[id.length];
+         for (int i = 0; i < size; ++i) {
+            int b = (int) keys[i];
+            // the rows of a day come in row order, put them in id order
+            int at = i;
+            while (at > 0 && day[byDay[at - 1]] == day[b] && id[byDay[at - 1]] > id[b]) {
+               byDay[at] = byDay[at - 1];
+               --at;
+            }//end while
+            byDay[at] = b;
+         }//end for
+      }//end order
+
+      /**
+       * @return the position in byDay of the first row on or after date
+       */
+      int firstOnOrAfter (long date) {
+         int lo = 0, hi = size;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (day[byDay[mid]] < date)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }//end while
+         return lo;
+      }//end firstOnOrAfter
+
+      /**
+       * Selects the k rows of rows[from, to) with the highest price, ties
+       * going to the lower id, as TopKIndex orders them, in one pass with a
+       * heap of k row numbers.
+       *
+       * @return the rows, best first
+       */
+      int[] top (int[] rows, int from, int to, int k) {
+         k = Math.max (0, Math.min (k, to - from));
+         // the worst of the best so far at heap[0]
+         int[] heap = new int[k];
+         int n = 0;
+         for (int i = from; i < to && k > 0; ++i) {
+            int b = rows[i];
+            if (n < k) {
+               heap[n] = b;
+               up (heap, n++);
+            } else if (better (b, heap[0])) {
+               heap[0] = b;
+               down (heap, k);
+            }//end if
+         }//end for
+         // move the worst to the back until the best is in front
+         for (int end = n - 1; end > 0; --end) {
+            int t = heap[0];
+            heap[0] = heap[end];
+            heap[end] = t;
+            down (heap, end);
+         }//end for
+         return heap;
+      }//end top
+
+      long memoryUsage () {
+         return 4L * (id.length + customer.length + hotel.length + room.length + day.length + byDay.length) +
+                8L * price.length;
+      }//end memoryUsage
+
+      private boolean better (int a, int b) {
+         return price[a] != price[b] ? price[a] > price[b] : id[a] < id[b];
+      }//end better
+
+      private void up (int[] heap, int i) {
+         while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better (heap[parent], heap[i]))
+               return;
+            int t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+         }//end while
+      }//end up
+
+      private void down (int[] heap, int n) {
+         int i = 0;
+         while (2 * i + 1 < n) {
+            int worse = 2 * i + 1;
+            if (worse + 1 < n && better (heap[worse], heap[worse + 1]))
+               ++worse;
+            if (!better (heap[i], heap[worse]))
+               return;
+            int t = heap[i];
+            heap[i] = heap[worse];
+            heap[worse] = t;
+            i = worse;
+         }//end while
+      }//end down
+   }//end Bookings
+
+   public static final class Repairs {
+      int size;
+      int[] id = new int[16];
+      int[] hotel = new int[16];
+      int[] room = new int[16];
+      int[] company = new int[16];
+      int[] day = new int[16];
+      byte[] type = new byte[16];
+      final Dictionary types = new Dictionary ();
+
+      /**
+       * @return the new row
+       * @throws java.lang.IllegalStateException when repairType would be the 256th type
+       */
+      int add (int rID, int hotelID, int roomNo, int cmpID, int date, String repairType) {
+         byte code = types.encode (repairType);
+         int r = size++;
+         id = grow (id, r);
+         hotel = grow (hotel, r);
+         room = grow (room, r);
+         company = grow (company, r);
+         day = grow (day, r);
+         type = grow (type, r);
+         id[r] = rID;
+         hotel[r] = hotelID;
+         room[r] = roomNo;
+         company[r] = cmpID;
+         day[r] = date;
+         type[r] = code;
+         return r;
+      }//end add
+
+      /**
+       * @return the repairType of row r, null when it has none
+       */
+      String type (int r) {
+         return types.decode (type[r]);
+      }//end type
+
+      long memoryUsage () {
+         return 4L * (id.length + hotel.length + room.length + company.length + day.length) + type.length;
+      }//end memoryUsage
+   }//end Repairs
+
+   static int[] grow (int[] a, int size) {
+      return size < a.length ? a : Arrays.copyOf (a, a.length + (a.length >> 1));
+   }//end grow
+
+   static long[] grow (long[] a, int size) {
+      return size < a.length ? a : Arrays.copyOf (a, a.length + (a.length >> 1));
+   }//end grow
+
+   static byte[] grow (byte[] a, int size) {
+      return size < a.length ? a : Arrays.copyOf (a, a.length + (a.length >> 1));
+   }//end grow
+
+}//end ColumnStore
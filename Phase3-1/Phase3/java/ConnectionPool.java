@@ -0,0 +1,317 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A bounded pool of physical PostgreSQL connections shared by every
+ * DBProject operation.  Borrowers wait at most borrowTimeoutMs for a free
+ * connection, connections that sat idle for a while are validated before
+ * they are handed out again, and a background thread closes connections
+ * that stayed idle longer than idleTimeoutMs.
+ *
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection owned by the pool.
+    */
+   public static class PooledConnection {
+      final Connection connection;
+      long lastReleased;
+      // prepared statements of this connection, created by the first user.
+      StatementCache statements;
+
+      PooledConnection (Connection connection) {
+         this.connection = connection;
+         this.lastReleased = System.currentTimeMillis ();
+      }
+
+      public Connection getConnection () {
+         return this.connection;
+      }
+   }//end PooledConnection
+
+   private final String url;
+   private final Properties props;
+   private final int maxSize;
+   private final int minIdle;
+   private final long borrowTimeoutMs;
+   private final long idleTimeoutMs;
+   private final long validateAfterMs;
+
+   // one permit per connection that may exist at the same time.
+   private final Semaphore permits;
+   // most recently released connections sit at the head.
+   private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+   private final ScheduledExecutorService evictor;
+
+   // pool statistics
+   private final AtomicInteger active = new AtomicInteger();
+   private final AtomicLong borrows = new AtomicLong();
+   private final AtomicLong waitNanos = new AtomicLong();
+   private final AtomicLong maxWaitNanos = new AtomicLong();
+   private final AtomicLong timeouts = new AtomicLong();
+   private final AtomicLong created = new AtomicLong();
+   private final AtomicLong evicted = new AtomicLong();
+   private final AtomicLong invalidated = new AtomicLong();
+   private final LatencyHistogram waits = new LatencyHistogram ();
+
+   private volatile boolean closed = false;
+
+   /**
+    * Creates a new pool.  No connection is opened until prefill or borrow
+    * is called.
+    *
+    * @param url the JDBC connection URL
+    * @param props the connection properties (user, password, ...)
+    * @param maxSize the maximum number of open connections
+    * @param minIdle the number of idle connections the evictor keeps open
+    * @param borrowTimeoutMs how long borrow waits for a free connection
+    * @param idleTimeoutMs how long a connection may stay idle before it is closed
+    * @param validateAfterMs idle time after which a connection is validated on borrow
+    */
+   public ConnectionPool (String url, Properties props, int maxSize, int minIdle,
+                          long borrowTimeoutMs, long idleTimeoutMs, long validateAfterMs) {
+      if (maxSize < 1)
+         throw new IllegalArgumentException ("pool size must be at least 1");
+      this.url = url;
+      this.props = props;
+      this.maxSize = maxSize;
+      this.minIdle = Math.min (minIdle, maxSize);
+      this.borrowTimeoutMs = borrowTimeoutMs;
+      this.idleTimeoutMs = idleTimeoutMs;
+      this.validateAfterMs = validateAfterMs;
+      this.permits = new Semaphore (maxSize, true);
+
+      this.evictor = Executors.newSingleThreadScheduledExecutor (new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread (r, "connection-pool-evictor");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      long period = Math.max (1000, idleTimeoutMs / 2);
+      this.evictor.scheduleWithFixedDelay (new Runnable () {
+         public void run () {
+            evictIdle ();
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Opens minIdle connections up front so that connection problems are
+    * reported at startup.
+    *
+    * @throws java.sql.SQLException when a connection cannot be opened
+    */
+   public void prefill () throws SQLException {
+      for (int i = idle.size (); i < Math.max (1, minIdle); ++i) {
+         PooledConnection pc = open ();
+         idle.offerLast (pc);
+      }//end for
+   }//end prefill
+
+   /**
+    * Borrows a connection, waiting at most borrowTimeoutMs for one to
+    * become available.  Every borrowed connection must be handed back
+    * with release or invalidate.
+    *
+    * @return a connection in auto-commit mode
+    * @throws java.sql.SQLException when the pool is exhausted or a new connection fails
+    */
+   public PooledConnection borrow () throws SQLException {
+      if (closed)
+         throw new SQLException ("Connection pool is closed");
+
+      long start = System.nanoTime ();
+      try {
+         if (!permits.tryAcquire (borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+            // a timeout waited too, the longest of all
+            recordWait (System.nanoTime () - start);
+            timeouts.incrementAndGet ();
+            throw new SQLException ("Timed out after " + borrowTimeoutMs +
+                                    " ms waiting for a database connection", "08001");
+         }//end if
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while waiting for a database connection", "08001");
+      }//end try
+      recordWait (System.nanoTime () - start);
+
+      try {
+         PooledConnection pc;
+         while ((pc = idle.pollFirst ()) != null) {
+            if (isUsable (pc))
+               break;
+            discard (pc);
+            invalidated.incrementAndGet ();
+         }//end while
+         if (pc == null)
+            pc = open ();
+         active.incrementAndGet ();
+         borrows.incrementAndGet ();
+         return pc;
+      } catch (SQLException | RuntimeException e) {
+         permits.release ();
+         throw e;
+      }//end try
+   }//end borrow
+
+   /**
+    * Hands a healthy connection back to the pool.
+    *
+    * @param pc the connection returned by borrow
+    */
+   public void release (PooledConnection pc) {
+      if (pc == null)
+         return;
+      active.decrementAndGet ();
+      try {
+         if (closed || pc.connection.isClosed ()) {
+            discard (pc);
+         } else {
+            if (!pc.connection.getAutoCommit ()) {
+               pc.connection.rollback ();
+               pc.connection.setAutoCommit (true);
+            }//end if
+            pc.lastReleased = System.currentTimeMillis ();
+            idle.offerFirst (pc);
+         }//end if
+      } catch (SQLException e) {
+         discard (pc);
+         invalidated.incrementAndGet ();
+      } finally {
+         permits.release ();
+      }//end try
+   }//end release
+
+   /**
+    * Closes a connection that failed instead of returning it to the pool.
+    *
+    * @param pc the connection returned by borrow
+    */
+   public void invalidate (PooledConnection pc) {
+      if (pc == null)
+         return;
+      active.decrementAndGet ();
+      invalidated.incrementAndGet ();
+      discard (pc);
+      permits.release ();
+   }//end invalidate
+
+   /**
+    * Closes every idle connection and stops the evictor.  Connections that
+    * are still borrowed are closed when they are released.
+    */
+   public void close () {
+      closed = true;
+      evictor.shutdownNow ();
+      PooledConnection pc;
+      while ((pc = idle.pollFirst ()) != null)
+         discard (pc);
+   }//end close
+
+   /**
+    * Opens a connection that is not part of the pool, for a caller that
+    * keeps it for its own lifetime, e.g. to LISTEN.  The caller closes it.
+    *
+    * @return a new connection with the pool's settings
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openUnpooled () throws SQLException {
+      return DriverManager.getConnection (url, props);
+   }//end openUnpooled
+
+   public int getMaxSize () { return maxSize; }
+   public int getActive () { return active.get (); }
+   public int getIdle () { return idle.size (); }
+   public long getBorrowCount () { return borrows.get (); }
+   public long getTimeoutCount () { return timeouts.get (); }
+   public long getCreatedCount () { return created.get (); }
+   public long getEvictedCount () { return evicted.get (); }
+   public long getInvalidatedCount () { return invalidated.get (); }
+   public long getTotalWaitNanos () { return waitNanos.get (); }
+   public long getMaxWaitNanos () { return maxWaitNanos.get (); }
+   public LatencyHistogram getWaitHistogram () { return waits; }
+
+   /**
+    * @return the average time a borrower waited for a permit, in microseconds,
+    *    timeouts included
+    */
+   public double getAverageWaitMicros () {
+      long n = waits.getCount ();
+      return n == 0 ? 0.0 : waitNanos.get () / 1000.0 / n;
+   }//end getAverageWaitMicros
+
+   public String toString () {
+      return String.format ("pool[active=%d, idle=%d, max=%d, borrows=%d, avgWait=%.1fus, " +
+                            "maxWait=%.1fus, timeouts=%d, created=%d, evicted=%d, invalidated=%d]",
+                            getActive (), getIdle (), maxSize, getBorrowCount (),
+                            getAverageWaitMicros (), maxWaitNanos.get () / 1000.0,
+                            timeouts.get (), created.get (), evicted.get (), invalidated.get ());
+   }//end toString
+
+   private PooledConnection open () throws SQLException {
+      Connection c = DriverManager.getConnection (url, props);
+      created.incrementAndGet ();
+      return new PooledConnection (c);
+   }//end open
+
+   private boolean isUsable (PooledConnection pc) {
+      try {
+         if (pc.connection.isClosed ())
+            return false;
+         if (System.currentTimeMillis () - pc.lastReleased < validateAfterMs)
+            return true;
+         return pc.connection.isValid (5);
+      } catch (SQLException e) {
+         return false;
+      }//end try
+   }//end isUsable
+
+   private void discard (PooledConnection pc) {
+      try {
+         pc.connection.close ();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end discard
+
+   private void recordWait (long nanos) {
+      waitNanos.addAndGet (nanos);
+      waits.record (nanos);
+      long max;
+      while (nanos > (max = maxWaitNanos.get ()) && !maxWaitNanos.compareAndSet (max, nanos))
+         ;
+   }//end recordWait
+
+   /*
+    * Closes connections at the cold end of the idle deque that have not
+    * been used for idleTimeoutMs, keeping at least minIdle open.
+    */
+   private void evictIdle () {
+      long now = System.currentTimeMillis ();
+      while (idle.size () > minIdle) {
+         PooledConnection pc = idle.pollLast ();
+         if (pc == null)
+            return;
+         if (now - pc.lastReleased < idleTimeoutMs) {
+            idle.offerLast (pc);
+            return;
+         }//end if
+         discard (pc);
+         evicted.incrementAndGet ();
+      }//end while
+   }//end evictIdle
+
+}//end ConnectionPool
@@ -0,0 +1,163 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Resolves a customer name to the customerIDs of every customer with that
+ * name.  Names are compared trimmed and case-folded, so "Rzqs " and "rzqs"
+ * are the same name, which also makes the CHAR(30) blank padding
+ * irrelevant.  All customers are read on first use and addCustomer adds to
+ * the map; a name that is not in the map is looked up in the database
+ * (a customer added by another process) and remembered when found.
+ *
+ */
+public class CustomerResolver {
+
+   private static final int[] NONE = new int[0];
+
+   private final DBProject esql;
+   // normalized "fName\u0000lName" to the ids, replaced rather than changed
+   private final Map<String, int[]> names = new ConcurrentHashMap<>();
+   private volatile boolean warm;
+
+   private final AtomicLong hits = new AtomicLong ();
+   private final AtomicLong misses = new AtomicLong ();
+
+   public CustomerResolver (DBProject esql) {
+      this.esql = esql;
+   }//end CustomerResolver
+
+   /**
+    * @param fName the first name
+    * @param lName the last name
+    * @return the customerID of every customer of that name, possibly none
+    * @throws java.sql.SQLException when the customers cannot be read
+    */
+   public int[] resolve (String fName, String lName) throws SQLException {
+      if (!warm)
+         warm ();
+      String key = key (fName, lName);
+      int[] ids = names.get (key);
+      if (ids != null) {
+         hits.incrementAndGet ();
+         return ids.clone ();
+      }//end if
+      misses.incrementAndGet ();
+      List<Integer> found = esql.queryForList (
+         "SELECT customerID FROM customer WHERE lower(trim(fName)) = ? AND lower(trim(lName)) = ?",
+         row -> row.getInt (1), normalize (fName), normalize (lName));
+      for (int id : found)
+         add (key, id);
+      ids = names.get (key);
+      return ids == null ? NONE : ids.clone ();
+   }//end resolve
+
+   /**
+    * @return resolve as a list, for the Collection based indexes
+    */
+   public List<Integer> resolveList (String fName, String lName) throws SQLException {
+      int[] ids = resolve (fName, lName);
+      List<Integer> list = new ArrayList<>(ids.length);
+      for (int id : ids)
+         list.add (id);
+      return list;
+   }//end resolveList
+
+   /**
+    * Records a customer inserted into the database.
+    */
+   public void added (int customerID, String fName, String lName) {
+      if (warm)
+         add (key (fName, lName), customerID);
+   }//end added
+
+   /**
+    * Fills the map from a snapshot instead of reading the customer table,
+    * unless it is read already.
+    *
+    * @return false when the snapshot does not cover the customer table
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public synchronized boolean restore (Snapshot s) throws SQLException {
+      if (warm)
+         return true;
+      if (!s.customers (esql, (customerID, fName, lName) -> add (key (fName, lName), customerID)))
+         return false;
+      warm = true;
+      return true;
+   }//end restore
+
+   /**
+    * Drops every name, so that the customers are read again on next use.
+    */
+   public synchronized void clear () {
+      names.clear ();
+      warm = false;
+   }//end clear
+
+   public long getHits () { return hits.get (); }
+   public long getMisses () { return misses.get (); }
+
+   public double getHitRate () {
+      long h = hits.get (), total = h + misses.get ();
+      return total == 0 ? 0.0 : (double) h / total;
+   }//end getHitRate
+
+   /**
+    * @return an estimate of the bytes the map takes: per entry the map node,
+    *    the key string and the id array
+    */
+   public long memoryUsage () {
+      long bytes = 0;
+      for (Map.Entry<String, int[]> e : names.entrySet ())
+         bytes += 32 + (40 + 2L * e.getKey ().length ()) + (16 + 4L * e.getValue ().length);
+      return bytes;
+   }//end memoryUsage
+
+   public String toString () {
+      return String.format ("customers[names=%d, hits=%d, misses=%d, hitRate=%.1f%%, bytes=%d]",
+                            names.size (), getHits (), getMisses (), getHitRate () * 100, memoryUsage ());
+   }//end toString
+
+   static String normalize (String name) {
+      return name == null ? "" : name.trim ().toLowerCase (Locale.ROOT);
+   }//end normalize
+
+   private static String key (String fName, String lName) {
+      return normalize (fName) + '\u0000' + normalize (lName);
+   }//end key
+
+   /*
+    * Adds an id to the ids of a name, keeping them sorted and unique.
+    */
+   private void add (String key, final int id) {
+      names.compute (key, (k, ids) -> {
+         if (ids == null)
+            return new int[] { id };
+         int at = Arrays.binarySearch (ids, id);
+         if (at >= 0)
+            return ids;
+         at = -at - 1;
+         int[] more = new int[ids.length + 1];
+         System.arraycopy (ids, 0, more, 0, at);
+         more[at] = id;
+         System.arraycopy (ids, at, more, at + 1, ids.length - at);
+         return more;
+      });
+   }//end add
+
+   private synchronized void warm () throws SQLException {
+      if (warm)
+         return;
+      esql.streamQuery ("SELECT customerID, fName, lName FROM customer",
+                        row -> add (key (row.getString (2), row.getString (3)), row.getInt (1)));
+      warm = true;
+   }//end warm
+
+}//end CustomerResolver
@@ -13,17 +13,26 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.UUID;
+import java.time.LocalDate;
 
 
 /**
@@ -33,8 +42,69 @@ import java.util.ArrayList;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all operations.
+   private ConnectionPool _pool = null;
+
+   // prepared statements kept open per connection, keyed by SQL text.
+   private final int _statementCacheSize = Integer.getInteger ("dbproject.statementCacheSize", 64);
+   private final StatementCache.Counters _statementCounters = new StatementCache.Counters ();
+
+   // number of rows streamQuery fetches per round trip.
+   private final int _fetchSize = Integer.getInteger ("dbproject.fetchSize", 500);
+
+   // primary keys handed out from blocks of the id sequences.
+   private final IdAllocator _ids = new IdAllocator (this);
+
+   // the batch the current thread's updates go to, see beginBatch.
+   private final ThreadLocal<BatchSession> _batch = new ThreadLocal<>();
+
+   // booked rooms of each hotel per day, see numberOfAvailableRooms.
+   private final OccupancyIndex _occupancy = new OccupancyIndex (this);
+
+   // per-room booking intervals and striped locks that refuse double bookings.
+   private final BookingGuard _bookings =
+      new BookingGuard (this, Integer.getInteger ("dbproject.booking.stripes", 256));
+
+   // bookings of recently used hotels by ISO week, for the week and cost reports.
+   private final BookingCalendar _calendar =
+      new BookingCalendar (this, Long.getLong ("dbproject.calendar.maxBookings", 1000000L));
+
+   // every booking ordered by price per month and per customer, for the top-K reports.
+   private final TopKIndex _topK = new TopKIndex (this);
+
+   // customerIDs by normalized name, for the reports that take a customer name.
+   private final CustomerResolver _customers = new CustomerResolver (this);
+
+   // repairs per maintenance company in ranking order, kept current by addRepair.
+   private final RepairLeaderboard _repairCounts = new RepairLeaderboard (this);
+
+   // repairs of every room per year, kept current by addRepair.
+   private final RepairHistogram _repairYears = new RepairHistogram (this);
+
+   // keys of the rooms, customers, staff and repairs that inserts refer to.
+   private final ReferenceFilter _references = new ReferenceFilter (this);
+
+   // printed report output, dropped when a table the report reads is written.
+   private final ResultCache _results = new ResultCache (
+      Integer.getInteger ("dbproject.resultCache.size", 256),
+      Long.getLong ("dbproject.resultCache.ttlMs", 0L));
+
+   // calls, errors, rows and latency of every operation and JDBC call, see Metrics.
+   private Metrics _metrics = null;
+
+   // the operations the menu runs, timed into _metrics.
+   private HotelOperations _operations = null;
+
+   // the JDBC calls slower than a threshold, with their plans; null when off.
+   private SlowQueryLog _slowQueries = null;
+
+   // applies the changes other processes make, see notify.sql; null when off.
+   private ChangeListener _listener = null;
+
+   // the indexes are filled from this at startup; null when off or not written yet.
+   private volatile Snapshot _snapshot = null;
+   private Snapshot.Writer _snapshotWriter = null;
+   private volatile String _restored = "restore[none]";
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -58,9 +128,62 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         // this._connection = DriverManager.getConnection("jdbc:postgresql://localhost:31629/postgres", user, passwd);
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         Properties props = new Properties ();
+         props.setProperty ("user", user);
+         props.setProperty ("password", passwd);
+         // the driver switches a statement to a named server-side prepared
+         // statement (parsed and planned once) after this many executions
+         props.setProperty ("prepareThreshold",
+               System.getProperty ("dbproject.prepareThreshold", "1"));
+         // tags this process's writes so that its listener can skip them
+         String origin = "DBProject-" + UUID.randomUUID ().toString ().substring (0, 8);
+         props.setProperty ("ApplicationName", origin);
+
+         // the pool can be tuned with -Ddbproject.pool.<setting>=<value>
+         this._pool = new ConnectionPool (url, props,
+               Integer.getInteger ("dbproject.pool.maxSize", 8),
+               Integer.getInteger ("dbproject.pool.minIdle", 1),
+               Long.getLong ("dbproject.pool.borrowTimeoutMs", 30000L),
+               Long.getLong ("dbproject.pool.idleTimeoutMs", 300000L),
+               Long.getLong ("dbproject.pool.validateAfterMs", 30000L));
+
+         // obtain the first physical connection up front
+         this._pool.prefill ();
+
+         // reported through JMX, and to a file or port with -Ddbproject.metrics.file / .port
+         this._metrics = new Metrics (origin, this._pool);
+         this._metrics.start ();
+         this._operations = new MeteredOperations (new PostgresOperations (this), this._metrics);
+
+         // -Ddbproject.slowQuery.file=<file> logs the calls slower than
+         // dbproject.slowQuery.ms and the plans of a sample of them
+         this._slowQueries = SlowQueryLog.fromProperties (this);
+
+         // -Ddbproject.snapshot=<file> fills the indexes from a snapshot at
+         // startup and writes a new one every dbproject.snapshot.intervalSeconds
+         String snapshot = System.getProperty ("dbproject.snapshot");
+         if (snapshot != null) {
+            File file = new File (snapshot);
+            try {
+               this._snapshot = Snapshot.open (file);
+            } catch (IOException e) {
+               // missing, of another version or damaged: write one right away
+               if (file.exists ())
+                  System.err.println ("Ignoring the snapshot: " + e.getMessage ());
+            }//end try
+            this._snapshotWriter = new Snapshot.Writer (this, file,
+                  1000L * Long.getLong ("dbproject.snapshot.intervalSeconds", 600L), this._snapshot == null);
+            this._snapshotWriter.start ();
+         }//end if
+
+         // keep the indexes current with other processes, off with -Ddbproject.listen=false;
+         // the listener restores the snapshot once it listens
+         if (Boolean.parseBoolean (System.getProperty ("dbproject.listen", "true"))) {
+            this._listener = new ChangeListener (this, origin);
+            this._listener.start ();
+         } else {
+            restoreSnapshot ();
+         }//end if
 
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -71,20 +194,39 @@ public class DBProject {
 
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.  Values are passed
+    * as parameters and bound to the '?' placeholders of the statement.
     *
     * @param sql the input SQL string
+    * @param params the values of the '?' placeholders, in order
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      BatchSession batch = this._batch.get ();
+      if (batch != null){
+         // the statement runs when the batch is flushed
+         batch.add (sql, params);
+         return 1;
+      }//end if
 
-      // close the instruction
-      stmt.close ();
+      Metrics.Timer timer = this._metrics.statement (sql);
+      long start = System.nanoTime ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         // looks up (or prepares) the statement and binds the values
+         PreparedStatement stmt = prepare (pc, sql, params);
+
+         // issues the update instruction
+         int rowCount = stmt.executeUpdate ();
+         this._pool.release (pc);
+         completed (timer, start, rowCount, 0, params);
+         return rowCount;
+      }catch (SQLException e){
+         giveBack (pc, e);
+         failed (timer, start, e, params);
+         throw e;
+      }//end try
    }//end executeUpdate
 
    /**
@@ -93,70 +235,561 @@ public class DBProject {
     * standard out.
     *
     * @param query the input query string
+    * @param params the values of the '?' placeholders, in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int printQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
+   public int printQuery (String query, Object... params) throws SQLException {
+      return printQuery (System.out, query, params);
+   }//end printQuery
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * write the results to the given stream.
+    *
+    * @param out the stream the rows are written to
+    * @param query the input query string
+    * @param params the values of the '?' placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int printQuery (final PrintStream out, String query, Object... params) throws SQLException {
+      // iterates through the result set and output them to the stream.
+      return streamQuery (query, new RowHandler () {
+         boolean outputHeader = true;
+
+         public void handleRow (Row row) throws SQLException {
+            ResultSet rs = row.getResultSet ();
+            /*
+             ** obtains the metadata object for the returned result set.  The metadata
+             ** contains row and column info.
+             */
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+	    if(outputHeader){
+	       for(int i = 1; i <= numCol; i++){
+		   out.print(rsmd.getColumnName(i) + "\t");
+	       }
+	       out.println();
+	       outputHeader = false;
 	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
+            for (int i=1; i<=numCol; ++i)
+               out.print (row.getString (i) + "\t");
+            out.println ();
+         }
+      }, params);
+   }//end printQuery
+
+   /**
+    * Method to execute a query and hand every row to a callback as soon as
+    * it arrives.  The query runs in a transaction with a fetch size
+    * (-Ddbproject.fetchSize), so the driver reads the rows through a
+    * server-side cursor a batch at a time instead of loading them all, and
+    * memory use does not grow with the size of the result.
+    *
+    * @param query the input query string
+    * @param handler the callback invoked for each row
+    * @param params the values of the '?' placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamQuery (String query, RowHandler handler, Object... params) throws SQLException {
+      Metrics.Timer timer = this._metrics.statement (query);
+      long start = System.nanoTime ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      boolean released = false;
+      try{
+         Connection conn = pc.getConnection ();
+         // the driver only uses a cursor outside auto-commit mode
+         conn.setAutoCommit (false);
+         PreparedStatement stmt = prepare (pc, query, params);
+         stmt.setFetchSize (this._fetchSize);
+
+         int rowCount = 0;
+         ResultSet rs = stmt.executeQuery ();
+         // one Row view follows the cursor through the whole result
+         Row row = new Row (rs);
+         try{
+            while (rs.next ()){
+               handler.handleRow (row);
+               ++rowCount;
+            }//end while
+         }finally{
+            rs.close ();
+         }//end try
+         conn.commit ();
+         released = true;
+         this._pool.release (pc);
+         completed (timer, start, rowCount, row.getBytes (), params);
+         return rowCount;
+      }catch (SQLException e){
+         released = true;
+         giveBack (pc, e);
+         failed (timer, start, e, params);
+         throw e;
+      }finally{
+         // a handler failed with an unchecked exception
+         if (!released){
+            this._pool.release (pc);
+            timer.failed (start);
+         }//end if
+      }//end try
+   }//end streamQuery
+
+   /**
+    * Method to execute a query and decode every row with a RowMapper.
+    *
+    * @param query the input query string
+    * @param mapper decodes one row into a value
+    * @param params the values of the '?' placeholders, in order
+    * @return the decoded rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> List<T> queryForList (String query, final RowMapper<T> mapper, Object... params) throws SQLException {
+      final List<T> result = new ArrayList<>();
+      streamQuery (query, row -> result.add (mapper.map (row)), params);
+      return result;
+   }//end queryForList
+
+   /**
+    * Method to execute a query that must see the current thread's batch.
+    * With a batch open, the batch is sent first and the query runs in its
+    * transaction, behind a savepoint so that a failing query does not undo
+    * the statements sent; otherwise it is streamQuery.
+    *
+    * @param query the input query string
+    * @param handler the callback invoked for each row
+    * @param params the values of the '?' placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamBatchQuery (String query, RowHandler handler, Object... params) throws SQLException {
+      BatchSession batch = this._batch.get ();
+      if (batch == null)
+         return streamQuery (query, handler, params);
+      batch.flush ();
+      Metrics.Timer timer = this._metrics.statement (query);
+      long start = System.nanoTime ();
+      ConnectionPool.PooledConnection pc = batch.getConnection ();
+      Connection conn = pc.getConnection ();
+      Savepoint sp = conn.setSavepoint ();
+      boolean done = false;
+      try{
+         PreparedStatement stmt = prepare (pc, query, params);
+         stmt.setFetchSize (this._fetchSize);
+
+         int rowCount = 0;
+         ResultSet rs = stmt.executeQuery ();
+         Row row = new Row (rs);
+         try{
+            while (rs.next ()){
+               handler.handleRow (row);
+               ++rowCount;
+            }//end while
+         }finally{
+            rs.close ();
+         }//end try
+         conn.releaseSavepoint (sp);
+         done = true;
+         completed (timer, start, rowCount, row.getBytes (), params);
+         return rowCount;
+      }catch (SQLException e){
+         done = true;
+         conn.rollback (sp);
+         failed (timer, start, e, params);
+         throw e;
+      }finally{
+         // a handler failed with an unchecked exception
+         if (!done){
+            conn.rollback (sp);
+            timer.failed (start);
+         }//end if
+      }//end try
+   }//end streamBatchQuery
+
+   /**
+    * Method to execute a query that returns a single number, such as a
+    * COUNT or MAX.
+    *
+    * @param query the input query string
+    * @param ifNull the value returned when there is no row or the value is NULL
+    * @param params the values of the '?' placeholders, in order
+    * @return the number in the first column of the first row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long queryForLong (String query, long ifNull, Object... params) throws SQLException {
+      Metrics.Timer timer = this._metrics.statement (query);
+      long start = System.nanoTime ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         long value = ifNull;
+         int rowCount = 0;
+         ResultSet rs = prepare (pc, query, params).executeQuery ();
+         if (rs.next ()){
+            rowCount = 1;
+            value = rs.getLong (1);
+            if (rs.wasNull ())
+               value = ifNull;
+         }//end if
+         rs.close ();
+         this._pool.release (pc);
+         completed (timer, start, rowCount, 8L * rowCount, params);
+         return value;
+      }catch (SQLException e){
+         giveBack (pc, e);
+         failed (timer, start, e, params);
+         throw e;
+      }//end try
+   }//end queryForLong
+
+   /**
+    * Method to execute a query and collect every row as a list of strings.
+    *
+    * @param query the input query string
+    * @param params the values of the '?' placeholders, in order
+    * @return the rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQuery(String query, Object... params) throws SQLException {
+      Metrics.Timer timer = this._metrics.statement (query);
+      long start = System.nanoTime ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      try{
+         Row decoded = new Row (null);
+         List<List<String>> result = executeQuery (prepare (pc, query, params), decoded);
+         this._pool.release (pc);
+         completed (timer, start, result.size (), decoded.getBytes (), params);
+         return result;
+      }catch (SQLException e){
+         giveBack (pc, e);
+         failed (timer, start, e, params);
+         throw e;
+      }//end try
    }//end executeQuery
-   public List<List<String>> executeQuery(String query) throws SQLException {
-      Statement stmt = this._connection.createStatement();
-      ResultSet rs = stmt.executeQuery(query);
+
+   private List<List<String>> executeQuery(PreparedStatement stmt, Row decoded) throws SQLException {
+      ResultSet rs = stmt.executeQuery();
       ResultSetMetaData rsmd = rs.getMetaData();
       int numCol = rsmd.getColumnCount();
       List<List<String>> result = new ArrayList<>();
 
+      decoded.moveTo (rs);
       while (rs.next()) {
          List<String> row = new ArrayList<>();
          for (int i = 1; i <= numCol; i++) {
-               row.add(rs.getString(i));
+               row.add(decoded.getString(i));
          }
          result.add(row);
       }
-      stmt.close();
+      rs.close();
       return result;
    }
+
+   /*
+    * Looks the statement up in the connection's statement cache, preparing
+    * it on a miss, and binds params to its placeholders.
+    */
+   PreparedStatement prepare (ConnectionPool.PooledConnection pc, String sql, Object[] params) throws SQLException {
+      if (pc.statements == null)
+         pc.statements = new StatementCache (pc.getConnection (), this._statementCacheSize, this._statementCounters);
+      PreparedStatement stmt = pc.statements.get (sql);
+      for (int i = 0; i < params.length; ++i)
+         bind (stmt, i + 1, params[i]);
+      return stmt;
+   }//end prepare
+
+   static void bind (PreparedStatement stmt, int index, Object value) throws SQLException {
+      if (value == null)
+         stmt.setNull (index, Types.NULL);
+      else if (value instanceof Integer)
+         stmt.setInt (index, (Integer) value);
+      else if (value instanceof Long)
+         stmt.setLong (index, (Long) value);
+      else if (value instanceof String)
+         stmt.setString (index, (String) value);
+      else if (value instanceof Boolean)
+         stmt.setBoolean (index, (Boolean) value);
+      else
+         stmt.setObject (index, value);
+   }//end bind
+
    /**
-    * Method to close the physical connection if it is open.
+    * Starts collecting the updates of the current thread into a batch on a
+    * connection of its own, until endBatch.  Queries still run on their
+    * own connections and do not see the batch before it is committed.
+    *
+    * @return the session the updates are collected in
+    * @throws java.sql.SQLException when no connection is available
     */
-   public void cleanup(){
+   public BatchSession beginBatch () throws SQLException {
+      if (this._batch.get () != null)
+         throw new IllegalStateException ("A batch is already open on this thread");
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
+         BatchSession batch = new BatchSession (this, pc);
+         this._batch.set (batch);
+         return batch;
+      }catch (SQLException e){
+         giveBack (pc, e);
+         throw e;
+      }//end try
+   }//end beginBatch
+
+   /**
+    * Commits what is left of the current thread's batch and returns its
+    * connection to the pool.
+    *
+    * @throws java.sql.SQLException when the final commit fails
+    */
+   public void endBatch () throws SQLException {
+      BatchSession batch = this._batch.get ();
+      if (batch == null)
+         return;
+      this._batch.remove ();
+      try{
+         batch.commit ();
       }catch (SQLException e){
-         // ignored.
+         giveBack (batch.getConnection (), e);
+         throw e;
       }//end try
+      this._pool.release (batch.getConnection ());
+   }//end endBatch
+
+   /*
+    * Records a JDBC call under its SQL text, and logs it if it was slow.
+    * params is null for a batch.
+    */
+   void completed (Metrics.Timer timer, long start, long rowCount, long byteCount, Object[] params) {
+      long nanos = timer.record (start, rowCount, byteCount);
+      if (this._slowQueries != null)
+         this._slowQueries.record (timer.getName (), params, nanos, rowCount, false);
+   }//end completed
+
+   /*
+    * Records a JDBC call that failed, under its SQL text and its SQLState,
+    * and logs it if it was slow, as a statement timeout is.
+    */
+   void failed (Metrics.Timer timer, long start, SQLException e, Object[] params) {
+      long nanos = timer.failed (start);
+      this._metrics.error (e);
+      if (this._slowQueries != null)
+         this._slowQueries.record (timer.getName (), params, nanos, 0, true);
+   }//end failed
+
+   /*
+    * Returns a connection whose statement failed.  Connection-level
+    * failures (SQLState class 08) close it, anything else leaves it usable.
+    */
+   private void giveBack (ConnectionPool.PooledConnection pc, SQLException e) {
+      String state = e.getSQLState ();
+      if (state != null && state.startsWith ("08"))
+         this._pool.invalidate (pc);
+      else
+         this._pool.release (pc);
+   }//end giveBack
+
+   /**
+    * @return the measurements of the operations and JDBC calls
+    */
+   public Metrics getMetrics () {
+      return this._metrics;
+   }//end getMetrics
+
+   /**
+    * @return the log of the slow JDBC calls, null when off
+    */
+   public SlowQueryLog getSlowQueries () {
+      return this._slowQueries;
+   }//end getSlowQueries
+
+   /**
+    * @return the operations against this database, timed into getMetrics
+    */
+   public HotelOperations getOperations () {
+      return this._operations;
+   }//end getOperations
+
+   /**
+    * @return the connection pool, e.g. to read its statistics
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }//end getPool
+
+   /**
+    * @return the hit/miss counters of the prepared statement caches
+    */
+   public StatementCache.Counters getStatementCounters () {
+      return this._statementCounters;
+   }//end getStatementCounters
+
+   /**
+    * @return the allocator new primary keys are taken from
+    */
+   public IdAllocator getIds () {
+      return this._ids;
+   }//end getIds
+
+   /**
+    * @return the in-memory room occupancy, kept current by addRoom and bookRoom
+    */
+   public OccupancyIndex getOccupancy () {
+      return this._occupancy;
+   }//end getOccupancy
+
+   /**
+    * @return the guard every booking is checked and made through
+    */
+   public BookingGuard getBookings () {
+      return this._bookings;
+   }//end getBookings
+
+   /**
+    * @return the cached bookings of the recently used hotels
+    */
+   public BookingCalendar getCalendar () {
+      return this._calendar;
+   }//end getCalendar
+
+   /**
+    * @return the price-ordered bookings the top-K reports read
+    */
+   public TopKIndex getTopK () {
+      return this._topK;
+   }//end getTopK
+
+   /**
+    * @return the customer name resolver, kept current by addCustomer
+    */
+   public CustomerResolver getCustomers () {
+      return this._customers;
+   }//end getCustomers
+
+   /**
+    * @return the repair counts of the maintenance companies
+    */
+   public RepairLeaderboard getRepairCounts () {
+      return this._repairCounts;
+   }//end getRepairCounts
+
+   /**
+    * @return the repairs of every room per year
+    */
+   public RepairHistogram getRepairYears () {
+      return this._repairYears;
+   }//end getRepairYears
+
+   /**
+    * @return the filters the foreign keys of inserts are checked against
+    */
+   public ReferenceFilter getReferences () {
+      return this._references;
+   }//end getReferences
+
+   /**
+    * @return the cache of report output with its table versions
+    */
+   public ResultCache getResults () {
+      return this._results;
+   }//end getResults
+
+   /**
+    * @return the listener applying other processes' changes, or null when off
+    */
+   public ChangeListener getListener () {
+      return this._listener;
+   }//end getListener
+
+   /**
+    * @return the snapshot the indexes are restored from, or null when none
+    */
+   public Snapshot getSnapshot () {
+      return this._snapshot;
+   }//end getSnapshot
+
+   /*
+    * Replaces the snapshot, once Snapshot.Writer wrote a new one.
+    */
+   void setSnapshot (Snapshot snapshot) {
+      this._snapshot = snapshot;
+   }//end setSnapshot
+
+   /**
+    * Fills the occupancy, top-K, customer and repair year indexes from the
+    * snapshot, if there is one, and the rows added since, instead of each
+    * reading its whole table on first use.  An index whose table changed
+    * otherwise since the snapshot is left to do so.
+    */
+   public void restoreSnapshot () {
+      Snapshot s = this._snapshot;
+      if (s == null)
+         return;
+      long start = System.nanoTime ();
+      int restored = 0;
+      try{
+         if (this._occupancy.restore (s))
+            ++restored;
+         if (this._topK.restore (s))
+            ++restored;
+         if (this._customers.restore (s))
+            ++restored;
+         if (this._repairYears.restore (s))
+            ++restored;
+      }catch (SQLException e){
+         System.err.println ("Snapshot restore: " + e.getMessage ());
+      }//end try
+      this._restored = String.format ("restore[indexes=%d/4, ms=%d]", restored,
+                                      (System.nanoTime () - start) / 1000000);
+   }//end restoreSnapshot
+
+   /**
+    * Drops everything the in-memory indexes hold, so that each is read from
+    * the database again on its next use.
+    */
+   public void clearCaches () {
+      this._occupancy.clear ();
+      this._bookings.clear ();
+      this._calendar.clear ();
+      this._topK.clear ();
+      this._customers.clear ();
+      this._repairCounts.clear ();
+      this._repairYears.clear ();
+      this._references.clear ();
+      this._results.clear ();
+   }//end clearCaches
+
+   /**
+    * Reconciles the in-memory indexes with the tables, e.g. after a bulk
+    * load: the repair counts are read again right away, everything else on
+    * its next use.
+    *
+    * @return the number of repair counters that were wrong
+    * @throws java.sql.SQLException when the repair counts cannot be read
+    */
+   public int rebuildCaches () throws SQLException {
+      clearCaches ();
+      return this._repairCounts.rebuild ();
+   }//end rebuildCaches
+
+   /**
+    * Method to close the physical connections if they are open.
+    */
+   public void cleanup(){
+      if (this._snapshotWriter != null){
+         this._snapshotWriter.close ();
+      }//end if
+      if (this._listener != null){
+         this._listener.close ();
+      }//end if
+      if (this._slowQueries != null){
+         this._slowQueries.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
+      if (this._metrics != null){
+         this._metrics.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -166,12 +799,26 @@ public class DBProject {
     */
    
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean batch = args.length >= 5 && args.length <= 6 && args[3].equals ("-batch");
+      boolean memory = args.length == 4 && args[0].equals ("-memory") && args[2].equals ("-batch");
+      if (args.length != 3 && !batch && !memory) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             DBProject.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [-batch <file|-> [commitInterval]]\n" +
+            "   or: java [-classpath <classpath>] " +
+            DBProject.class.getName () +
+            " -memory <dataDir> -batch <file|->\n\n" +
+            BatchRunner.USAGE);
+         return;
+      }//end if
+      if (memory) {
+         runMemoryBatch (args);
+         return;
+      }//end if
+      if (batch) {
+         runBatch (args);
          return;
       }//end if
       
@@ -238,6 +885,26 @@ public class DBProject {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               if (Boolean.getBoolean ("dbproject.stats")) {
+                  System.out.println (esql.getPool ());
+                  System.out.println (esql.getStatementCounters ());
+                  System.out.println (esql.getMetrics ());
+                  if (esql.getSlowQueries () != null)
+                     System.out.println (esql.getSlowQueries ());
+                  System.out.println (esql.getOccupancy ());
+                  System.out.println (esql.getBookings ());
+                  System.out.println (esql.getCalendar ());
+                  System.out.println (esql.getTopK ());
+                  System.out.println (esql.getCustomers ());
+                  System.out.println (esql.getRepairCounts ());
+                  System.out.println (esql.getRepairYears ());
+                  System.out.println (esql.getReferences ());
+                  System.out.println (esql.getResults ());
+                  if (esql.getListener () != null)
+                     System.out.println (esql.getListener ());
+                  if (esql._snapshotWriter != null)
+                     System.out.println (esql._snapshotWriter + " " + esql.getSnapshot () + " " + esql._restored);
+               }//end if
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -248,6 +915,64 @@ public class DBProject {
       }//end try
    }//end main
    
+   /*
+    * Runs the operations of a script file (or stdin for "-") instead of
+    * the menu.  The exit status is 1 if any operation failed.
+    */
+   private static void runBatch (String[] args) {
+      DBProject esql = null;
+      long failed = 0;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         esql = new DBProject (args[0], args[1], args[2], "");
+         int commitInterval = args.length == 6 ? Integer.parseInt (args[5]) : 1000;
+         BufferedReader script = args[4].equals ("-") ? in : new BufferedReader (new FileReader (args[4]));
+         try{
+            failed = new BatchRunner (esql, commitInterval, System.out).run (script);
+         }finally{
+            script.close ();
+         }//end try
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         failed = 1;
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+      if (failed > 0)
+         System.exit (1);
+   }//end runBatch
+
+   /*
+    * Runs a script against the csv files of a directory loaded into
+    * memory, without a database.  The exit status is 1 if any operation
+    * failed.
+    */
+   private static void runMemoryBatch (String[] args) {
+      long failed;
+      try{
+         long start = System.nanoTime ();
+         MemoryOperations ops = MemoryOperations.load (new File (args[1]));
+         System.err.printf ("Loaded %s in %.0f ms%n", ops, (System.nanoTime () - start) / 1e6);
+         Metrics metrics = new Metrics ("memory", null);
+         BufferedReader script = args[3].equals ("-") ? in : new BufferedReader (new FileReader (args[3]));
+         try{
+            metrics.start ();
+            failed = new BatchRunner (new MeteredOperations (ops, metrics), System.out).run (script);
+            if (Boolean.getBoolean ("dbproject.stats"))
+               System.out.println (metrics);
+         }finally{
+            script.close ();
+            metrics.close ();
+         }//end try
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+         failed = 1;
+      }//end try
+      if (failed > 0)
+         System.exit (1);
+   }//end runMemoryBatch
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -279,23 +1004,11 @@ public class DBProject {
 	  // Given customer details add the customer in the DB 
       // Your code goes here.
    
-      int customerID; // NOT NULL
       String fName; // NOT NULL
       String lName; // NOT NULL
       
       //customerID, fname, lname CANNOT be Null
 
-      String q = "SELECT MAX(customerID) FROM customer";
-      List<List<String>> result = esql.executeQuery(q);
-      String val = result.get(0).get(0);
-      
-      if(val == null || val.equals("null")) {
-         customerID = 1;
-      }
-      else {
-         customerID = Integer.parseInt(val) + 1;
-      }
-     
       
       do{
          System.out.print("Enter first name: ");
@@ -382,54 +1095,39 @@ public class DBProject {
          }
       } while (true);
       
-      //Insert into database
-      String addrValue;
-      if (Address == null) {
-         addrValue = "NULL";
-      } else {
-         addrValue = "'" + Address + "'";
-      }
-
-      String phValue;
-      if (phNo == null) {
-         phValue = "NULL";
-      } else {
-         phValue = phNo.toString();
-      }
-
-      String dobValue;
-      if (DOB == null) {
-         dobValue = "NULL";
-      } else {
-         dobValue = "'" + DOB + "'";
-      }
-
-      String genderValue;
-      if (gender == null) {
-         genderValue = "NULL";
-      } else {
-         genderValue = "'" + gender + "'";
-      }
-
-      // Insert into database
-      String query =
-         "INSERT INTO customer(customerID, fName, lName, Address, phNo, DOB, gender) VALUES (" +
-         customerID + ", '" + fName + "', '" + lName + "', " +
-         addrValue + ", " + phValue + ", " + dobValue + ", " + genderValue + ");";
    try {
-      esql.executeUpdate(query);
+      esql.getOperations().addCustomer(fName, lName, Address, phNo, DOB, gender);
       System.out.println("Customer added successfully!");
    } catch (Exception e) {
       System.err.println("Error adding customer: " + e.getMessage());
    }
    }//end addCustomer
 
+   /**
+    * Inserts a customer.  Only the names are required.
+    *
+    * @return the new customerID
+    */
+   public static int addCustomer(DBProject esql, String fName, String lName, String address,
+                                 Long phNo, String dob, String gender) throws SQLException {
+      int customerID = (int) esql.getIds().next(IdAllocator.CUSTOMER);
+
+      // Insert into database
+      String query =
+         "INSERT INTO customer(customerID, fName, lName, Address, phNo, DOB, gender) " +
+         "VALUES (?, ?, ?, ?, ?, ?::date, ?::GenderType)";
+      esql.executeUpdate(query, customerID, fName, lName, address, phNo, dob, gender);
+      esql.getCustomers().added(customerID, fName, lName);
+      esql.getReferences().customerAdded(customerID);
+      esql.getResults().bump(ResultCache.CUSTOMER);
+      return customerID;
+   }//end addCustomer
+
    public static void addRoom(DBProject esql) throws IOException, SQLException {
 	  // Given room details add the room in the DB
       // Your code goes here.
       //hotelID (integer) NOT NULL
       int hotelID;
-      int roomNo;
       String roomType;
       
       
@@ -449,18 +1147,6 @@ public class DBProject {
          }
       }while(true);
 
-      String q = "SELECT MAX(roomNo) FROM room " + 
-                 "WHERE hotelID = " + hotelID + ";";
-      List<List<String>> result = esql.executeQuery(q);
-      String val = result.get(0).get(0);
-      
-      if(val == null || val.equals("null")) {
-         roomNo = 1;
-      }
-      else {
-         roomNo = Integer.parseInt(val) + 1;
-      }
-
       //roomType (String) NOT NULL
       do{
          System.out.print("Enter room type (default/Economy/Deluxe/Suite): ");
@@ -475,41 +1161,50 @@ public class DBProject {
          }
       }while(true);    
       
-      String query =
-         "INSERT INTO room(hotelID, roomNo, RoomType) VALUES (" +
-         hotelID + ", " + roomNo + ", '" + roomType + "');";
-         
       try {
-         esql.executeUpdate(query);
+         esql.getOperations().addRoom(hotelID, roomType);
          System.out.println("Room added successfully!");
       } catch (Exception e) {
          System.err.println("Error adding Room: " + e.getMessage());
       }
    }
 
+   /**
+    * Inserts a room with the next free room number of the hotel.
+    *
+    * @return the new roomNo
+    */
+   public static int addRoom(DBProject esql, int hotelID, String roomType) throws SQLException {
+      int roomNo = esql.getIds().nextRoomNo(hotelID);
+      String query = "INSERT INTO room(hotelID, roomNo, RoomType) VALUES (?, ?, ?)";
+         
+      try {
+         esql.executeUpdate(query, hotelID, roomNo, roomType);
+      } catch (SQLException e) {
+         if (!"23505".equals(e.getSQLState())) {
+            throw e;
+         }
+         // another client took this room number, re-read the hotel's maximum
+         esql.getIds().forgetRoomNo(hotelID);
+         roomNo = esql.getIds().nextRoomNo(hotelID);
+         esql.executeUpdate(query, hotelID, roomNo, roomType);
+      }
+      esql.getOccupancy().roomAdded(hotelID, roomNo);
+      esql.getReferences().roomAdded(hotelID, roomNo);
+      esql.getResults().bump(ResultCache.ROOM);
+      return roomNo;
+   }//end addRoom
+
    public static void addMaintenanceCompany(DBProject esql) throws IOException, SQLException{
       // Given maintenance Company details add the maintenance company in the DB
       // cmpID Integer NOT NULL
       // name String NOT NULL
       // address String 
       // isCertified Bool NOT NULL
-      int cmpID;
       String name;
       String address;
       boolean isCertified;
 
-      
-      String q = "SELECT MAX(cmpID) FROM maintenancecompany";
-      List<List<String>> result = esql.executeQuery(q);
-      String val = result.get(0).get(0);
-      
-      if(val == null || val.equals("null")) {
-         cmpID = 1;
-      }
-      else {
-         cmpID = Integer.parseInt(val) + 1;
-      }
-      
 
       do{
          System.out.print("Enter company name: ");
@@ -545,18 +1240,9 @@ public class DBProject {
             System.out.println("Company certification cannot be blank.");
          }
       } while(true);
-      String query;
-
-      if (address == null) {
-         query = "INSERT INTO maintenancecompany(cmpID, name, address, isCertified) VALUES (" +
-                 cmpID + ", '" + name + "', " + "NULL" + ", " + isCertified + ");";
-      } else {
-         query = "INSERT INTO maintenancecompany(cmpID, name, address, isCertified) VALUES (" +
-                 cmpID + ", '" + name + "', '" + address + "', " + isCertified + ");";
-      }
 
       try {
-         esql.executeUpdate(query);
+         esql.getOperations().addMaintenanceCompany(name, address, isCertified);
          System.out.println("Maintenance company added successfully!");
       } catch (Exception e) {
          System.err.println("Error adding maintenance company: " + e.getMessage());
@@ -564,10 +1250,24 @@ public class DBProject {
 
    }//end addMaintenanceCompany
 
+   /**
+    * Inserts a maintenance company.
+    *
+    * @return the new cmpID
+    */
+   public static int addMaintenanceCompany(DBProject esql, String name, String address,
+                                           boolean isCertified) throws SQLException {
+      int cmpID = (int) esql.getIds().next(IdAllocator.MAINTENANCE_COMPANY);
+      String query = "INSERT INTO maintenancecompany(cmpID, name, address, isCertified) VALUES (?, ?, ?, ?)";
+      esql.executeUpdate(query, cmpID, name, address, isCertified);
+      esql.getRepairCounts().added(cmpID, name);
+      esql.getResults().bump(ResultCache.MAINTENANCE_COMPANY);
+      return cmpID;
+   }//end addMaintenanceCompany
+
    public static void addRepair(DBProject esql) throws IOException, SQLException{
 	  // Given repair details add repair in the DB
       // Your code goes here.
-      int rID = 0;
       int hotelID = 0;
       int roomNo = 0;
       int mCompany = 0;
@@ -575,18 +1275,6 @@ public class DBProject {
       String description = null;
       String repairType = null;
 
-      
-      String q = "SELECT MAX(rID) FROM repair";
-      List<List<String>> result = esql.executeQuery(q);
-      String val = result.get(0).get(0);
-      
-      if(val == null || val.equals("null")) {
-         rID = 1;
-      }
-      else {
-         rID = Integer.parseInt(val) + 1;
-      }
-
       do{
          System.out.print("Enter the hotelID: ");
          String input = in.readLine();
@@ -652,7 +1340,7 @@ public class DBProject {
       System.out.print("Enter the Description: ");
       String descInput = in.readLine();
       if(descInput != null && !descInput.trim().isEmpty()){ //to ensure that input is not empty
-         description = descInput.replace("'", "''");
+         description = descInput;
       }
       else {
          description = null;
@@ -674,43 +1362,38 @@ public class DBProject {
          }
       } while(true);
 
-      String date;
-      if(repairDate == null) {
-         date = "NULL";
-      }
-      else {
-         date = "'" + repairDate + "'";
-      }
-
-      String description_val;
-      if(description == null) {
-         description_val = "NULL";
-      }
-      else {
-         description_val = "'" + description + "'";
-      }
-
-      String type;
-      if(repairType == null) {
-         type = "NULL";
-      }
-      else {
-         type = "'" + repairType + "'";
-      }
-
-
-
-      String query = "INSERT INTO repair(rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (" +
-              rID + ", " + hotelID + ", " + roomNo + ", " + mCompany + ", " + date + ", " + description_val + ", " + type + ");";
-
       try {
-         esql.executeUpdate(query);
+         esql.getOperations().addRepair(hotelID, roomNo, mCompany, repairDate, description, repairType);
          System.out.println("Repair added successfully!");
       } catch (Exception e) {
          System.err.println("Error adding repair: " + e.getMessage());
       }
    }//end addRepair
 
+   /**
+    * Inserts a repair of a room by a maintenance company.
+    *
+    * @return the new rID
+    * @throws java.sql.SQLException with SQLState 23503 when the room does not exist,
+    *    22007 when the date is not a date, 23502 when it is missing
+    */
+   public static int addRepair(DBProject esql, int hotelID, int roomNo, int mCompany, String repairDate,
+                               String description, String repairType) throws SQLException {
+      parseDate(repairDate, "repairdate");
+      esql.getReferences().checkRoom(hotelID, roomNo);
+      int rID = (int) esql.getIds().next(IdAllocator.REPAIR);
+      String query = "INSERT INTO repair(rID, hotelID, roomNo, mCompany, repairDate, description, repairType) " +
+                     "VALUES (?, ?, ?, ?, ?::date, ?, ?)";
+      long counted = esql.getRepairCounts().getReloads();
+      long years = esql.getRepairYears().getReloads();
+      esql.executeUpdate(query, rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+      esql.getRepairCounts().repaired(mCompany, counted);
+      esql.getRepairYears().repaired(hotelID, roomNo, repairDate, years);
+      esql.getReferences().repairAdded(rID);
+      esql.getResults().bump(ResultCache.REPAIR);
+      return rID;
+   }//end addRepair
+
    public static void bookRoom(DBProject esql) throws IOException, SQLException{
 	  // Given hotelID, roomNo and customer Name create a booking in the DB 
       // Your code goes here.
@@ -722,29 +1405,13 @@ public class DBProject {
       // noOfPeople Numeric,
       // price Numeric(6,2) NOT NULL
 
-      int bID; //NOT NULL
       int customer; //NOT NULL
       int hotelID; //NOT NULL
       int roomNo; //NOT NULL
       String bookingDate; //NOT NULL
       Integer noOfPeople = null; //Can be NULL
-      int price; //NOT NULL
+      BigDecimal price; //NOT NULL
      
-
-      try {
-         String q = "SELECT MAX(bID) FROM booking;";
-         List<List<String>> result = esql.executeQuery(q);
-         String maxIDstr = result.get(0).get(0);
-         if(maxIDstr == null){
-            bID = 1;
-         } else {
-            bID = Integer.parseInt(maxIDstr) + 1;
-         }
-      } catch (Exception e) {
-         System.err.println("Error generating booking ID: " + e.getMessage());
-         return;
-      }
-      
       do{
          System.out.print("Enter customer ID: ");
          String input = in.readLine();
@@ -827,51 +1494,64 @@ public class DBProject {
          String input = in.readLine();
          if(input != null && !input.trim().isEmpty()){ //to ensure that input is not empty
             try {
-               price = Integer.parseInt(input);
+               price = new BigDecimal(input.trim());
                break;
-            } catch (NumberFormatException e){ //If it is not an integer
+            } catch (NumberFormatException e){ //If it is not a number
                System.out.println("Invalid room price. Try again.");
             }
          } else {
             System.out.println("Price cannot be blank.");
          }
       }while(true);
-      String query;
-     
-      query = "INSERT INTO booking(bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) VALUES (" +
-               bID + ", " + customer + ", " + hotelID + ", " + roomNo + ", '" + bookingDate + "', " +
-               (noOfPeople == null ? "NULL" : noOfPeople) + ", " + price + ");";
    
       try {
-         esql.executeUpdate(query);
+         esql.getOperations().bookRoom(customer, hotelID, roomNo, bookingDate, noOfPeople, price);
          System.out.println("Booking  added successfully!");
       } catch (Exception e) {
          System.err.println("Error adding booking: " + e.getMessage());
       }
    }
+
+   /**
+    * Books a room of a hotel for a customer on a date, unless the room is
+    * already booked that day.
+    *
+    * @return the new bID
+    * @throws java.sql.SQLException with SQLState 23P01 when the room is taken,
+    *    23503 when the customer or the room does not exist, 22007 when the
+    *    date is not a date, 22003 when the price does not fit Numeric(6,2)
+    */
+   public static int bookRoom(DBProject esql, final int customer, final int hotelID, final int roomNo,
+                              final String bookingDate, final Integer noOfPeople, final BigDecimal price)
+         throws SQLException {
+      // everything is checked before the bID is taken, a refused booking leaves no gap
+      LocalDate day = parseDate(bookingDate, "bookingdate");
+      if (price == null)
+         throw new SQLException("null value in column \"price\" violates not-null constraint", "23502");
+      long cents = Row.parseMoney(price.toPlainString());
+      if (Math.abs(cents) >= 1000000)
+         throw new SQLException("numeric field overflow", "22003");
+      esql.getReferences().checkCustomer(customer);
+      esql.getReferences().checkRoom(hotelID, roomNo);
+      final int bID = (int) esql.getIds().next(IdAllocator.BOOKING);
+      final String query = "INSERT INTO booking(bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) " +
+                           "VALUES (?, ?, ?, ?, ?::date, ?, ?)";
+      esql.getBookings().book(hotelID, roomNo, day, day.plusDays(1), () ->
+         esql.executeUpdate(query, bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price));
+      esql.getOccupancy().booked(hotelID, roomNo, bookingDate);
+      esql.getCalendar().booked(bID, customer, hotelID, roomNo, day, cents);
+      esql.getTopK().booked(bID, customer, hotelID, roomNo, day, cents);
+      esql.getResults().bump(ResultCache.BOOKING);
+      return bID;
+   }//end bookRoom
    
    public static void assignHouseCleaningToRoom(DBProject esql) throws IOException, SQLException {
 	  // Given Staff SSN, HotelID, roomNo Assign the staff to the room 
       // Your code goes here.
-      int asgID;
       int SSN;
       int hotelID;
       int roomNo;
 
-      try {
-         String q = "SELECT MAX(asgID) FROM assigned;";
-         List<List<String>> result = esql.executeQuery(q);
-         String val = result.get(0).get(0);
-         if(val == null){
-            asgID = 1;
-         } else {
-            asgID = Integer.parseInt(val) + 1;
-         }
-      } catch (Exception e) {
-         System.err.println("Error generating assignment ID: " + e.getMessage());
-         return;
-      }
-      
       do{
          System.out.print("Enter Staff SSN number: ");
          String input = in.readLine();
@@ -920,11 +1600,8 @@ public class DBProject {
 
       }while(true);
 
-      String query = "INSERT INTO assigned(asgID, staffID, hotelID, roomNo) VALUES ("
-                     + asgID + ", " + SSN + ", " + hotelID + ", " + roomNo + ");";
-      
       try {
-         esql.executeUpdate(query);
+         esql.getOperations().assignHouseCleaningToRoom(SSN, hotelID, roomNo);
          System.out.println("Assignment added successfully!");
       } catch (Exception e) {
          System.err.println("Error adding Assignment: " + e.getMessage());
@@ -932,6 +1609,23 @@ public class DBProject {
 
       
    }//end assignHouseCleaningToRoom
+
+   /**
+    * Assigns a house cleaning staff member to a room.
+    *
+    * @return the new asgID
+    * @throws java.sql.SQLException with SQLState 23503 when the staff member
+    *    or the room does not exist
+    */
+   public static int assignHouseCleaningToRoom(DBProject esql, int SSN, int hotelID, int roomNo) throws SQLException {
+      esql.getReferences().checkStaff(SSN);
+      esql.getReferences().checkRoom(hotelID, roomNo);
+      int asgID = (int) esql.getIds().next(IdAllocator.ASSIGNED);
+      String query = "INSERT INTO assigned(asgID, staffID, hotelID, roomNo) VALUES (?, ?, ?, ?)";
+      esql.executeUpdate(query, asgID, SSN, hotelID, roomNo);
+      esql.getResults().bump(ResultCache.ASSIGNED);
+      return asgID;
+   }//end assignHouseCleaningToRoom
    
    public static void repairRequest(DBProject esql) throws IOException, SQLException{ 
 	  // Given a hotelID, Staff SSN, roomNo, repairID , date create a repair request in the DB
@@ -942,26 +1636,11 @@ public class DBProject {
       // requestDate Date NOT NULL,
       // description TEXT,
       
-      int reqID; // Not NULL
       int managerID; // Not NULL
       int repairID; // Not NULL
       String requestDate;  // Not NULL
       String description = null; //Can be Null
 
-      try {
-         String q = "SELECT MAX(reqID) FROM request;";
-         List<List<String>> result = esql.executeQuery(q);
-         String val = result.get(0).get(0);
-         if(val == null) {
-            reqID = 1;
-         } else {
-            reqID = Integer.parseInt(val) + 1;
-         }
-      } catch (Exception e) {
-         System.err.println("Error generating Request ID: " + e.getMessage());
-         return;
-      }
-
       do{
          System.out.print("Enter manager ID: ");
          String input = in.readLine();
@@ -1006,56 +1685,109 @@ public class DBProject {
       System.out.print("Enter the Description: ");
       String descInput = in.readLine();
       if(descInput != null && !descInput.trim().isEmpty()){ //to ensure that input is not empty
-         description = descInput.replace("'", "''");
+         description = descInput;
       }
       else {
          description = null;
       }
       
-       String query = "INSERT INTO request(reqID, managerID, repairID, requestDate, description) VALUES (" +
-                     reqID + ", " + managerID + ", " + repairID + ", TO_DATE('" + requestDate + "', 'MM/DD/YYYY'), " +
-                     (description == null ? "NULL" : "'" + description + "'") + ");";
-
    
       try {
-         esql.executeUpdate(query);
+         esql.getOperations().repairRequest(managerID, repairID, requestDate, description);
          System.out.println("Repair Request added successfully!");
       } catch (Exception e) {
          System.err.println("Error adding repair request: " + e.getMessage());
       }
 
    }//end repairRequest
+
+   /**
+    * Raises a request by a manager for a repair.
+    *
+    * @param requestDate the date as MM/DD/YYYY
+    * @return the new reqID
+    * @throws java.sql.SQLException with SQLState 23503 when the manager or
+    *    the repair does not exist
+    */
+   public static int repairRequest(DBProject esql, int managerID, int repairID, String requestDate,
+                                   String description) throws SQLException {
+      esql.getReferences().checkStaff(managerID);
+      esql.getReferences().checkRepair(repairID);
+      int reqID = (int) esql.getIds().next(IdAllocator.REQUEST);
+      String query = "INSERT INTO request(reqID, managerID, repairID, requestDate, description) " +
+                     "VALUES (?, ?, ?, TO_DATE(?, 'MM/DD/YYYY'), ?)";
+      esql.executeUpdate(query, reqID, managerID, repairID, requestDate, description);
+      esql.getResults().bump(ResultCache.REQUEST);
+      return reqID;
+   }//end repairRequest
    
    public static void numberOfAvailableRooms(DBProject esql) throws IOException, SQLException{
-	   // Given a hotelID, get the count of rooms available 
+	   // Given a hotelID, get the count of rooms available
       // Your code goes here.
       try{
          System.out.print("\tEnter hotelID: ");
          String input = in.readLine();
          int hotelID = Integer.parseInt(input);
-         String query = "SELECT COUNT(*) " +
-                       "FROM room r " +
-                       "WHERE r.hotelID = " + hotelID + " " +
-                       "AND r.roomNo NOT IN (" +
-                       "    SELECT b.roomNo " +
-                       "    FROM booking b " +
-                       "    WHERE b.hotelID = r.hotelID" +
-                       ")";
-         List<List<String>> result = esql.executeQuery(query);
-         
-         
-         if (result.size() > 0 && result.get(0).size() > 0) {
-            String count = result.get(0).get(0);
-            System.out.println("Number of available rooms for hotel " + hotelID + " is " + count);
-        } else {
-            System.out.println("No available rooms found for hotel " + hotelID);
-        }
-
+         System.out.print("\tEnter date (MM/DD/YYYY), or nothing for rooms never booked: ");
+         String from = in.readLine();
+         if (from == null || from.trim().isEmpty()) {
+            esql.getOperations().numberOfAvailableRooms(hotelID, System.out);
+         } else {
+            System.out.print("\tEnter last date, or nothing for the same day: ");
+            String to = in.readLine();
+            if (to == null || to.trim().isEmpty())
+               to = from;
+            esql.getOperations().numberOfAvailableRooms(hotelID, from, to, System.out);
+         }
       } catch(Exception e){
          System.err.println (e.getMessage());
       }
    }//end numberOfAvailableRooms
-   
+
+   /**
+    * Prints the number of rooms of a hotel that have never been booked.
+    */
+   public static void numberOfAvailableRooms(DBProject esql, int hotelID, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "numberOfAvailableRooms", new String[] {ResultCache.ROOM, ResultCache.BOOKING},
+                              new Object[] {hotelID}, o -> printNumberOfAvailableRooms(esql, hotelID, o));
+   }//end numberOfAvailableRooms
+
+   private static void printNumberOfAvailableRooms(DBProject esql, int hotelID, PrintStream out) throws SQLException{
+         long count = esql.getOccupancy().neverBooked(hotelID);
+
+         if (count > 0) {
+            out.println("Number of available rooms for hotel " + hotelID + " is " + count);
+        } else {
+            out.println("No available rooms found for hotel " + hotelID);
+        }
+   }//end printNumberOfAvailableRooms
+
+   /**
+    * Prints the number of rooms of a hotel that are free on every day from
+    * one date to another.
+    */
+   public static void numberOfAvailableRooms(DBProject esql, int hotelID, String from, String to,
+                                             PrintStream out) throws SQLException{
+      esql.getResults().print(out, "numberOfAvailableRooms", new String[] {ResultCache.ROOM, ResultCache.BOOKING},
+                              new Object[] {hotelID, from, to}, o -> printNumberOfAvailableRooms(esql, hotelID, from, to, o));
+   }//end numberOfAvailableRooms
+
+   private static void printNumberOfAvailableRooms(DBProject esql, int hotelID, String from, String to,
+                                                   PrintStream out) throws SQLException{
+         LocalDate first = Row.parseDate(from), last = Row.parseDate(to);
+         if (last.isBefore(first)) {
+            throw new IllegalArgumentException("The last date is before the first date");
+         }
+         long count = esql.getOccupancy().available(hotelID, first, last);
+
+         String days = first.equals(last) ? " on " + from : " from " + from + " to " + to;
+         if (count > 0) {
+            out.println("Number of available rooms for hotel " + hotelID + days + " is " + count);
+         } else {
+            out.println("No available rooms found for hotel " + hotelID + days);
+         }
+   }//end printNumberOfAvailableRooms
+
    public static void numberOfBookedRooms(DBProject esql) throws IOException, SQLException{
 	  // Given a hotelID, get the count of rooms booked
       // Your code goes here.
@@ -1063,21 +1795,29 @@ public class DBProject {
          System.out.print("\tEnter hotelID: ");
          String input = in.readLine();
          int hotelID = Integer.parseInt(input);
-         String query = "SELECT count(*) FROM booking WHERE hotelID = " + hotelID;
-         List<List<String>> result = esql.executeQuery(query);
-         if (result.size() > 0 && result.get(0).size() > 0) {
-            String count = result.get(0).get(0);
-            System.out.println ("Number of rooms booked for hotel " + hotelID + " is "  + count);
-         } else {
-            System.out.println("No bookings found for hotel " + hotelID);
-         }
+         esql.getOperations().numberOfBookedRooms(hotelID, System.out);
       } catch(Exception e){
          System.err.println (e.getMessage());
       }
    }//end numberOfBookedRooms
-   
+
+   public static void numberOfBookedRooms(DBProject esql, int hotelID, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "numberOfBookedRooms", new String[] {ResultCache.BOOKING},
+                              new Object[] {hotelID}, o -> printNumberOfBookedRooms(esql, hotelID, o));
+   }//end numberOfBookedRooms
+
+   private static void printNumberOfBookedRooms(DBProject esql, int hotelID, PrintStream out) throws SQLException{
+         String query = "SELECT count(*) FROM booking WHERE hotelID = ?";
+         long count = esql.queryForLong(query, 0, hotelID);
+         if (count > 0) {
+            out.println ("Number of rooms booked for hotel " + hotelID + " is "  + count);
+         } else {
+            out.println("No bookings found for hotel " + hotelID);
+         }
+   }//end printNumberOfBookedRooms
+
    public static void listHotelRoomBookingsForAWeek(DBProject esql) throws IOException, SQLException{
-	  // Given a hotelID, date - list all the rooms booked for a week(including the input date) 
+	  // Given a hotelID, date - list all the rooms booked for a week(including the input date)
       // Your code goes here.
       try{
          System.out.print("\tEnter hotelID: ");
@@ -1085,27 +1825,40 @@ public class DBProject {
          int hotelID = Integer.parseInt(input);
          System.out.print("\tEnter date in this format(MM/DD/YYYY): ");
          String date = in.readLine();
-
-         String query = "SELECT roomNo, bookingDate FROM booking WHERE hotelID = " + hotelID + " AND bookingDate >= '" + date + "' AND bookingDate < (DATE '" + date + "' + 7)";
-                        
-         List<List<String>> result = esql.executeQuery(query);
-         
-         if (result.size() == 0) {
-            System.out.println("No bookings for the given week at the hotel " + hotelID + ".");
-        } 
-        else {
-         System.out.println("\nThe bookings, for hotel " + hotelID + " starting at " + date + ", for the week is:");
-         for (List<String> row : result) {
-            System.out.println("Room " + row.get(0) + " Booking Date: " + row.get(1));
-         }
-        }
-
+         esql.getOperations().listHotelRoomBookingsForAWeek(hotelID, date, System.out);
       } catch(Exception e){
          System.err.println (e.getMessage());
       }
-      
+
    }//end listHotelRoomBookingsForAWeek
-   
+
+   public static void listHotelRoomBookingsForAWeek(DBProject esql, int hotelID, String date, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "listHotelRoomBookingsForAWeek", new String[] {ResultCache.BOOKING},
+                              new Object[] {hotelID, date}, o -> printListHotelRoomBookingsForAWeek(esql, hotelID, date, o));
+   }//end listHotelRoomBookingsForAWeek
+
+   private static void printListHotelRoomBookingsForAWeek(DBProject esql, int hotelID, String date, final PrintStream out) throws SQLException{
+         LocalDate start = Row.parseDate(date);
+         final String header = "\nThe bookings, for hotel " + hotelID + " starting at " + date + ", for the week is:";
+
+         // the week is read from the hotel's cached bookings
+         int rowCount = esql.getCalendar().forEach(hotelID, start, start.plusDays(6), new BookingCalendar.Visitor() {
+            boolean first = true;
+
+            public void visit(int bID, int customer, int roomNo, LocalDate day, long priceCents) {
+               if (first) {
+                  out.println(header);
+                  first = false;
+               }
+               out.println("Room " + roomNo + " Booking Date: " + day);
+            }
+         });
+
+         if (rowCount == 0) {
+            out.println("No bookings for the given week at the hotel " + hotelID + ".");
+        }
+   }//end printListHotelRoomBookingsForAWeek
+
    public static void topKHighestRoomPriceForADateRange(DBProject esql) throws IOException, SQLException{
 	  // List Top K Rooms with the highest price for a given date range
       // Your code goes here.
@@ -1116,36 +1869,36 @@ public class DBProject {
          String endDate = in.readLine();
          System.out.println("Enter K (number of top rooms with highest price)");
          int K = Integer.parseInt(in.readLine());
-
-         String query = "SELECT r.hotelID, r.roomNo, b.price " +
-                        "FROM room r " +
-                        "JOIN booking b ON r.hotelID = b.hotelID AND r.roomNo = b.roomNo " +
-                        "WHERE NOT (b.bookingDate < TO_DATE('" + startDate + "', 'MM/DD/YYYY') " +
-                        "OR b.bookingDate > TO_DATE('" + endDate + "', 'MM/DD/YYYY')) " +
-                        "ORDER BY b.price DESC " +
-                        "LIMIT " + K;
-                        
-         List<List<String>> result = esql.executeQuery(query);
-         
-         if (result.size() > 0) {
-            System.out.println ("Top " + K + " highest-priced available rooms from " + startDate + " to " + endDate + ":");
-            for(int i = 0; i < result.size(); i++){
-               List<String> row = result.get(i);
-               System.out.println("hotelID: " + row.get(0) +
-                                 ", RoomNo: " + row.get(1) +
-                                 ", Price: " + row.get(2));
-            }
-         } else {
-            System.out.println("No rooms available in the given date range");
-         }
-      
+         esql.getOperations().topKHighestRoomPriceForADateRange(startDate, endDate, K, System.out);
       } catch(Exception e){
          System.err.println (e.getMessage());
-      }     
+      }
    }//end topKHighestRoomPriceForADateRange
-   
+
+   public static void topKHighestRoomPriceForADateRange(DBProject esql, String startDate, String endDate, int K, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "topKHighestRoomPriceForADateRange", new String[] {ResultCache.BOOKING},
+                              new Object[] {startDate, endDate, K}, o -> printTopKHighestRoomPriceForADateRange(esql, startDate, endDate, K, o));
+   }//end topKHighestRoomPriceForADateRange
+
+   private static void printTopKHighestRoomPriceForADateRange(DBProject esql, String startDate, String endDate, int K, final PrintStream out) throws SQLException{
+         // merged from the price-ordered bookings of the months in the range
+         List<TopKIndex.Booking> top = esql.getTopK().topByDate(Row.parseDate(startDate), Row.parseDate(endDate), K);
+         if (!top.isEmpty()) {
+            out.println("Top " + K + " highest-priced available rooms from " + startDate + " to " + endDate + ":");
+         }
+         for (TopKIndex.Booking b : top) {
+            out.println("hotelID: " + b.hotelID +
+                              ", RoomNo: " + b.roomNo +
+                              ", Price: " + Row.formatMoney(b.priceCents));
+         }
+
+         if (top.isEmpty()) {
+            out.println("No rooms available in the given date range");
+         }
+   }//end printTopKHighestRoomPriceForADateRange
+
    public static void topKHighestPriceBookingsForACustomer(DBProject esql) throws IOException, SQLException{
-	  // Given a customer Name, List Top K highest booking price for a customer 
+	  // Given a customer Name, List Top K highest booking price for a customer
       // Your code goes here.
       try{
          System.out.print("\tEnter customer first name: ");
@@ -1154,33 +1907,54 @@ public class DBProject {
          String lname = in.readLine();
          System.out.println("Enter K (number of top rooms with highest price): ");
          int K = Integer.parseInt(in.readLine());
+         esql.getOperations().topKHighestPriceBookingsForACustomer(fname, lname, K, System.out);
+      } catch (Exception e) {
+         System.err.println("Error: " + e.getMessage());
+      }
+   }//end topKHighestPriceBookingsForACustomer
 
-         String query = "SELECT B.bID, B.hotelID, B.roomNo, B.price " +
-                        "FROM booking B, customer C " +
-                        "WHERE B.customer = C.customerID " +
-                        "AND C.fName = '" + fname + "' " +
-                        "AND C.lName = '" + lname + "' " +
-                        "ORDER BY B.price DESC " +
-                        "LIMIT " + K + ";";
+   public static void topKHighestPriceBookingsForACustomer(DBProject esql, String fname, String lname, int K, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "topKHighestPriceBookingsForACustomer", new String[] {ResultCache.BOOKING, ResultCache.CUSTOMER},
+                              new Object[] {fname, lname, K}, o -> printTopKHighestPriceBookingsForACustomer(esql, fname, lname, K, o));
+   }//end topKHighestPriceBookingsForACustomer
 
-         List<List<String>> result = esql.executeQuery(query);
+   private static void printTopKHighestPriceBookingsForACustomer(DBProject esql, String fname, String lname, int K, final PrintStream out) throws SQLException{
+         // merged from the price-ordered bookings of every customer of that name
+         List<TopKIndex.Booking> top = esql.getTopK().topByCustomer(customerIDs(esql, fname, lname), K);
+         if (!top.isEmpty()) {
+            out.println("\nThe " + K + " highest booking price for " + fname + " " + lname + ":");
+         }
+         for (TopKIndex.Booking b : top) {
+            out.println("Booking ID: " + b.bID + ", Hotel ID: " + b.hotelID + ", Room Number: " + b.roomNo + ", Price: $" + Row.formatMoney(b.priceCents));
+         }
 
-         if (result.size() == 0) {
-            System.out.println("There are no bookings found for " + fname + " " + lname + ".");
-         } else {
-            System.out.println("\nThe " + K + " highest booking price for " + fname + " " + lname + ":");
-            for (int i = 0; i < result.size(); ++i) {
-               List<String> row = result.get(i);
-               System.out.println("Booking ID: " + row.get(0) + ", Hotel ID: " + row.get(1) + ", Room Number: " + row.get(2) + ", Price: $" + row.get(3));
-            }
-         } 
-            
+         if (top.isEmpty()) {
+            out.println("There are no bookings found for " + fname + " " + lname + ".");
+         }
+   }//end printTopKHighestPriceBookingsForACustomer
 
-      } catch (Exception e) {
-         System.err.println("Error: " + e.getMessage());
+   /*
+    * Parses a date as the server would, failing the same way: 22007 when
+    * it is not a date, 23502 when it is missing.
+    */
+   static LocalDate parseDate(String s, String column) throws SQLException {
+      if (s == null)
+         throw new SQLException("null value in column \"" + column + "\" violates not-null constraint", "23502");
+      try {
+         return Row.parseDate(s);
+      } catch (IllegalArgumentException e) {
+         throw new SQLException("invalid input syntax for type date: \"" + s + "\"", "22007");
       }
-   }//end topKHighestPriceBookingsForACustomer
-   
+   }//end parseDate
+
+   /**
+    * @return the customerID of every customer with this first and last
+    *    name, ignoring case and surrounding blanks
+    */
+   static List<Integer> customerIDs(DBProject esql, String fname, String lname) throws SQLException {
+      return esql.getCustomers().resolveList(fname, lname);
+   }//end customerIDs
+
    public static void totalCostForCustomer(DBProject esql) throws IOException, SQLException{
 	  // Given a hotelID, customer Name and date range get the total cost incurred by the customer
       // Your code goes here.
@@ -1196,83 +1970,107 @@ public class DBProject {
          String brange = in.readLine();
          System.out.print("\tEnter end of date range: ");
          String erange = in.readLine();
+         esql.getOperations().totalCostForCustomer(hotelID, fname, lname, brange, erange, System.out);
+      } catch(Exception e){
+         System.err.println (e.getMessage());
+      }
 
+   }//end totalCostForCustomer
 
-         String query = "SELECT SUM(B.price) " +
-                        "FROM booking B, customer C " +
-                        "WHERE B.customer = C.customerID " + "AND C.fName = '" + fname +
-                        "' AND C.lName = '" + lname + "' " + "AND B.hotelID = " + hotelID + 
-                        " AND B.bookingDate >= '" + brange + "' AND B.bookingDate <= '" + erange + "';";
-                     
-                        
-         List<List<String>> result = esql.executeQuery(query);
-         
-         String totalCost = result.get(0).get(0);
+   public static void totalCostForCustomer(DBProject esql, int hotelID, String fname, String lname, String brange, String erange, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "totalCostForCustomer", new String[] {ResultCache.BOOKING, ResultCache.CUSTOMER},
+                              new Object[] {hotelID, fname, lname, brange, erange}, o -> printTotalCostForCustomer(esql, hotelID, fname, lname, brange, erange, o));
+   }//end totalCostForCustomer
 
-         
-         if (totalCost == null) {
-            System.out.println("The customer had no cost for the week");
-        } 
+   private static void printTotalCostForCustomer(DBProject esql, int hotelID, String fname, String lname, String brange, String erange, PrintStream out) throws SQLException{
+         Set<Integer> customers = new HashSet<>(customerIDs(esql, fname, lname));
+
+         // the bookings of the date range are read from the hotel's cached bookings
+         long totalCost = customers.isEmpty() ? -1 :
+            esql.getCalendar().totalCost(hotelID, customers, Row.parseDate(brange), Row.parseDate(erange));
+
+
+         if (totalCost < 0) {
+            out.println("The customer had no cost for the week");
+        }
         else {
-         System.out.println("\nThe total cost for the customer " + fname + " " + lname + " is $" + totalCost + " at hotel " + hotelID + 
+         out.println("\nThe total cost for the customer " + fname + " " + lname + " is $" + Row.formatMoney(totalCost) + " at hotel " + hotelID +
          " with a date range of " + brange + " to " + erange);
         }
+   }//end printTotalCostForCustomer
 
-      } catch(Exception e){
-         System.err.println (e.getMessage());
-      }
-      
-   }//end totalCostForCustomer
-   
    public static void listRepairsMade(DBProject esql) throws IOException, SQLException{
       // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
       // Your code goes here.
       try{
          System.out.println("Enter Maintenance company name: ");
          String companyName = in.readLine();
+         esql.getOperations().listRepairsMade(companyName, System.out);
+      } catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end listRepairsMade
+
+   public static void listRepairsMade(DBProject esql, String companyName, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "listRepairsMade", new String[] {ResultCache.REPAIR, ResultCache.MAINTENANCE_COMPANY},
+                              new Object[] {companyName}, o -> printListRepairsMade(esql, companyName, o));
+   }//end listRepairsMade
+
+   private static void printListRepairsMade(DBProject esql, String companyName, final PrintStream out) throws SQLException{
          String query = "SELECT r.repairType, r.hotelID, r.roomNo " +
                         "FROM repair r " +
                         "JOIN maintenancecompany m ON r.mCompany = m.cmpID " +
-                        "WHERE m.name = '" + companyName + "' " +
-                        "ORDER BY r.repairDate DESC";
-         List<List<String>> result = esql.executeQuery(query);
-        
-         if (result.size() > 0) {
-            System.out.println ("Repairs done by " + companyName + ":");
-            for(int i = 0; i < result.size(); i++){
-               List<String> row = result.get(i);
-               System.out.println("RepairType: " + row.get(0).trim() + ", HotelID: " + row.get(1) + ", RoomNo: " + row.get(2));
+                        "WHERE m.name = ? " +
+                        "ORDER BY r.repairDate DESC, r.rID";
+         final String header = "Repairs done by " + companyName + ":";
+
+         // rows are printed as they are fetched
+         int rowCount = esql.streamQuery(query, new RowHandler() {
+            boolean first = true;
+
+            public void handleRow(Row row) throws SQLException {
+               if (first) {
+                  out.println (header);
+                  first = false;
+               }
+               out.println("RepairType: " + row.getTrimmedString(1) + ", HotelID: " + row.getLong(2) + ", RoomNo: " + row.getLong(3));
             }
-         } else {
-            System.out.println("No repairs found for " + companyName);
+         }, companyName);
+
+         if (rowCount == 0) {
+            out.println("No repairs found for " + companyName);
          }
-      } catch(Exception e){
-         System.err.println (e.getMessage());
-      }           
-   }//end listRepairsMade
-   
+   }//end printListRepairsMade
+
    public static void topKMaintenanceCompany(DBProject esql) throws IOException, SQLException{
 	  // List Top K Maintenance Company Names based on total repair count (descending order)
       // Your code goes here.
       try {
          System.out.println("Enter K (number of top maintenance companys with highest total repair counts)");
          int K = Integer.parseInt(in.readLine());
-      
-         String query = "SELECT m.name, COUNT(r.rID) AS totalRepairs " + 
-                        "FROM repair r " + 
-                        "JOIN maintenancecompany m ON r.mCompany = m.cmpID " + 
-                        "GROUP BY m.name " + 
-                        "ORDER BY totalRepairs DESC " + 
-                        "LIMIT " + K + ";";
-         
-         esql.printQuery(query);
-
+         esql.getOperations().topKMaintenanceCompany(K, System.out);
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
-     
+
    }//end topKMaintenanceCompany
-   
+
+   public static void topKMaintenanceCompany(DBProject esql, int K, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "topKMaintenanceCompany", new String[] {ResultCache.REPAIR, ResultCache.MAINTENANCE_COMPANY},
+                              new Object[] {K}, o -> printTopKMaintenanceCompany(esql, K, o));
+   }//end topKMaintenanceCompany
+
+   private static void printTopKMaintenanceCompany(DBProject esql, int K, PrintStream out) throws SQLException{
+         // read off the front of the ranking, one line per cmpID
+         List<RepairLeaderboard.Company> top = esql.getRepairCounts().top(K);
+         if (!top.isEmpty()) {
+            out.println("cmpid\tname\ttotalrepairs\t");
+         }
+         for (RepairLeaderboard.Company c : top) {
+            out.println(c.cmpID + "\t" + String.format("%-30s", c.name) + "\t" + c.getRepairs() + "\t");
+         }
+   }//end printTopKMaintenanceCompany
+
    public static void numberOfRepairsForEachRoomPerYear(DBProject esql) throws IOException{
 	  // Given a hotelID, roomNo, get the count of repairs per year
       // Your code goes here.
@@ -1281,20 +2079,47 @@ public class DBProject {
          int hotelID = Integer.parseInt(in.readLine());
          System.out.println("Enter room number: ");
          int roomNo  = Integer.parseInt(in.readLine());
-
-         String query = "SELECT TO_CHAR(repairDate, 'YYYY') AS year, COUNT(*) AS repairCount " +
-                        "FROM repair " +
-                        "WHERE hotelID = " + hotelID + " " +
-                        "AND roomNo = " + roomNo + " " +
-                        "GROUP BY year " +
-                        "ORDER BY year DESC;";
-      
-         esql.printQuery(query);
-
+         esql.getOperations().numberOfRepairsForEachRoomPerYear(hotelID, roomNo, System.out);
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
-      
-   }//end listRepairsMade
+
+   }//end numberOfRepairsForEachRoomPerYear
+
+   public static void numberOfRepairsForEachRoomPerYear(DBProject esql, int hotelID, int roomNo, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "numberOfRepairsForEachRoomPerYear", new String[] {ResultCache.REPAIR},
+                              new Object[] {hotelID, roomNo}, o -> printNumberOfRepairsForEachRoomPerYear(esql, hotelID, roomNo, o));
+   }//end numberOfRepairsForEachRoomPerYear
+
+   private static void printNumberOfRepairsForEachRoomPerYear(DBProject esql, int hotelID, int roomNo, PrintStream out) throws SQLException{
+         // one array lookup in the per-room histogram
+         List<RepairHistogram.YearCount> years = esql.getRepairYears().history(hotelID, roomNo);
+         if (!years.isEmpty()) {
+            out.println("year\trepaircount\t");
+         }
+         for (RepairHistogram.YearCount y : years) {
+            out.println(y.year + "\t" + y.repairs + "\t");
+         }
+   }//end printNumberOfRepairsForEachRoomPerYear
+
+   /**
+    * Prints the K rooms of a hotel with the most repairs in a year.
+    */
+   public static void roomsWithMostRepairs(DBProject esql, int hotelID, int year, int K, PrintStream out) throws SQLException{
+      esql.getResults().print(out, "roomsWithMostRepairs", new String[] {ResultCache.REPAIR},
+                              new Object[] {hotelID, year, K}, o -> printRoomsWithMostRepairs(esql, hotelID, year, K, o));
+   }//end roomsWithMostRepairs
+
+   private static void printRoomsWithMostRepairs(DBProject esql, int hotelID, int year, int K, PrintStream out) throws SQLException{
+         List<RepairHistogram.RoomCount> rooms = esql.getRepairYears().mostRepaired(hotelID, year, K);
+         if (rooms.isEmpty()) {
+            out.println("No repairs found for hotel " + hotelID + " in " + year);
+            return;
+         }
+         out.println("Rooms of hotel " + hotelID + " with the most repairs in " + year + ":");
+         for (RepairHistogram.RoomCount r : rooms) {
+            out.println("RoomNo: " + r.roomNo + ", Repairs: " + r.repairs);
+         }
+   }//end printRoomsWithMostRepairs
 
 }//end DBProject
@@ -0,0 +1,515 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Writes the nine data/*.csv files of a hotel database of any size, in the
+ * format BulkLoader and sql/create.sql load.  At scale 1 the tables have
+ * the sizes of the shipped data (1,000 hotels of 10 rooms and 5 staff,
+ * 2,000 customers, 20 companies, about 4,000 bookings, 2,000 repairs,
+ * requests and assignments); every table grows linearly with the scale, up
+ * to 10,000.
+ *
+ * Every foreign key of create.sql holds: staff work for existing hotels,
+ * bookings, repairs and assignments name existing rooms, a request is made
+ * by the manager of the repaired hotel before the repair, and an
+ * assignment goes to a house cleaner of the hotel.  Hotel.manager is left
+ * null, as in the shipped data, for create.sql to fill in.  No room is
+ * booked twice on a day.
+ *
+ * The data is skewed the way a real chain's is:
+ *
+ *    hot hotels   a tenth of the hotels, spread over the ids, take half
+ *                 of the bookings, repairs and assignments
+ *    seasons      bookings grow year on year from 2000 to 2018 and peak
+ *                 in the summer and in December, with higher prices
+ *    customers    the customer of a booking is Zipfian (s = 1), so a few
+ *                 customers have many bookings and most have few
+ *    companies    so is the company of a repair
+ *
+ * Each row is drawn from its own random generator, seeded from the seed,
+ * the table and the row number, so the output depends on the seed and the
+ * scale only, never on the number of threads.  The rows are generated in
+ * chunks on all threads and written in order, a few chunks at a time, so
+ * memory stays small at any scale.  Bookings are generated room by room;
+ * a first pass counts the bookings of each chunk of rooms to number them.
+ *
+ * Usage: java DataGenerator <dataDir> [scale] [seed] [threads]
+ *
+ */
+public class DataGenerator {
+
+   // the tables at scale 1
+   static final int HOTELS = 1000;
+   static final int ROOMS_PER_HOTEL = 10;
+   static final int STAFF_PER_HOTEL = 5;
+   static final int CUSTOMERS = 2000;
+   static final int COMPANIES = 20;
+   static final int BOOKINGS = 4000;
+   static final int REPAIRS = 2000;
+   static final int REQUESTS = 2000;
+   static final int ASSIGNED = 2000;
+   static final int MAX_SCALE = 10000;
+
+   // a tenth of the hotels take half of the activity
+   static final double HOT_HOTELS = 0.1;
+   static final double HOT_SHARE = 0.5;
+
+   // the months by their share of bookings, in percent
+   static final int[] SEASON = { 6, 5, 7, 7, 8, 11, 13, 12, 8, 7, 6, 10 };
+   static final int FIRST_YEAR = 2000, LAST_YEAR = 2018;
+   static final long FIRST_REPAIR = LocalDate.of (2005, 1, 1).toEpochDay ();
+   static final long LAST_REPAIR = LocalDate.of (LAST_YEAR, 12, 31).toEpochDay ();
+
+   static final String[] ROOM_TYPES = { "Economy", "Suite", "Deluxe" };
+   static final String[] REPAIR_TYPES = { "Small", "Medium", "Large" };
+   static final String[] GENDERS = { "Male", "Female", "Other" };
+
+   // the random generator of each table
+   static final int HOTEL = 1, STAFF = 2, ROOM = 3, CUSTOMER = 4, COMPANY = 5, BOOKING = 6, REPAIR = 7,
+                    REQUEST = 8, ASSIGNMENT = 9;
+
+   // rows per chunk
+   static final int CHUNK = 1 << 15;
+
+   /*
+    * Writes the rows [from, to) of a table, or the rooms [from, to) for
+    * bookings.
+    */
+   interface Chunk {
+      void write (int chunk, long from, long to, StringBuilder out);
+   }//end Chunk
+
+   /*
+    * The fields of a repair that its requests depend on.
+    */
+   static final class RepairRow {
+      long hotel, room, company, day;
+   }//end RepairRow
+
+   private final File dir;
+   private final long seed;
+   private final int threads;
+   private final ExecutorService workers;
+
+   private final long hotels, hot, rooms, staff, customers, companies, repairs, requests, assigned;
+   // the hotel of each rank, rank * hotelStep mod hotels, and back
+   private final long hotelStep, hotelStepInverse;
+   private final long customerStep, companyStep;
+   // the expected bookings of a room of a hot and of another hotel
+   private final double hotRate, coldRate;
+
+   public DataGenerator (File dir, int scale, long seed, int threads) {
+      if (scale < 1 || scale > MAX_SCALE)
+         throw new IllegalArgumentException ("The scale must be from 1 to " + MAX_SCALE);
+      this.dir = dir;
+      this.seed = seed;
+      this.threads = threads;
+      this.workers = Executors.newFixedThreadPool (threads);
+
+      hotels = (long) HOTELS * scale;
+      hot = Math.max (1, (long) (hotels * HOT_HOTELS));
+      rooms = hotels * ROOMS_PER_HOTEL;
+      staff = hotels * STAFF_PER_HOTEL;
+      customers = (long) CUSTOMERS * scale;
+      companies = (long) COMPANIES * scale;
+      repairs = (long) REPAIRS * scale;
+      requests = (long) REQUESTS * scale;
+      assigned = (long) ASSIGNED * scale;
+
+      hotelStep = step (hotels);
+      hotelStepInverse = BigInteger.valueOf (hotelStep).modInverse (BigInteger.valueOf (hotels)).longValue ();
+      customerStep = step (customers);
+      companyStep = step (companies);
+
+      double perRoom = (double) BOOKINGS * scale / rooms;
+      hotRate = perRoom * HOT_SHARE * hotels / hot;
+      coldRate = hotels == hot ? hotRate : perRoom * (1 - HOT_SHARE) * hotels / (hotels - hot);
+   }//end DataGenerator
+
+   /**
+    * Writes all nine files.
+    *
+    * @throws java.lang.Exception when a file cannot be written
+    */
+   public void generate () throws Exception {
+      long start = System.nanoTime ();
+      try {
+         table ("hotel.csv", "0,default,\\N", hotels, this::hotels);
+         table ("staff.csv", "0,default,default,default,Manager,0", staff, this::staff);
+         table ("room.csv", "0,0,default", rooms, this::rooms);
+         table ("customer.csv", "0,default,default,default,0,1/1/2000,Male", customers, this::customers);
+         table ("maintenanceCompany.csv", "0,default,default,TRUE", companies, this::companies);
+
+         // number the bookings from the counts of the chunks of rooms
+         long[] first = bookingCounts ();
+         table ("booking.csv", "0,0,0,0,1/1/2000,0,0", rooms,
+                (chunk, from, to, out) -> bookings (first[chunk], from, to, out));
+
+         table ("repair.csv", "0,0,0,0,1/1/2000,default,Small", repairs, this::repairs);
+         table ("request.csv", "0,0,0,1/1/2000,default", requests, this::requests);
+         table ("assigned.csv", "0,0,0,0", assigned, this::assigned);
+      } finally {
+         workers.shutdown ();
+      }//end try
+      System.out.printf ("Generated in %.2f s%n", (System.nanoTime () - start) / 1e9);
+   }//end generate
+
+   /*
+    * Writes the placeholder row 0 and then rows 1 to count of a table,
+    * generated in chunks on the workers and written in order, with at
+    * most two chunks per thread in memory.
+    */
+   private void table (String file, String placeholder, long count, Chunk chunk) throws Exception {
+      long start = System.nanoTime ();
+      long written = 0;
+      Deque<Future<byte[]>> pending = new ArrayDeque<> ();
+      try (OutputStream out = new BufferedOutputStream (new FileOutputStream (new File (dir, file)), 1 << 16)) {
+         out.write ((placeholder + "\n").getBytes (StandardCharsets.US_ASCII));
+         int chunks = (int) ((count + CHUNK - 1) / CHUNK);
+         for (int c = 0; c < chunks; ++c) {
+            final int n = c;
+            final long from = 1 + (long) c * CHUNK, to = Math.min (count + 1, from + CHUNK);
+            pending.add (workers.submit (() -> {
+               StringBuilder rows = new StringBuilder (CHUNK * 48);
+               chunk.write (n, from, to, rows);
+               return rows.toString ().getBytes (StandardCharsets.US_ASCII);
+            }));
+            if (pending.size () >= 2 * threads)
+               written += drain (pending.remove (), out);
+         }//end for
+         while (!pending.isEmpty ())
+            written += drain (pending.remove (), out);
+      } finally {
+         for (Future<byte[]> f : pending)
+            f.cancel (true);
+      }//end try
+      double secs = (System.nanoTime () - start) / 1e9;
+      System.out.printf ("%-24s %12d bytes %8.2f s %10.1f MB/s%n", file, written, secs, written / secs / 1e6);
+   }//end table
+
+   private static long drain (Future<byte[]> chunk, OutputStream out) throws IOException, InterruptedException {
+      try {
+         byte[] rows = chunk.get ();
+         out.write (rows);
+         return rows.length;
+      } catch (ExecutionException e) {
+         throw new IOException ("Generating rows failed", e.getCause ());
+      }//end try
+   }//end drain
+
+   private void hotels (int chunk, long from, long to, StringBuilder out) {
+      for (long h = from; h < to; ++h) {
+         SplittableRandom r = random (HOTEL, h);
+         out.append (h).append (',');
+         letters (r, 6, out).append (",\\N\n");
+      }//end for
+   }//end hotels
+
+   /*
+    * The staff of hotel h are 5h-4 to 5h: its manager, two receptionists
+    * and two house cleaners.
+    */
+   private void staff (int chunk, long from, long to, StringBuilder out) {
+      for (long s = from; s < to; ++s) {
+         SplittableRandom r = random (STAFF, s);
+         long k = (s - 1) % STAFF_PER_HOTEL;
+         out.append (s).append (',');
+         letters (r, 4, out).append (',');
+         letters (r, 4, out).append (',');
+         letters (r, 6, out).append (',');
+         out.append (k == 0 ? "Manager" : k < 3 ? "Receptionist" : "HouseCleaning").append (',');
+         out.append ((s - 1) / STAFF_PER_HOTEL + 1).append ('\n');
+      }//end for
+   }//end staff
+
+   /*
+    * Room g, counting from 1, is room (g - 1) % 10 + 1 of hotel
+    * (g - 1) / 10 + 1.
+    */
+   private void rooms (int chunk, long from, long to, StringBuilder out) {
+      for (long g = from; g < to; ++g)
+         out.append ((g - 1) / ROOMS_PER_HOTEL + 1).append (',')
+            .append ((g - 1) % ROOMS_PER_HOTEL + 1).append (',')
+            .append (ROOM_TYPES[roomType (g)]).append ('\n');
+   }//end rooms
+
+   private void customers (int chunk, long from, long to, StringBuilder out) {
+      long firstDob = LocalDate.of (1930, 1, 1).toEpochDay (), lastDob = LocalDate.of (2000, 12, 31).toEpochDay ();
+      for (long c = from; c < to; ++c) {
+         SplittableRandom r = random (CUSTOMER, c);
+         out.append (c).append (',');
+         letters (r, 4, out).append (',');
+         letters (r, 4, out).append (',');
+         letters (r, 6, out).append (',');
+         out.append (r.nextLong (1000000000L, 10000000000L)).append (',');
+         date (r.nextLong (firstDob, lastDob + 1), out).append (',');
+         out.append (GENDERS[r.nextInt (GENDERS.length)]).append ('\n');
+      }//end for
+   }//end customers
+
+   private void companies (int chunk, long from, long to, StringBuilder out) {
+      for (long c = from; c < to; ++c) {
+         SplittableRandom r = random (COMPANY, c);
+         out.append (c).append (',');
+         letters (r, 4, out).append (',');
+         letters (r, 6, out).append (',');
+         out.append (r.nextInt (5) == 0 ? "FALSE" : "TRUE").append ('\n');
+      }//end for
+   }//end companies
+
+   /*
+    * The bookings of a chunk of rooms start at bID first[chunk].
+    */
+   private long[] bookingCounts () throws Exception {
+      int chunks = (int) ((rooms + CHUNK - 1) / CHUNK);
+      Future<?>[] counted = new Future<?>[chunks];
+      long[] first = new long[chunks];
+      for (int c = 0; c < chunks; ++c) {
+         final int n = c;
+         final long from = 1 + (long) c * CHUNK, to = Math.min (rooms + 1, from + CHUNK);
+         counted[c] = workers.submit (() -> {
+            long count = 0;
+            for (long g = from; g < to; ++g)
+               count += bookingCount (g, random (BOOKING, g));
+            first[n] = count;
+         });
+      }//end for
+      long next = 1;
+      for (int c = 0; c < chunks; ++c) {
+         counted[c].get ();
+         long count = first[c];
+         first[c] = next;
+         next += count;
+      }//end for
+      return first;
+   }//end bookingCounts
+
+   /*
+    * Each room gets a Poisson number of bookings on distinct days, in
+    * date order.
+    */
+   private void bookings (long bID, long from, long to, StringBuilder out) {
+      long[] days = new long[16];
+      for (long g = from; g < to; ++g) {
+         SplittableRandom r = random (BOOKING, g);
+         int n = bookingCount (g, r);
+         if (days.length < n)
+            days = new long[n];
+         for (int i = 0; i < n; ++i)
+            days[i] = distinctDay (r, days, i);
+         Arrays.sort (days, 0, n);
+
+         long hotel = (g - 1) / ROOMS_PER_HOTEL + 1, roomNo = (g - 1) % ROOMS_PER_HOTEL + 1;
+         int type = roomType (g);
+         for (int i = 0; i < n; ++i) {
+            LocalDate day = LocalDate.ofEpochDay (days[i]);
+            int month = day.getMonthValue ();
+            int price = type == 0 ? r.nextInt (100, 400) : type == 2 ? r.nextInt (300, 900) : r.nextInt (700, 1800);
+            if (month >= 6 && month <= 8 || month == 12)
+               price = Math.min (1999, price * 11 / 10);
+            out.append (bID++).append (',')
+               .append (zipf (r, customers, customerStep)).append (',')
+               .append (hotel).append (',').append (roomNo).append (',');
+            date (days[i], out).append (',')
+               .append (1 + r.nextInt (type == 1 ? 5 : 3)).append (',')
+               .append (price).append ('\n');
+         }//end for
+      }//end for
+   }//end bookings
+
+   private void repairs (int chunk, long from, long to, StringBuilder out) {
+      RepairRow row = new RepairRow ();
+      for (long rID = from; rID < to; ++rID) {
+         SplittableRandom r = repair (rID, row);
+         out.append (rID).append (',').append (row.hotel).append (',').append (row.room).append (',')
+            .append (row.company).append (',');
+         date (row.day, out).append (',');
+         letters (r, 4, out).append (',');
+         out.append (REPAIR_TYPES[r.nextInt (REPAIR_TYPES.length)]).append ('\n');
+      }//end for
+   }//end repairs
+
+   /*
+    * A request is made by the manager of the hotel, up to a month before
+    * the repair.
+    */
+   private void requests (int chunk, long from, long to, StringBuilder out) {
+      RepairRow row = new RepairRow ();
+      for (long reqID = from; reqID < to; ++reqID) {
+         SplittableRandom r = random (REQUEST, reqID);
+         long rID = 1 + r.nextLong (repairs);
+         repair (rID, row);
+         out.append (reqID).append (',')
+            .append ((row.hotel - 1) * STAFF_PER_HOTEL + 1).append (',')
+            .append (rID).append (',');
+         date (row.day - r.nextInt (1, 31), out).append (',');
+         letters (r, 4, out).append ('\n');
+      }//end for
+   }//end requests
+
+   /*
+    * A room is assigned to one of the two house cleaners of its hotel.
+    */
+   private void assigned (int chunk, long from, long to, StringBuilder out) {
+      for (long asgID = from; asgID < to; ++asgID) {
+         SplittableRandom r = random (ASSIGNMENT, asgID);
+         long hotel = hotel (r);
+         out.append (asgID).append (',')
+            .append ((hotel - 1) * STAFF_PER_HOTEL + 4 + r.nextInt (2)).append (',')
+            .append (hotel).append (',')
+            .append (1 + r.nextInt (ROOMS_PER_HOTEL)).append ('\n');
+      }//end for
+   }//end assigned
+
+   /*
+    * Draws the first fields of repair rID into row, the same for the
+    * repair and for its requests.
+    *
+    * @return the generator of the repair, for its remaining fields
+    */
+   private SplittableRandom repair (long rID, RepairRow row) {
+      SplittableRandom r = random (REPAIR, rID);
+      row.hotel = hotel (r);
+      row.room = 1 + r.nextInt (ROOMS_PER_HOTEL);
+      row.company = zipf (r, companies, companyStep);
+      row.day = r.nextLong (FIRST_REPAIR, LAST_REPAIR + 1);
+      return r;
+   }//end repair
+
+   /*
+    * The first draw of the generator of room g.
+    */
+   private int bookingCount (long g, SplittableRandom r) {
+      long rank = ((g - 1) / ROOMS_PER_HOTEL * hotelStepInverse) % hotels;
+      return poisson (r, rank < hot ? hotRate : coldRate);
+   }//end bookingCount
+
+   /*
+    * 0 Economy for half of the rooms, 1 Suite for 3 in 10, 2 Deluxe.
+    */
+   private int roomType (long g) {
+      int p = random (ROOM, g).nextInt (10);
+      return p < 5 ? 0 : p < 8 ? 1 : 2;
+   }//end roomType
+
+   /*
+    * A hotel, a hot one half of the time.
+    */
+   private long hotel (SplittableRandom r) {
+      long rank = r.nextDouble () < HOT_SHARE || hot == hotels ? r.nextLong (hot) : hot + r.nextLong (hotels - hot);
+      return rank * hotelStep % hotels + 1;
+   }//end hotel
+
+   /*
+    * A booking day unlike days[0, n), in a year drawn with a density
+    * growing linearly from 2000 to 2018 and a month drawn by SEASON.
+    */
+   private static long distinctDay (SplittableRandom r, long[] days, int n) {
+      while (true) {
+         int year = FIRST_YEAR + (int) ((LAST_YEAR - FIRST_YEAR + 1) * Math.sqrt (r.nextDouble ()));
+         int p = r.nextInt (100), month = 0;
+         while (p >= SEASON[month])
+            p -= SEASON[month++];
+         LocalDate first = LocalDate.of (year, month + 1, 1);
+         long day = first.toEpochDay () + r.nextInt (first.lengthOfMonth ());
+         boolean taken = false;
+         for (int i = 0; i < n && !taken; ++i)
+            taken = days[i] == day;
+         if (!taken)
+            return day;
+      }//end while
+   }//end distinctDay
+
+   /*
+    * A key from 1 to n of Zipfian rank (s = 1), the ranks spread over the
+    * keys by step.
+    */
+   private static long zipf (SplittableRandom r, long n, long step) {
+      long rank = Math.min (n - 1, (long) Math.exp (r.nextDouble () * Math.log (n + 1)) - 1);
+      return rank * step % n + 1;
+   }//end zipf
+
+   private static int poisson (SplittableRandom r, double mean) {
+      double limit = Math.exp (-mean), p = r.nextDouble ();
+      int n = 0;
+      while (p > limit) {
+         p *= r.nextDouble ();
+         ++n;
+      }//end while
+      return n;
+   }//end poisson
+
+   /*
+    * A multiplier near n / phi with no factor in common with n, which
+    * makes rank * step % n a permutation of [0, n).
+    */
+   private static long step (long n) {
+      long step = Math.max (1, (long) (n * 0.6180339887));
+      while (BigInteger.valueOf (step).gcd (BigInteger.valueOf (n)).longValue () != 1)
+         ++step;
+      return step;
+   }//end step
+
+   private SplittableRandom random (int table, long row) {
+      return new SplittableRandom (mix (seed + table * 0x9E3779B97F4A7C15L + mix (row)));
+   }//end random
+
+   private static long mix (long z) {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }//end mix
+
+   private static StringBuilder letters (SplittableRandom r, int n, StringBuilder out) {
+      for (int i = 0; i < n; ++i)
+         out.append ((char) ('a' + r.nextInt (26)));
+      return out;
+   }//end letters
+
+   /*
+    * Appends an epoch day as M/D/YYYY, as in the shipped data.
+    */
+   private static StringBuilder date (long epochDay, StringBuilder out) {
+      LocalDate d = LocalDate.ofEpochDay (epochDay);
+      return out.append (d.getMonthValue ()).append ('/').append (d.getDayOfMonth ()).append ('/')
+                .append (d.getYear ());
+   }//end date
+
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 4) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName () +
+                             " <dataDir> [scale] [seed] [threads]");
+         return;
+      }//end if
+      File dir = new File (args[0]);
+      if (!dir.isDirectory () && !dir.mkdirs ()) {
+         System.err.println ("Cannot create directory: " + dir);
+         return;
+      }//end if
+      try {
+         int scale = args.length > 1 ? Integer.parseInt (args[1]) : 1;
+         long seed = args.length > 2 ? Long.parseLong (args[2]) : 166;
+         int threads = args.length > 3 ? Integer.parseInt (args[3]) : Runtime.getRuntime ().availableProcessors ();
+         new DataGenerator (dir, scale, seed, threads).generate ();
+      } catch (Exception e) {
+         System.err.println ("Error - Generating data failed: " + e);
+         System.exit (-1);
+      }//end try
+   }//end main
+
+}//end DataGenerator
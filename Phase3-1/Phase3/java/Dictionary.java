@@ -0,0 +1,54 @@
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Encodes the values of a low-cardinality string column, such as roomType
+ * or repairType, as one byte each.  Code 0 stands for null and the first
+ * 255 distinct values get the codes 1 to 255 in the order they are first
+ * seen, so a column of a million rows takes a megabyte plus the distinct
+ * strings once.  Not thread safe.
+ *
+ */
+public class Dictionary {
+
+   private final Map<String, Byte> codes = new HashMap<>();
+   private final String[] values = new String[256];
+   private int next = 1;
+
+   /**
+    * @return the code of value, adding it when it is new
+    * @throws java.lang.IllegalStateException when value would be the 256th distinct value
+    */
+   public byte encode (String value) {
+      if (value == null)
+         return 0;
+      Byte code = codes.get (value);
+      if (code != null)
+         return code;
+      if (next == values.length)
+         throw new IllegalStateException ("More than " + (values.length - 1) + " distinct values");
+      values[next] = value;
+      codes.put (value, (byte) next);
+      return (byte) next++;
+   }//end encode
+
+   /**
+    * @return the value of code, null for 0
+    */
+   public String decode (byte code) {
+      return values[code & 0xff];
+   }//end decode
+
+   /**
+    * @return the number of distinct values, not counting null
+    */
+   public int size () {
+      return next - 1;
+   }//end size
+
+   public String toString () {
+      return String.format ("dictionary[values=%d]", size ());
+   }//end toString
+
+}//end Dictionary
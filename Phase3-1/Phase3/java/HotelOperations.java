@@ -0,0 +1,103 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+
+
+/**
+ * The operations of the hotel application, independent of where the data
+ * lives.  PostgresOperations runs them against the database through
+ * DBProject; MemoryOperations runs them against tables loaded from the
+ * data/*.csv files.  Given the same data and the same calls both print the
+ * same reports, hand out the same ids and refuse the same inserts with the
+ * same SQLState, so a workload can be run and timed against either.
+ *
+ * Reports write their result to out.  Inserts return the key of the new
+ * row.
+ *
+ */
+public interface HotelOperations {
+
+   /**
+    * @return the new customerID
+    */
+   int addCustomer (String fName, String lName, String address, Long phNo, String dob, String gender)
+         throws SQLException;
+
+   /**
+    * @return the new roomNo, the next free one of the hotel
+    */
+   int addRoom (int hotelID, String roomType) throws SQLException;
+
+   /**
+    * @return the new cmpID
+    */
+   int addMaintenanceCompany (String name, String address, boolean isCertified) throws SQLException;
+
+   /**
+    * @return the new rID
+    */
+   int addRepair (int hotelID, int roomNo, int mCompany, String repairDate, String description,
+                  String repairType) throws SQLException;
+
+   /**
+    * @param price the price of the Numeric(6,2) column, rounded half up to cents
+    * @return the new bID
+    * @throws java.sql.SQLException with SQLState 23P01 when the room is taken
+    */
+   int bookRoom (int customer, int hotelID, int roomNo, String bookingDate, Integer noOfPeople, BigDecimal price)
+         throws SQLException;
+
+   /**
+    * @return the new asgID
+    */
+   int assignHouseCleaningToRoom (int SSN, int hotelID, int roomNo) throws SQLException;
+
+   /**
+    * @param requestDate the date as MM/DD/YYYY
+    * @return the new reqID
+    */
+   int repairRequest (int managerID, int repairID, String requestDate, String description) throws SQLException;
+
+   /**
+    * Prints the number of rooms of a hotel that have never been booked.
+    */
+   void numberOfAvailableRooms (int hotelID, PrintStream out) throws SQLException;
+
+   /**
+    * Prints the number of rooms of a hotel that are free on every day from
+    * one date to another.
+    */
+   void numberOfAvailableRooms (int hotelID, String from, String to, PrintStream out) throws SQLException;
+
+   void numberOfBookedRooms (int hotelID, PrintStream out) throws SQLException;
+
+   void listHotelRoomBookingsForAWeek (int hotelID, String date, PrintStream out) throws SQLException;
+
+   void topKHighestRoomPriceForADateRange (String startDate, String endDate, int K, PrintStream out)
+         throws SQLException;
+
+   void topKHighestPriceBookingsForACustomer (String fname, String lname, int K, PrintStream out)
+         throws SQLException;
+
+   void totalCostForCustomer (int hotelID, String fname, String lname, String brange, String erange,
+                              PrintStream out) throws SQLException;
+
+   void listRepairsMade (String companyName, PrintStream out) throws SQLException;
+
+   void topKMaintenanceCompany (int K, PrintStream out) throws SQLException;
+
+   void numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, PrintStream out) throws SQLException;
+
+   /**
+    * Prints the K rooms of a hotel with the most repairs in a year.
+    */
+   void roomsWithMostRepairs (int hotelID, int year, int K, PrintStream out) throws SQLException;
+
+   /**
+    * Reconciles whatever the implementation caches with its tables.
+    *
+    * @return the number of repair counters that were wrong
+    */
+   int rebuild () throws SQLException;
+
+}//end HotelOperations
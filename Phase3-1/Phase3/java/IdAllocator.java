@@ -0,0 +1,107 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Hands out primary keys from Postgres sequences using hi/lo blocks.  Each
+ * sequence is created with INCREMENT BY n (see sql/sequences.sql), so one
+ * nextval reserves the ids [v, v + n) for this JVM, and the next n inserts
+ * take their id from memory without another round trip.  Ids stay unique
+ * across any number of processes because every block comes from the
+ * sequence.
+ *
+ * Room numbers are numbered per hotel, which a sequence cannot express.
+ * They are counted in memory from MAX(roomNo) of the hotel; a process that
+ * loses a race on the primary key calls forgetRoomNo and retries.
+ *
+ */
+public class IdAllocator {
+
+   public static final String CUSTOMER = "customer_id_seq";
+   public static final String MAINTENANCE_COMPANY = "maintenancecompany_id_seq";
+   public static final String REPAIR = "repair_id_seq";
+   public static final String BOOKING = "booking_id_seq";
+   public static final String ASSIGNED = "assigned_id_seq";
+   public static final String REQUEST = "request_id_seq";
+
+   /*
+    * The ids left in the block most recently reserved from one sequence.
+    */
+   private static class Block {
+      long next;
+      long end;
+   }//end Block
+
+   private final DBProject esql;
+   private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+   private final Map<String, Long> increments = new ConcurrentHashMap<>();
+   // next free room number of each hotel seen so far.
+   private final Map<Integer, Integer> roomNos = new HashMap<>();
+
+   public IdAllocator (DBProject esql) {
+      this.esql = esql;
+   }//end IdAllocator
+
+   /**
+    * Returns the next id of a sequence, reserving a new block from the
+    * database when the current one is used up.
+    *
+    * @param sequence the sequence name, one of the constants of this class
+    * @return an id no other caller or process will receive
+    * @throws java.sql.SQLException when the sequence cannot be read
+    */
+   public long next (String sequence) throws SQLException {
+      Block block = blocks.computeIfAbsent (sequence, k -> new Block ());
+      synchronized (block) {
+         if (block.next >= block.end) {
+            long start = esql.queryForLong ("SELECT nextval(?::regclass)", -1, sequence);
+            block.next = start;
+            block.end = start + increment (sequence);
+         }//end if
+         return block.next++;
+      }//end synchronized
+   }//end next
+
+   /**
+    * Returns the next room number of a hotel.
+    *
+    * @param hotelID the hotel
+    * @return one more than the highest room number handed out or stored so far
+    * @throws java.sql.SQLException when the current maximum cannot be read
+    */
+   public synchronized int nextRoomNo (int hotelID) throws SQLException {
+      Integer next = roomNos.get (hotelID);
+      if (next == null)
+         next = (int) esql.queryForLong ("SELECT MAX(roomNo) FROM room WHERE hotelID = ?", 0, hotelID) + 1;
+      roomNos.put (hotelID, next + 1);
+      return next;
+   }//end nextRoomNo
+
+   /**
+    * Drops the cached room counter of a hotel so the next call re-reads
+    * MAX(roomNo), e.g. after another process added a room.
+    */
+   public synchronized void forgetRoomNo (int hotelID) {
+      roomNos.remove (hotelID);
+   }//end forgetRoomNo
+
+   /*
+    * The block size is the sequence's INCREMENT BY, read once from the
+    * catalog so the client can never hand out ids of someone else's block.
+    * It is looked up by regclass, which resolves the name through the
+    * search path exactly as nextval does, so a sequence of the same name in
+    * another schema is never read instead.
+    */
+   private long increment (String sequence) throws SQLException {
+      Long inc = increments.get (sequence);
+      if (inc == null) {
+         inc = esql.queryForLong ("SELECT seqincrement FROM pg_sequence WHERE seqrelid = ?::regclass",
+                                  1, sequence);
+         increments.put (sequence, inc);
+      }//end if
+      return inc;
+   }//end increment
+
+}//end IdAllocator
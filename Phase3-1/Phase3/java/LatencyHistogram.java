@@ -0,0 +1,121 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds,
+ * with buckets laid out as HdrHistogram lays them out: values below 128
+ * each have their own bucket, and every power of two above is split into
+ * 64 buckets, so any value is kept to within 1/64 (1.6%) and the whole
+ * range of a long takes 3,712 counters, 29 KB.
+ *
+ * Recording is one atomic increment of a bucket and two adders, without
+ * locks or allocation, so any number of threads can record into one
+ * histogram.  Reading while others record gives counts that may be a few
+ * values apart from each other, which a report does not notice.
+ *
+ */
+public class LatencyHistogram {
+
+   // buckets per power of two
+   private static final int SUB_BUCKET_BITS = 6;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+   private final AtomicLongArray counts = new AtomicLongArray (BUCKETS);
+   private final LongAdder total = new LongAdder ();
+   private final LongAdder sum = new LongAdder ();
+   private final LongAccumulator max = new LongAccumulator (Math::max, 0);
+
+   /**
+    * @param value the value, negative values counting as 0
+    */
+   public void record (long value) {
+      value = Math.max (0, value);
+      counts.incrementAndGet (index (value));
+      total.increment ();
+      sum.add (value);
+      max.accumulate (value);
+   }//end record
+
+   /**
+    * Adds the values of other to this histogram.
+    */
+   public void add (LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) {
+         long n = other.counts.get (i);
+         if (n != 0)
+            counts.addAndGet (i, n);
+      }//end for
+      total.add (other.total.sum ());
+      sum.add (other.sum.sum ());
+      max.accumulate (other.max.get ());
+   }//end add
+
+   public long getCount () {
+      return total.sum ();
+   }//end getCount
+
+   public long getMax () {
+      return max.get ();
+   }//end getMax
+
+   public long getSum () {
+      return sum.sum ();
+   }//end getSum
+
+   public double getMean () {
+      long n = total.sum ();
+      return n == 0 ? 0 : (double) sum.sum () / n;
+   }//end getMean
+
+   /**
+    * @param percentile from 0 to 100
+    * @return the highest value of the bucket holding the value at the
+    *         percentile, at most the maximum, 0 when empty
+    */
+   public long getValueAtPercentile (double percentile) {
+      long n = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+         n += counts.get (i);
+      if (n == 0)
+         return 0;
+      long rank = Math.max (1, (long) Math.ceil (Math.min (100, percentile) / 100 * n));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += counts.get (i);
+         if (seen >= rank)
+            return Math.min (highest (i), max.get ());
+      }//end for
+      return max.get ();
+   }//end getValueAtPercentile
+
+   /*
+    * Values below 128 index themselves; above, the 7 highest bits of the
+    * value and the position of the highest give the bucket.
+    */
+   static int index (long value) {
+      if (value < 2 * SUB_BUCKETS)
+         return (int) value;
+      int shift = 63 - Long.numberOfLeadingZeros (value) - SUB_BUCKET_BITS;
+      return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+   }//end index
+
+   /*
+    * The highest value that falls into bucket i.
+    */
+   static long highest (int i) {
+      if (i < 2 * SUB_BUCKETS)
+         return i;
+      int shift = (i >>> SUB_BUCKET_BITS) - 1;
+      long lowest = (long) ((i & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+      return lowest + (1L << shift) - 1;
+   }//end highest
+
+   public String toString () {
+      return String.format ("histogram[count=%d, mean=%.0f, p50=%d, p99=%d, max=%d]", getCount (), getMean (),
+                            getValueAtPercentile (50), getValueAtPercentile (99), getMax ());
+   }//end toString
+
+}//end LatencyHistogram
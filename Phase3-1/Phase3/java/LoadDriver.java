@@ -0,0 +1,451 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Drives many concurrent clients against the hotel operations and reports
+ * what they sustain.  Each client is a closed loop: it picks an operation
+ * from the mix, runs it, thinks for an exponentially distributed time and
+ * picks the next, so that the load a client offers falls as the system
+ * slows down, as with real users.
+ *
+ *    clients=1000      the number of clients, started evenly over rampup
+ *    rampup=10         seconds until all clients run; not measured
+ *    duration=60       seconds measured after the ramp-up
+ *    think=100         the mean think time in ms, 0 for none
+ *    rate=0            the operations per second of all clients together,
+ *                      0 for as fast as they go
+ *    mix=book:30,...   the operations and their weights, of book, repair,
+ *                      available, week, toprooms, topcustomer, topcompanies
+ *    seed=1            for the keys and the think times
+ *    out=load.json     the result file
+ *
+ * With a rate, an operation is due at a fixed schedule and its latency is
+ * measured from when it was due, so that a stall counts against every
+ * operation it delays, as HdrHistogram corrects for coordinated omission.
+ * The keys come from the csv files the database was loaded from, so load
+ * it with BulkLoader from the same directory first.  Bookings go to random
+ * rooms on days from 2030 on; the few that collide count as errors.
+ *
+ * Clients are virtual threads where the JVM has them (Java 21 on) and
+ * platform threads otherwise.  Either way they share the connection pool
+ * of DBProject, -Ddbproject.pool.maxSize, and the time they wait for a
+ * connection is part of the latency.
+ *
+ * Usage: java LoadDriver <dbname> <port> <user> <dataDir> [option=value ...]
+ *        java LoadDriver -memory <dataDir> [option=value ...]
+ *
+ */
+public class LoadDriver {
+
+   static final String DEFAULT_MIX =
+      "book:30,repair:5,available:20,week:20,toprooms:10,topcustomer:10,topcompanies:5";
+
+   static final String[] OPERATIONS =
+      { "book", "repair", "available", "week", "toprooms", "topcustomer", "topcompanies" };
+
+   /*
+    * The measurements of one operation.
+    */
+   static final class Stats {
+      final LatencyHistogram latency = new LatencyHistogram ();
+      final LongAdder errors = new LongAdder ();
+      volatile String lastError;
+   }//end Stats
+
+   private final HotelOperations ops;
+   private final String engine;
+   private final int clients;
+   private final long rampupNanos, durationNanos, thinkNanos, intervalNanos;
+   private final long seed;
+   private final File result;
+   private final String mixText;
+
+   // the operations of the mix, each as often as its weight
+   private final int[] mix;
+   private final Stats[] stats = new Stats[OPERATIONS.length];
+
+   // the keys the operations draw from
+   private final List<int[]> rooms = new ArrayList<> ();            // hotelID, roomNo
+   private final List<String[]> customers = new ArrayList<> ();     // customerID, fName, lName
+   private final List<Integer> companies = new ArrayList<> ();
+   private final List<Integer> hotels = new ArrayList<> ();
+   private long firstDay, lastDay;
+
+   // the next slot of the rate schedule
+   private final AtomicLong slot = new AtomicLong ();
+   private volatile long measureFrom, measureTo;
+
+   public LoadDriver (HotelOperations ops, String engine, File dataDir, Map<String, String> options)
+         throws IOException {
+      this.ops = ops;
+      this.engine = engine;
+      this.clients = Integer.parseInt (option (options, "clients", "1000"));
+      this.rampupNanos = TimeUnit.SECONDS.toNanos (Long.parseLong (option (options, "rampup", "10")));
+      this.durationNanos = TimeUnit.SECONDS.toNanos (Long.parseLong (option (options, "duration", "60")));
+      this.thinkNanos = TimeUnit.MILLISECONDS.toNanos (Long.parseLong (option (options, "think", "100")));
+      double rate = Double.parseDouble (option (options, "rate", "0"));
+      this.intervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+      this.seed = Long.parseLong (option (options, "seed", "1"));
+      this.result = new File (option (options, "out", "load.json"));
+      this.mixText = option (options, "mix", DEFAULT_MIX);
+      if (!options.isEmpty ())
+         throw new IllegalArgumentException ("Unknown options " + options.keySet ());
+      if (clients < 1 || durationNanos <= 0 || rampupNanos < 0 || thinkNanos < 0 || rate < 0)
+         throw new IllegalArgumentException ("clients and duration must be positive, the rest not negative");
+
+      this.mix = mix (mixText);
+      for (int i = 0; i < stats.length; ++i)
+         stats[i] = new Stats ();
+      readKeys (dataDir);
+   }//end LoadDriver
+
+   /**
+    * Runs the clients for the ramp-up and the duration, then writes the
+    * result file.
+    *
+    * @return the operations per second measured
+    */
+   public double run () throws Exception {
+      ExecutorService threads = newClientExecutor ();
+      long start = System.nanoTime ();
+      measureFrom = start + rampupNanos;
+      measureTo = measureFrom + durationNanos;
+      try {
+         for (int c = 0; c < clients; ++c) {
+            final int client = c;
+            final long begin = start + rampupNanos * c / clients;
+            threads.execute (() -> client (client, begin));
+         }//end for
+      } finally {
+         threads.shutdown ();
+      }//end try
+      // the clients stop at measureTo; an operation still running after a minute is abandoned
+      if (!threads.awaitTermination (rampupNanos + durationNanos + TimeUnit.MINUTES.toNanos (1),
+                                     TimeUnit.NANOSECONDS)) {
+         System.err.println ("Some clients did not finish in time");
+         threads.shutdownNow ();
+      }//end if
+
+      double secs = durationNanos / 1e9;
+      LatencyHistogram all = new LatencyHistogram ();
+      long errors = 0;
+      for (Stats s : stats) {
+         all.add (s.latency);
+         errors += s.errors.sum ();
+      }//end for
+      print (System.out, secs, all, errors);
+      write (secs, all, errors);
+      return all.getCount () / secs;
+   }//end run
+
+   /*
+    * One client, until the end of the measurement.
+    */
+   private void client (int client, long begin) {
+      SplittableRandom r = new SplittableRandom (seed * 1000003 + client);
+      // a stream per client, so that clients do not wait for each other's output
+      PrintStream out = new PrintStream (new OutputStream () {
+         public void write (int b) {
+         }
+
+         public void write (byte[] b, int off, int len) {
+         }
+      });
+      sleepUntil (begin);
+      while (true) {
+         long due = System.nanoTime ();
+         if (intervalNanos > 0) {
+            due = measureFrom - rampupNanos + slot.getAndIncrement () * intervalNanos;
+            sleepUntil (due);
+         }//end if
+         if (due >= measureTo)
+            return;
+
+         int op = mix[r.nextInt (mix.length)];
+         Stats s = stats[op];
+         try {
+            run (op, r, out);
+            if (due >= measureFrom)
+               s.latency.record (System.nanoTime () - due);
+         } catch (SQLException | RuntimeException e) {
+            if (due >= measureFrom) {
+               s.latency.record (System.nanoTime () - due);
+               s.errors.increment ();
+               s.lastError = e.getMessage ();
+            }//end if
+         }//end try
+
+         if (thinkNanos > 0)
+            sleepUntil (System.nanoTime () + (long) (-Math.log (1 - r.nextDouble ()) * thinkNanos));
+      }//end while
+   }//end client
+
+   private void run (int op, SplittableRandom r, PrintStream out) throws SQLException {
+      switch (OPERATIONS[op]) {
+         case "book": {
+            int[] room = rooms.get (r.nextInt (rooms.size ()));
+            String[] customer = customers.get (r.nextInt (customers.size ()));
+            String day = date (LocalDate.of (2030, 1, 1).toEpochDay () + r.nextInt (365 * 20));
+            ops.bookRoom (Integer.parseInt (customer[0]), room[0], room[1], day, 1 + r.nextInt (4),
+                          BigDecimal.valueOf (10000 + r.nextInt (190000), 2));
+            break;
+         }
+         case "repair": {
+            int[] room = rooms.get (r.nextInt (rooms.size ()));
+            ops.addRepair (room[0], room[1], companies.get (r.nextInt (companies.size ())), day (r), "load test",
+                           "Small");
+            break;
+         }
+         case "available":
+            ops.numberOfAvailableRooms (hotels.get (r.nextInt (hotels.size ())), out);
+            break;
+         case "week":
+            ops.listHotelRoomBookingsForAWeek (hotels.get (r.nextInt (hotels.size ())), day (r), out);
+            break;
+         case "toprooms": {
+            long from = firstDay + r.nextLong (lastDay - firstDay + 1);
+            ops.topKHighestRoomPriceForADateRange (date (from), date (Math.min (lastDay, from + 30)), 10, out);
+            break;
+         }
+         case "topcustomer": {
+            String[] customer = customers.get (r.nextInt (customers.size ()));
+            ops.topKHighestPriceBookingsForACustomer (customer[1], customer[2], 10, out);
+            break;
+         }
+         default:
+            ops.topKMaintenanceCompany (10, out);
+      }//end switch
+   }//end run
+
+   private String day (SplittableRandom r) {
+      return date (firstDay + r.nextLong (lastDay - firstDay + 1));
+   }//end day
+
+   private static String date (long epochDay) {
+      LocalDate d = LocalDate.ofEpochDay (epochDay);
+      return String.format ("%02d/%02d/%04d", d.getMonthValue (), d.getDayOfMonth (), d.getYear ());
+   }//end date
+
+   private static void sleepUntil (long nanoTime) {
+      long wait;
+      while ((wait = nanoTime - System.nanoTime ()) > 0) {
+         try {
+            TimeUnit.NANOSECONDS.sleep (wait);
+         } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+            return;
+         }//end try
+      }//end while
+   }//end sleepUntil
+
+   private void print (PrintStream out, double secs, LatencyHistogram all, long errors) {
+      out.printf ("%-14s %10s %10s %8s %10s %10s %10s %10s %10s%n",
+                  "operation", "count", "ops/s", "errors", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+      for (int i = 0; i < OPERATIONS.length; ++i)
+         if (stats[i].latency.getCount () > 0)
+            print (out, OPERATIONS[i], secs, stats[i].latency, stats[i].errors.sum ());
+      print (out, "all", secs, all, errors);
+      for (int i = 0; i < OPERATIONS.length; ++i)
+         if (stats[i].lastError != null)
+            out.println (OPERATIONS[i] + " error: " + stats[i].lastError);
+   }//end print
+
+   private static void print (PrintStream out, String name, double secs, LatencyHistogram h, long errors) {
+      out.printf ("%-14s %10d %10.1f %8d %10d %10d %10d %10d %10d%n", name, h.getCount (), h.getCount () / secs,
+                  errors, micros (h.getValueAtPercentile (50)), micros (h.getValueAtPercentile (90)),
+                  micros (h.getValueAtPercentile (99)), micros (h.getValueAtPercentile (99.9)), micros (h.getMax ()));
+   }//end print
+
+   /*
+    * The result as JSON, one object per operation with its latency
+    * percentiles in microseconds.
+    */
+   private void write (double secs, LatencyHistogram all, long errors) throws IOException {
+      try (PrintWriter out = new PrintWriter (new OutputStreamWriter (new FileOutputStream (result),
+                                                                      StandardCharsets.UTF_8))) {
+         out.println ("{");
+         out.printf ("  \"engine\": \"%s\",%n", engine);
+         out.printf ("  \"clients\": %d,%n", clients);
+         out.printf ("  \"rampupSeconds\": %d,%n", TimeUnit.NANOSECONDS.toSeconds (rampupNanos));
+         out.printf ("  \"durationSeconds\": %d,%n", TimeUnit.NANOSECONDS.toSeconds (durationNanos));
+         out.printf ("  \"thinkMs\": %d,%n", TimeUnit.NANOSECONDS.toMillis (thinkNanos));
+         out.printf ("  \"targetRate\": %.1f,%n", intervalNanos > 0 ? 1e9 / intervalNanos : 0.0);
+         out.printf ("  \"mix\": \"%s\",%n", mixText);
+         out.printf ("  \"seed\": %d,%n", seed);
+         out.println ("  \"operations\": {");
+         for (int i = 0; i < OPERATIONS.length; ++i)
+            if (stats[i].latency.getCount () > 0)
+               out.printf ("    \"%s\": %s,%n", OPERATIONS[i], json (secs, stats[i].latency, stats[i].errors.sum ()));
+         out.println ("    \"all\": " + json (secs, all, errors));
+         out.println ("  }");
+         out.println ("}");
+      }//end try
+      System.out.println ("Wrote " + result);
+   }//end write
+
+   private static String json (double secs, LatencyHistogram h, long errors) {
+      return String.format ("{\"count\": %d, \"errors\": %d, \"errorRate\": %.6f, \"throughput\": %.2f, " +
+                            "\"latencyUs\": {\"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, " +
+                            "\"p99.9\": %d, \"p99.99\": %d, \"max\": %d}}",
+                            h.getCount (), errors, h.getCount () == 0 ? 0.0 : (double) errors / h.getCount (),
+                            h.getCount () / secs, h.getMean () / 1000, micros (h.getValueAtPercentile (50)),
+                            micros (h.getValueAtPercentile (90)), micros (h.getValueAtPercentile (99)),
+                            micros (h.getValueAtPercentile (99.9)), micros (h.getValueAtPercentile (99.99)),
+                            micros (h.getMax ()));
+   }//end json
+
+   private static long micros (long nanos) {
+      return TimeUnit.NANOSECONDS.toMicros (nanos);
+   }//end micros
+
+   /*
+    * Spreads the weights of "op:weight,..." over the slots of an array.
+    */
+   private static int[] mix (String text) {
+      List<Integer> slots = new ArrayList<> ();
+      for (String part : text.split (",")) {
+         String[] kv = part.trim ().split (":");
+         int op = -1;
+         for (int i = 0; i < OPERATIONS.length; ++i)
+            if (OPERATIONS[i].equals (kv[0]))
+               op = i;
+         if (op < 0 || kv.length != 2)
+            throw new IllegalArgumentException ("Not an operation:weight of " + String.join (", ", OPERATIONS) +
+                                                ": " + part);
+         for (int w = Integer.parseInt (kv[1]); w > 0; --w)
+            slots.add (op);
+      }//end for
+      if (slots.isEmpty ())
+         throw new IllegalArgumentException ("The mix has no weight");
+      int[] mix = new int[slots.size ()];
+      for (int i = 0; i < mix.length; ++i)
+         mix[i] = slots.get (i);
+      return mix;
+   }//end mix
+
+   private void readKeys (File dir) throws IOException {
+      for (String[] row : csv (new File (dir, "room.csv")))
+         rooms.add (new int[] { Integer.parseInt (row[0]), Integer.parseInt (row[1]) });
+      for (String[] row : csv (new File (dir, "hotel.csv")))
+         hotels.add (Integer.parseInt (row[0]));
+      for (String[] row : csv (new File (dir, "customer.csv")))
+         customers.add (new String[] { row[0], row[1], row[2] });
+      for (String[] row : csv (new File (dir, "maintenanceCompany.csv")))
+         companies.add (Integer.parseInt (row[0]));
+      firstDay = Long.MAX_VALUE;
+      lastDay = Long.MIN_VALUE;
+      for (String[] row : csv (new File (dir, "booking.csv"))) {
+         String[] mdy = row[4].split ("/");
+         long day = LocalDate.of (Integer.parseInt (mdy[2]), Integer.parseInt (mdy[0]), Integer.parseInt (mdy[1]))
+                             .toEpochDay ();
+         firstDay = Math.min (firstDay, day);
+         lastDay = Math.max (lastDay, day);
+      }//end for
+      if (rooms.isEmpty () || hotels.isEmpty () || customers.isEmpty () || companies.isEmpty () || firstDay > lastDay)
+         throw new IOException (dir + " has too few rows to drive load");
+   }//end readKeys
+
+   /*
+    * The rows of a csv file after the placeholder row 0, at most a million.
+    */
+   private static List<String[]> csv (File file) throws IOException {
+      List<String[]> rows = new ArrayList<> ();
+      try (BufferedReader in = new BufferedReader (new InputStreamReader (new FileInputStream (file),
+                                                                          StandardCharsets.UTF_8))) {
+         String line = in.readLine ();
+         while ((line = in.readLine ()) != null && rows.size () < 1000000)
+            if (!line.isEmpty ())
+               rows.add (line.split (",", -1));
+      }//end try
+      return rows;
+   }//end csv
+
+   private static String option (Map<String, String> options, String name, String otherwise) {
+      String value = options.remove (name);
+      return value == null ? otherwise : value;
+   }//end option
+
+   /*
+    * Executors.newVirtualThreadPerTaskExecutor where it exists, looked up
+    * so that this compiles for older JVMs too.
+    */
+   static ExecutorService newClientExecutor () {
+      try {
+         return (ExecutorService) Executors.class.getMethod ("newVirtualThreadPerTaskExecutor").invoke (null);
+      } catch (ReflectiveOperationException e) {
+         System.err.println ("No virtual threads in this JVM, running the clients on platform threads");
+         return Executors.newCachedThreadPool ();
+      }//end try
+   }//end newClientExecutor
+
+   public static void main (String[] args) {
+      boolean memory = args.length >= 2 && "-memory".equals (args[0]);
+      int first = memory ? 2 : 4;
+      if (args.length < first) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + LoadDriver.class.getName () +
+                             " <dbname> <port> <user> <dataDir> [option=value ...]\n" +
+                             "       java [-classpath <classpath>] " + LoadDriver.class.getName () +
+                             " -memory <dataDir> [option=value ...]\n" +
+                             "Options: clients= rampup= duration= think= rate= mix= seed= out=");
+         return;
+      }//end if
+      Map<String, String> options = new LinkedHashMap<> ();
+      for (int i = first; i < args.length; ++i) {
+         int eq = args[i].indexOf ('=');
+         if (eq <= 0) {
+            System.err.println ("Not an option=value: " + args[i]);
+            return;
+         }//end if
+         options.put (args[i].substring (0, eq), args[i].substring (eq + 1));
+      }//end for
+
+      DBProject esql = null;
+      Metrics metrics = null;
+      try {
+         File dataDir = new File (args[first - 1]);
+         HotelOperations ops;
+         if (memory) {
+            metrics = new Metrics ("memory", null);
+            metrics.start ();
+            ops = new MeteredOperations (MemoryOperations.load (dataDir), metrics);
+         } else {
+            Class.forName ("org.postgresql.Driver");
+            esql = new DBProject (args[0], args[1], args[2], "");
+            ops = esql.getOperations ();
+         }//end if
+         new LoadDriver (ops, memory ? "memory" : "postgres", dataDir, options).run ();
+      } catch (Exception e) {
+         System.err.println ("Error - Load run failed: " + e.getMessage ());
+         System.exit (1);
+      } finally {
+         if (esql != null)
+            esql.cleanup ();
+         if (metrics != null)
+            metrics.close ();
+      }//end try
+   }//end main
+
+}//end LoadDriver
@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+
+/**
+ * A hash map from long keys to non-negative int values, with open
+ * addressing (linear probing) over two primitive arrays, so that neither
+ * keys nor values are boxed.  get returns -1 for a missing key.  Entries
+ * cannot be removed.  Not thread safe.
+ *
+ */
+public class LongIntMap {
+
+   /** What get returns for a key that is not in the map. */
+   public static final int NONE = -1;
+
+   private long[] keys;
+   // NONE marks a free slot
+   private int[] values;
+   private int size;
+
+   public LongIntMap () {
+      this (16);
+   }//end LongIntMap
+
+   /**
+    * @param expected the number of keys held without resizing
+    */
+   public LongIntMap (int expected) {
+      int n = Integer.highestOneBit (Math.max (4, expected * 2 - 1)) << 1;
+      keys = new long[n];
+      values = new int[n];
+      Arrays.fill (values, NONE);
+   }//end LongIntMap
+
+   /**
+    * @return the value of key, or NONE
+    */
+   public int get (long key) {
+      int mask = keys.length - 1;
+      for (int i = slot (key, mask); values[i] != NONE; i = (i + 1) & mask)
+         if (keys[i] == key)
+            return values[i];
+      return NONE;
+   }//end get
+
+   public boolean containsKey (long key) {
+      return get (key) != NONE;
+   }//end containsKey
+
+   /**
+    * Sets the value of key, replacing any value it had.
+    *
+    * @param value a value of at least 0
+    */
+   public void put (long key, int value) {
+      if (value < 0)
+         throw new IllegalArgumentException ("negative value " + value);
+      int mask = keys.length - 1;
+      int i = slot (key, mask);
+      for (; values[i] != NONE; i = (i + 1) & mask) {
+         if (keys[i] == key) {
+            values[i] = value;
+            return;
+         }//end if
+      }//end for
+      keys[i] = key;
+      values[i] = value;
+      // keep at most half of the slots full
+      if (++size * 2 > keys.length)
+         resize ();
+   }//end put
+
+   public int size () {
+      return size;
+   }//end size
+
+   /**
+    * @return the bytes the two arrays take
+    */
+   public long memoryUsage () {
+      return 32 + 12L * keys.length;
+   }//end memoryUsage
+
+   private void resize () {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new int[oldValues.length * 2];
+      Arrays.fill (values, NONE);
+      size = 0;
+      for (int i = 0; i < oldKeys.length; ++i)
+         if (oldValues[i] != NONE)
+            put (oldKeys[i], oldValues[i]);
+   }//end resize
+
+   private static int slot (long key, int mask) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+   }//end slot
+
+}//end LongIntMap
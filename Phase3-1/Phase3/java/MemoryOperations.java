@@ -0,0 +1,645 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The operations run against tables held in this process, loaded from the
+ * data/*.csv files, for timing a workload without a database server and
+ * for running where there is none.  Nothing is written back.
+ *
+ * Room, booking and repair are held in a ColumnStore, the other tables as
+ * the few columns the operations read, all as primitive arrays indexed by
+ * row number, with these indexes on top:
+ *
+ *    hash      primary keys, and (hotelID, roomNo) of rooms, in LongIntMaps
+ *    chains    the rows sharing a key (the bookings of a hotel, of a room,
+ *              of a customer; the repairs of a room, of a company; the
+ *              customers of a name) as a head per key and a next-row array
+ *    range     the bookings ordered by day, for date range reports
+ *
+ * Reports print exactly what the DBProject versions print, in the same
+ * order, and inserts check what the schema checks (keys, foreign keys, not
+ * null, lengths, the booking_no_overlap constraint) with the same SQLState.
+ * Ids come from the largest loaded key plus one, as sequences.sql seeds the
+ * sequences, and are used up by failed inserts at the same points.  All
+ * methods are synchronized.
+ *
+ */
+public class MemoryOperations implements HotelOperations {
+
+   private static final int NONE = LongIntMap.NONE;
+   // a dictionary column has no code left for another value
+   private static final String PROGRAM_LIMIT_EXCEEDED = "54000";
+
+   /*
+    * The rows of each key, newest first: first(key), then next[row] until
+    * NONE.
+    */
+   private static final class Chains {
+      final LongIntMap heads = new LongIntMap ();
+      int[] next = new int[16];
+
+      void add (long key, int row) {
+         if (row >= next.length)
+            next = Arrays.copyOf (next, Math.max (row + 1, next.length * 2));
+         next[row] = heads.get (key);
+         heads.put (key, row);
+      }//end add
+
+      int first (long key) {
+         return heads.get (key);
+      }//end first
+   }//end Chains
+
+   // hotel and staff are only ever referred to
+   private final LongIntMap hotels = new LongIntMap ();
+   private final LongIntMap staff = new LongIntMap ();
+
+   // room
+   private final ColumnStore.Rooms room = new ColumnStore.Rooms ();
+   private final LongIntMap roomByKey = new LongIntMap ();
+   private final Chains roomsOfHotel = new Chains ();
+   // next roomNo handed out per hotel, once asked for
+   private final LongIntMap nextRoomNo = new LongIntMap ();
+
+   // customer
+   private int customers;
+   private int[] customerID = new int[16];
+   private final LongIntMap customerByID = new LongIntMap ();
+   // normalized "fName\u0000lName" to the newest row, chained like Chains
+   private final Map<String, Integer> customerByName = new HashMap<>();
+   private int[] customerNext = new int[16];
+
+   // maintenancecompany
+   private int companies;
+   private int[] companyID = new int[16];
+   private String[] companyName = new String[16];
+   private int[] companyRepairs = new int[16];
+   private final LongIntMap companyByID = new LongIntMap ();
+
+   // booking, without a bID index: bIDs come from nextBooking, above every
+   // loaded one, so they cannot collide
+   private final ColumnStore.Bookings booking = new ColumnStore.Bookings ();
+   private final Chains bookingsOfHotel = new Chains ();
+   private final Chains bookingsOfRoom = new Chains ();
+   private final Chains bookingsOfCustomer = new Chains ();
+
+   // repair
+   private final ColumnStore.Repairs repair = new ColumnStore.Repairs ();
+   private final LongIntMap repairByID = new LongIntMap ();
+   private final Chains repairsOfCompany = new Chains ();
+   private final Chains repairsOfRoom = new Chains ();
+
+   // next id of each table
+   private int nextCustomer = 1, nextCompany = 1, nextBooking = 1, nextRepair = 1;
+   private int nextRequest = 1, nextAssigned = 1;
+
+   /**
+    * Reads the nine csv files of a directory, in the text format of COPY
+    * with ',' as the delimiter and \N for null, e.g. Phase3/data.
+    *
+    * @param dir the directory holding hotel.csv, staff.csv and the others
+    * @return the loaded tables
+    * @throws java.io.IOException when a file cannot be read or a line not parsed
+    */
+   public static MemoryOperations load (File dir) throws IOException {
+      final MemoryOperations m = new MemoryOperations ();
+      read (new File (dir, "hotel.csv"), 3, f -> m.hotels.put (integer (f[0]), 0));
+      read (new File (dir, "staff.csv"), 6, f -> m.staff.put (integer (f[0]), 0));
+      read (new File (dir, "room.csv"), 3, f -> m.insertRoom (integer (f[0]), integer (f[1]), f[2]));
+      read (new File (dir, "customer.csv"), 7, f -> m.insertCustomer (integer (f[0]), f[1], f[2]));
+      read (new File (dir, "maintenanceCompany.csv"), 4, f -> m.insertCompany (integer (f[0]), f[1]));
+      read (new File (dir, "booking.csv"), 7, f -> m.indexBooking (m.booking.append (integer (f[0]), integer (f[1]),
+                                                                                    integer (f[2]), integer (f[3]),
+                                                                                    epochDay (Row.parseDate (f[4])),
+                                                                                    Row.parseMoney (f[6]))));
+      // one sort instead of placing every loaded booking
+      m.booking.order ();
+      read (new File (dir, "repair.csv"), 7, f -> m.insertRepair (integer (f[0]), integer (f[1]), integer (f[2]),
+                                                                  integer (f[3]), epochDay (Row.parseDate (f[4])),
+                                                                  f[6]));
+      read (new File (dir, "request.csv"), 5, f -> m.nextRequest = Math.max (m.nextRequest, integer (f[0]) + 1));
+      read (new File (dir, "assigned.csv"), 4, f -> m.nextAssigned = Math.max (m.nextAssigned, integer (f[0]) + 1));
+      return m;
+   }//end load
+
+   public synchronized int addCustomer (String fName, String lName, String address, Long phNo, String dob,
+                                        String gender) throws SQLException {
+      int id = nextCustomer++;
+      notNull ("fname", fName);
+      notNull ("lname", lName);
+      fits (fName, 30);
+      fits (lName, 30);
+      if (dob != null)
+         date (dob);
+      if (gender != null && !gender.equals ("Male") && !gender.equals ("Female") && !gender.equals ("Other"))
+         throw new SQLException ("invalid input value for enum gendertype: \"" + gender + "\"", "22P02");
+      unique (customerByID, id, "customer");
+      insertCustomer (id, fName, lName);
+      return id;
+   }//end addCustomer
+
+   public synchronized int addRoom (int hotelID, String roomType) throws SQLException {
+      int no = nextRoomNo.get (hotelID);
+      if (no == NONE) {
+         no = 1;
+         for (int r = roomsOfHotel.first (hotelID); r != NONE; r = roomsOfHotel.next[r])
+            no = Math.max (no, room.no[r] + 1);
+      }//end if
+      nextRoomNo.put (hotelID, no + 1);
+      notNull ("roomtype", roomType);
+      fits (roomType, 10);
+      if (!hotels.containsKey (hotelID))
+         throw new SQLException ("Hotel " + hotelID + " does not exist", ReferenceFilter.FOREIGN_KEY_VIOLATION);
+      try {
+         insertRoom (hotelID, no, roomType);
+      } catch (IllegalStateException e) {
+         throw new SQLException ("roomtype: " + e.getMessage (), PROGRAM_LIMIT_EXCEEDED);
+      }//end try
+      return no;
+   }//end addRoom
+
+   public synchronized int addMaintenanceCompany (String name, String address, boolean isCertified)
+         throws SQLException {
+      int id = nextCompany++;
+      notNull ("name", name);
+      fits (name, 30);
+      unique (companyByID, id, "maintenancecompany");
+      insertCompany (id, name);
+      return id;
+   }//end addMaintenanceCompany
+
+   public synchronized int addRepair (int hotelID, int roomNo, int mCompany, String repairDate,
+                                      String description, String repairType) throws SQLException {
+      checkRoom (hotelID, roomNo);
+      int id = nextRepair++;
+      notNull ("repairdate", repairDate);
+      int day = date (repairDate);
+      if (repairType != null)
+         fits (repairType, 10);
+      if (!companyByID.containsKey (mCompany))
+         throw new SQLException ("Maintenance company " + mCompany + " does not exist",
+                                 ReferenceFilter.FOREIGN_KEY_VIOLATION);
+      unique (repairByID, id, "repair");
+      try {
+         insertRepair (id, hotelID, roomNo, mCompany, day, repairType);
+      } catch (IllegalStateException e) {
+         throw new SQLException ("repairtype: " + e.getMessage (), PROGRAM_LIMIT_EXCEEDED);
+      }//end try
+      return id;
+   }//end addRepair
+
+   public synchronized int bookRoom (int customer, int hotelID, int roomNo, String bookingDate,
+                                     Integer noOfPeople, BigDecimal price) throws SQLException {
+      // checked before the bID is taken, in the order DBProject.bookRoom checks them
+      notNull ("bookingdate", bookingDate);
+      int day = date (bookingDate);
+      notNull ("price", price);
+      // Numeric(6,2)
+      long cents = Row.parseMoney (price.toPlainString ());
+      if (Math.abs (cents) >= 1000000)
+         throw new SQLException ("numeric field overflow", "22003");
+      if (!customerByID.containsKey (customer))
+         throw new SQLException ("Customer " + customer + " does not exist", ReferenceFilter.FOREIGN_KEY_VIOLATION);
+      checkRoom (hotelID, roomNo);
+      int id = nextBooking++;
+      for (int b = bookingsOfRoom.first (key (hotelID, roomNo)); b != NONE; b = bookingsOfRoom.next[b])
+         if (booking.day[b] == day)
+            throw new SQLException ("Room " + roomNo + " of hotel " + hotelID + " is already booked on " +
+                                    LocalDate.ofEpochDay (day), BookingGuard.EXCLUSION_VIOLATION);
+      indexBooking (booking.insert (id, customer, hotelID, roomNo, day, cents));
+      return id;
+   }//end bookRoom
+
+   public synchronized int assignHouseCleaningToRoom (int SSN, int hotelID, int roomNo) throws SQLException {
+      checkStaff (SSN);
+      checkRoom (hotelID, roomNo);
+      return nextAssigned++;
+   }//end assignHouseCleaningToRoom
+
+   public synchronized int repairRequest (int managerID, int repairID, String requestDate, String description)
+         throws SQLException {
+      checkStaff (managerID);
+      if (!repairByID.containsKey (repairID))
+         throw new SQLException ("Repair " + repairID + " does not exist", ReferenceFilter.FOREIGN_KEY_VIOLATION);
+      int id = nextRequest++;
+      notNull ("requestdate", requestDate);
+      date (requestDate);
+      return id;
+   }//end repairRequest
+
+   public synchronized void numberOfAvailableRooms (int hotelID, PrintStream out) {
+      int count = 0;
+      for (int r = roomsOfHotel.first (hotelID); r != NONE; r = roomsOfHotel.next[r])
+         if (room.no[r] >= 0 && bookingsOfRoom.first (key (hotelID, room.no[r])) == NONE)
+            ++count;
+
+      if (count > 0) {
+         out.println("Number of available rooms for hotel " + hotelID + " is " + count);
+      } else {
+         out.println("No available rooms found for hotel " + hotelID);
+      }
+   }//end numberOfAvailableRooms
+
+   public synchronized void numberOfAvailableRooms (int hotelID, String from, String to, PrintStream out) {
+      LocalDate first = Row.parseDate(from), last = Row.parseDate(to);
+      if (last.isBefore(first)) {
+         throw new IllegalArgumentException("The last date is before the first date");
+      }
+      long d1 = first.toEpochDay (), d2 = last.toEpochDay ();
+      int count = 0;
+      for (int r = roomsOfHotel.first (hotelID); r != NONE; r = roomsOfHotel.next[r]) {
+         if (room.no[r] < 0)
+            continue;
+         boolean free = true;
+         for (int b = bookingsOfRoom.first (key (hotelID, room.no[r])); b != NONE && free; b = bookingsOfRoom.next[b])
+            free = booking.day[b] < d1 || booking.day[b] > d2;
+         if (free)
+            ++count;
+      }//end for
+
+      String days = first.equals(last) ? " on " + from : " from " + from + " to " + to;
+      if (count > 0) {
+         out.println("Number of available rooms for hotel " + hotelID + days + " is " + count);
+      } else {
+         out.println("No available rooms found for hotel " + hotelID + days);
+      }
+   }//end numberOfAvailableRooms
+
+   public synchronized void numberOfBookedRooms (int hotelID, PrintStream out) {
+      int count = 0;
+      for (int b = bookingsOfHotel.first (hotelID); b != NONE; b = bookingsOfHotel.next[b])
+         ++count;
+      if (count > 0) {
+         out.println ("Number of rooms booked for hotel " + hotelID + " is "  + count);
+      } else {
+         out.println("No bookings found for hotel " + hotelID);
+      }
+   }//end numberOfBookedRooms
+
+   public synchronized void listHotelRoomBookingsForAWeek (int hotelID, String date, PrintStream out) {
+      LocalDate start = Row.parseDate(date);
+      long d1 = start.toEpochDay (), d2 = d1 + 6;
+      List<Integer> week = new ArrayList<>();
+      for (int b = bookingsOfHotel.first (hotelID); b != NONE; b = bookingsOfHotel.next[b])
+         if (booking.day[b] >= d1 && booking.day[b] <= d2)
+            week.add (b);
+      week.sort ((a, b) -> booking.day[a] != booking.day[b] ? Integer.compare (booking.day[a], booking.day[b])
+                                                            : Integer.compare (booking.id[a], booking.id[b]));
+
+      if (!week.isEmpty()) {
+         out.println("\nThe bookings, for hotel " + hotelID + " starting at " + date + ", for the week is:");
+      }
+      for (int b : week) {
+         out.println("Room " + booking.room[b] + " Booking Date: " + LocalDate.ofEpochDay(booking.day[b]));
+      }
+      if (week.isEmpty()) {
+         out.println("No bookings for the given week at the hotel " + hotelID + ".");
+      }
+   }//end listHotelRoomBookingsForAWeek
+
+   public synchronized void topKHighestRoomPriceForADateRange (String startDate, String endDate, int K,
+                                                               PrintStream out) {
+      long d1 = Row.parseDate(startDate).toEpochDay (), d2 = Row.parseDate(endDate).toEpochDay ();
+      int from = booking.firstOnOrAfter (d1), to = d2 < d1 ? from : booking.firstOnOrAfter (d2 + 1);
+      int[] top = booking.top (booking.byDay, from, to, K);
+      if (top.length > 0) {
+         out.println("Top " + K + " highest-priced available rooms from " + startDate + " to " + endDate + ":");
+      }
+      for (int b : top) {
+         out.println("hotelID: " + booking.hotel[b] +
+                     ", RoomNo: " + booking.room[b] +
+                     ", Price: " + Row.formatMoney(booking.price[b]));
+      }
+      if (top.length == 0) {
+         out.println("No rooms available in the given date range");
+      }
+   }//end topKHighestRoomPriceForADateRange
+
+   public synchronized void topKHighestPriceBookingsForACustomer (String fname, String lname, int K,
+                                                                  PrintStream out) {
+      int[] theirs = new int[16];
+      int n = 0;
+      for (int c : customersNamed (fname, lname))
+         for (int b = bookingsOfCustomer.first (customerID[c]); b != NONE; b = bookingsOfCustomer.next[b]) {
+            theirs = ColumnStore.grow (theirs, n);
+            theirs[n++] = b;
+         }//end for
+      int[] top = booking.top (theirs, 0, n, K);
+      if (top.length > 0) {
+         out.println("\nThe " + K + " highest booking price for " + fname + " " + lname + ":");
+      }
+      for (int b : top) {
+         out.println("Booking ID: " + booking.id[b] + ", Hotel ID: " + booking.hotel[b] + ", Room Number: " +
+                     booking.room[b] + ", Price: $" + Row.formatMoney(booking.price[b]));
+      }
+      if (top.length == 0) {
+         out.println("There are no bookings found for " + fname + " " + lname + ".");
+      }
+   }//end topKHighestPriceBookingsForACustomer
+
+   public synchronized void totalCostForCustomer (int hotelID, String fname, String lname, String brange,
+                                                  String erange, PrintStream out) {
+      List<Integer> named = customersNamed (fname, lname);
+      long totalCost = -1;
+      if (!named.isEmpty ()) {
+         long d1 = Row.parseDate(brange).toEpochDay (), d2 = Row.parseDate(erange).toEpochDay ();
+         // the bookings of the customers are fewer than those of the hotel
+         for (int c : named)
+            for (int b = bookingsOfCustomer.first (customerID[c]); b != NONE; b = bookingsOfCustomer.next[b])
+               if (booking.hotel[b] == hotelID && booking.day[b] >= d1 && booking.day[b] <= d2)
+                  totalCost = Math.max (totalCost, 0) + booking.price[b];
+      }//end if
+
+      if (totalCost < 0) {
+         out.println("The customer had no cost for the week");
+      } else {
+         out.println("\nThe total cost for the customer " + fname + " " + lname + " is $" + Row.formatMoney(totalCost) +
+                     " at hotel " + hotelID + " with a date range of " + brange + " to " + erange);
+      }
+   }//end totalCostForCustomer
+
+   public synchronized void listRepairsMade (String name, PrintStream out) {
+      List<Integer> made = new ArrayList<>();
+      // m.name = ? compares the CHAR(30) name without its trailing blanks
+      for (int c = 0; c < companies; ++c)
+         if (name != null && name.equals (companyName[c]))
+            for (int r = repairsOfCompany.first (companyID[c]); r != NONE; r = repairsOfCompany.next[r])
+               made.add (r);
+      made.sort ((a, b) -> repair.day[a] != repair.day[b] ? Integer.compare (repair.day[b], repair.day[a])
+                                                          : Integer.compare (repair.id[a], repair.id[b]));
+
+      if (!made.isEmpty()) {
+         out.println ("Repairs done by " + name + ":");
+      }
+      for (int r : made) {
+         out.println("RepairType: " + (repair.type(r) == null ? null : repair.type(r).trim()) +
+                     ", HotelID: " + repair.hotel[r] + ", RoomNo: " + repair.room[r]);
+      }
+      if (made.isEmpty()) {
+         out.println("No repairs found for " + name);
+      }
+   }//end listRepairsMade
+
+   public synchronized void topKMaintenanceCompany (int K, PrintStream out) {
+      List<Integer> ranked = new ArrayList<>();
+      for (int c = 0; c < companies; ++c)
+         if (companyRepairs[c] > 0)
+            ranked.add (c);
+      ranked.sort ((a, b) -> companyRepairs[a] != companyRepairs[b]
+                             ? Integer.compare (companyRepairs[b], companyRepairs[a])
+                             : Integer.compare (companyID[a], companyID[b]));
+      List<Integer> top = ranked.subList (0, Math.min (Math.max (K, 0), ranked.size ()));
+      if (!top.isEmpty()) {
+         out.println("cmpid\tname\ttotalrepairs\t");
+      }
+      for (int c : top) {
+         out.println(companyID[c] + "\t" + String.format("%-30s", companyName[c].trim()) + "\t" + companyRepairs[c] + "\t");
+      }
+   }//end topKMaintenanceCompany
+
+   public synchronized void numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, PrintStream out) {
+      Map<Integer, Integer> years = new HashMap<>();
+      for (int r = repairsOfRoom.first (key (hotelID, roomNo)); r != NONE; r = repairsOfRoom.next[r])
+         years.merge (LocalDate.ofEpochDay (repair.day[r]).getYear (), 1, Integer::sum);
+      List<Integer> order = new ArrayList<>(years.keySet ());
+      order.sort ((a, b) -> Integer.compare (b, a));
+      if (!order.isEmpty()) {
+         out.println("year\trepaircount\t");
+      }
+      for (int y : order) {
+         out.println(y + "\t" + years.get (y) + "\t");
+      }
+   }//end numberOfRepairsForEachRoomPerYear
+
+   public synchronized void roomsWithMostRepairs (int hotelID, int year, int K, PrintStream out) {
+      final Map<Integer, Integer> counts = new HashMap<>();
+      if (year >= Year.MIN_VALUE && year <= Year.MAX_VALUE) {
+         // the year as a range of days, compared without making dates
+         long d1 = LocalDate.of (year, 1, 1).toEpochDay (), d2 = LocalDate.of (year, 12, 31).toEpochDay ();
+         for (int h = roomsOfHotel.first (hotelID); h != NONE; h = roomsOfHotel.next[h]) {
+            int n = 0;
+            for (int r = repairsOfRoom.first (key (hotelID, room.no[h])); r != NONE; r = repairsOfRoom.next[r])
+               n += repair.day[r] >= d1 && repair.day[r] <= d2 ? 1 : 0;
+            if (n > 0)
+               counts.merge (room.no[h], n, Integer::sum);
+         }//end for
+      }//end if
+      List<Integer> ranked = new ArrayList<>(counts.keySet ());
+      ranked.sort ((a, b) -> !counts.get (a).equals (counts.get (b)) ? Integer.compare (counts.get (b), counts.get (a))
+                                                                     : Integer.compare (a, b));
+      List<Integer> rooms = ranked.subList (0, Math.min (Math.max (K, 0), ranked.size ()));
+      if (rooms.isEmpty()) {
+         out.println("No repairs found for hotel " + hotelID + " in " + year);
+         return;
+      }
+      out.println("Rooms of hotel " + hotelID + " with the most repairs in " + year + ":");
+      for (int r : rooms) {
+         out.println("RoomNo: " + r + ", Repairs: " + counts.get (r));
+      }
+   }//end roomsWithMostRepairs
+
+   /**
+    * Nothing is cached apart from the tables themselves.
+    *
+    * @return 0
+    */
+   public int rebuild () {
+      return 0;
+   }//end rebuild
+
+   /**
+    * @return the bytes the room, booking and repair columns take
+    */
+   public synchronized long memoryUsage () {
+      return room.memoryUsage () + booking.memoryUsage () + repair.memoryUsage ();
+   }//end memoryUsage
+
+   /**
+    * @return the number of rows of each table held
+    */
+   public synchronized String toString () {
+      return String.format ("memory[hotels=%d, staff=%d, rooms=%d, customers=%d, companies=%d, bookings=%d, repairs=%d, " +
+                            "columns=%d KB]",
+                            hotels.size (), staff.size (), room.size, customers, companies, booking.size, repair.size,
+                            memoryUsage () >> 10);
+   }//end toString
+
+   /*
+    * The rows of the customers of a name, compared as CustomerResolver
+    * compares them.
+    */
+   private List<Integer> customersNamed (String fName, String lName) {
+      List<Integer> rows = new ArrayList<>();
+      Integer head = customerByName.get (nameKey (fName, lName));
+      for (int c = head == null ? NONE : head; c != NONE; c = customerNext[c])
+         rows.add (c);
+      return rows;
+   }//end customersNamed
+
+   private void insertRoom (int hotelID, int no, String type) {
+      int r = room.add (hotelID, no, type);
+      roomByKey.put (key (hotelID, no), r);
+      roomsOfHotel.add (hotelID, r);
+   }//end insertRoom
+
+   private void insertCustomer (int id, String fName, String lName) {
+      int c = customers++;
+      customerID = ColumnStore.grow (customerID, c);
+      customerNext = ColumnStore.grow (customerNext, c);
+      customerID[c] = id;
+      customerByID.put (id, c);
+      String name = nameKey (fName, lName);
+      Integer head = customerByName.get (name);
+      customerNext[c] = head == null ? NONE : head;
+      customerByName.put (name, c);
+      nextCustomer = Math.max (nextCustomer, id + 1);
+   }//end insertCustomer
+
+   private void insertCompany (int id, String name) {
+      int c = companies++;
+      companyID = ColumnStore.grow (companyID, c);
+      companyRepairs = ColumnStore.grow (companyRepairs, c);
+      if (c == companyName.length)
+         companyName = Arrays.copyOf (companyName, c * 2);
+      companyID[c] = id;
+      companyName[c] = stripTrailing (name);
+      companyByID.put (id, c);
+      nextCompany = Math.max (nextCompany, id + 1);
+   }//end insertCompany
+
+   /*
+    * Adds booking row b to the chains.
+    */
+   private void indexBooking (int b) {
+      bookingsOfHotel.add (booking.hotel[b], b);
+      bookingsOfRoom.add (key (booking.hotel[b], booking.room[b]), b);
+      bookingsOfCustomer.add (booking.customer[b], b);
+      nextBooking = Math.max (nextBooking, booking.id[b] + 1);
+   }//end indexBooking
+
+   private void insertRepair (int id, int hotelID, int roomNo, int company, int day, String type) {
+      int r = repair.add (id, hotelID, roomNo, company, day, type);
+      repairByID.put (id, r);
+      repairsOfCompany.add (company, r);
+      repairsOfRoom.add (key (hotelID, roomNo), r);
+      int c = companyByID.get (company);
+      if (c != NONE)
+         ++companyRepairs[c];
+      nextRepair = Math.max (nextRepair, id + 1);
+   }//end insertRepair
+
+   private void checkRoom (int hotelID, int no) throws SQLException {
+      if (!roomByKey.containsKey (key (hotelID, no)))
+         throw new SQLException ("Room " + no + " of hotel " + hotelID + " does not exist",
+                                 ReferenceFilter.FOREIGN_KEY_VIOLATION);
+   }//end checkRoom
+
+   private void checkStaff (int SSN) throws SQLException {
+      if (!staff.containsKey (SSN))
+         throw new SQLException ("Staff member " + SSN + " does not exist", ReferenceFilter.FOREIGN_KEY_VIOLATION);
+   }//end checkStaff
+
+   private static void notNull (String column, Object value) throws SQLException {
+      if (value == null)
+         throw new SQLException ("null value in column \"" + column + "\" violates not-null constraint", "23502");
+   }//end notNull
+
+   private static void fits (String value, int length) throws SQLException {
+      if (stripTrailing (value).length () > length)
+         throw new SQLException ("value too long for type character(" + length + ")", "22001");
+   }//end fits
+
+   private static void unique (LongIntMap keys, long key, String table) throws SQLException {
+      if (keys.containsKey (key))
+         throw new SQLException ("duplicate key value violates unique constraint \"" + table + "_pkey\"", "23505");
+   }//end unique
+
+   /*
+    * @return the days of date s since 1970-01-01
+    */
+   private static int date (String s) throws SQLException {
+      LocalDate d;
+      try {
+         d = Row.parseDate (s);
+      } catch (IllegalArgumentException e) {
+         throw new SQLException ("invalid input syntax for type date: \"" + s + "\"", "22007");
+      }//end try
+      return epochDay (d);
+   }//end date
+
+   /*
+    * The int a date column holds, as Postgres keeps a date in 4 bytes.
+    */
+   private static int epochDay (LocalDate d) throws SQLException {
+      long day = d.toEpochDay ();
+      if (day < Integer.MIN_VALUE || day > Integer.MAX_VALUE)
+         throw new SQLException ("date out of range: \"" + d + "\"", "22008");
+      return (int) day;
+   }//end epochDay
+
+   private static String nameKey (String fName, String lName) {
+      return CustomerResolver.normalize (fName) + '\u0000' + CustomerResolver.normalize (lName);
+   }//end nameKey
+
+   private static long key (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end key
+
+   private static String stripTrailing (String s) {
+      int end = s.length ();
+      while (end > 0 && s.charAt (end - 1) == ' ')
+         --end;
+      return s.substring (0, end);
+   }//end stripTrailing
+
+   /*
+    * Receives the fields of one line, null for \N.
+    */
+   private interface Line {
+      void accept (String[] fields) throws SQLException;
+   }//end Line
+
+   private static void read (File file, int columns, Line line) throws IOException {
+      try (BufferedReader in = new BufferedReader (new InputStreamReader (new FileInputStream (file),
+                                                                           StandardCharsets.UTF_8))) {
+         String text;
+         int lineNo = 0;
+         while ((text = in.readLine ()) != null) {
+            ++lineNo;
+            if (text.isEmpty ())
+               continue;
+            String[] f = text.split (",", -1);
+            if (f.length != columns)
+               throw new IOException (file + ":" + lineNo + ": expected " + columns + " fields but found " + f.length);
+            for (int i = 0; i < f.length; ++i)
+               if (f[i].equals ("\\N"))
+                  f[i] = null;
+            try {
+               line.accept (f);
+            } catch (RuntimeException | SQLException e) {
+               throw new IOException (file + ":" + lineNo + ": " + e.getMessage (), e);
+            }//end try
+         }//end while
+      }//end try
+   }//end read
+
+   private static int integer (String s) {
+      return Integer.parseInt (s.trim ());
+   }//end integer
+
+}//end MemoryOperations
@@ -0,0 +1,299 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+
+
+/**
+ * Times every call of another HotelOperations into the operation timers
+ * of a Metrics, by method name; the date-range form of
+ * numberOfAvailableRooms counts as numberOfAvailableRoomsForDates.  The
+ * timers are looked up once, so a call costs two System.nanoTime calls
+ * and a LatencyHistogram record on top of the operation.
+ *
+ */
+public class MeteredOperations implements HotelOperations {
+
+   private final HotelOperations ops;
+   private final Metrics metrics;
+   private final Metrics.Timer addCustomer;
+   private final Metrics.Timer addRoom;
+   private final Metrics.Timer addMaintenanceCompany;
+   private final Metrics.Timer addRepair;
+   private final Metrics.Timer bookRoom;
+   private final Metrics.Timer assignHouseCleaningToRoom;
+   private final Metrics.Timer repairRequest;
+   private final Metrics.Timer numberOfAvailableRooms;
+   private final Metrics.Timer availableForDates;
+   private final Metrics.Timer numberOfBookedRooms;
+   private final Metrics.Timer listHotelRoomBookingsForAWeek;
+   private final Metrics.Timer topKHighestRoomPriceForADateRange;
+   private final Metrics.Timer topKHighestPriceBookingsForACustomer;
+   private final Metrics.Timer totalCostForCustomer;
+   private final Metrics.Timer listRepairsMade;
+   private final Metrics.Timer topKMaintenanceCompany;
+   private final Metrics.Timer numberOfRepairsForEachRoomPerYear;
+   private final Metrics.Timer roomsWithMostRepairs;
+   private final Metrics.Timer rebuild;
+
+   public MeteredOperations (HotelOperations ops, Metrics metrics) {
+      this.ops = ops;
+      this.metrics = metrics;
+      this.addCustomer = metrics.operation ("addCustomer");
+      this.addRoom = metrics.operation ("addRoom");
+      this.addMaintenanceCompany = metrics.operation ("addMaintenanceCompany");
+      this.addRepair = metrics.operation ("addRepair");
+      this.bookRoom = metrics.operation ("bookRoom");
+      this.assignHouseCleaningToRoom = metrics.operation ("assignHouseCleaningToRoom");
+      this.repairRequest = metrics.operation ("repairRequest");
+      this.numberOfAvailableRooms = metrics.operation ("numberOfAvailableRooms");
+      this.availableForDates = metrics.operation ("numberOfAvailableRoomsForDates");
+      this.numberOfBookedRooms = metrics.operation ("numberOfBookedRooms");
+      this.listHotelRoomBookingsForAWeek = metrics.operation ("listHotelRoomBookingsForAWeek");
+      this.topKHighestRoomPriceForADateRange = metrics.operation ("topKHighestRoomPriceForADateRange");
+      this.topKHighestPriceBookingsForACustomer = metrics.operation ("topKHighestPriceBookingsForACustomer");
+      this.totalCostForCustomer = metrics.operation ("totalCostForCustomer");
+      this.listRepairsMade = metrics.operation ("listRepairsMade");
+      this.topKMaintenanceCompany = metrics.operation ("topKMaintenanceCompany");
+      this.numberOfRepairsForEachRoomPerYear = metrics.operation ("numberOfRepairsForEachRoomPerYear");
+      this.roomsWithMostRepairs = metrics.operation ("roomsWithMostRepairs");
+      this.rebuild = metrics.operation ("rebuild");
+   }//end MeteredOperations
+
+   /**
+    * @return the measurements
+    */
+   public Metrics getMetrics () {
+      return metrics;
+   }//end getMetrics
+
+   public int addCustomer (String fName, String lName, String address, Long phNo, String dob, String gender)
+         throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int key = ops.addCustomer (fName, lName, address, phNo, dob, gender);
+         addCustomer.record (start, 1, 0);
+         return key;
+      } catch (SQLException | RuntimeException e) {
+         addCustomer.failed (start);
+         throw e;
+      }//end try
+   }//end addCustomer
+
+   public int addRoom (int hotelID, String roomType) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int key = ops.addRoom (hotelID, roomType);
+         addRoom.record (start, 1, 0);
+         return key;
+      } catch (SQLException | RuntimeException e) {
+         addRoom.failed (start);
+         throw e;
+      }//end try
+   }//end addRoom
+
+   public int addMaintenanceCompany (String name, String address, boolean isCertified) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int key = ops.addMaintenanceCompany (name, address, isCertified);
+         addMaintenanceCompany.record (start, 1, 0);
+         return key;
+      } catch (SQLException | RuntimeException e) {
+         addMaintenanceCompany.failed (start);
+         throw e;
+      }//end try
+   }//end addMaintenanceCompany
+
+   public int addRepair (int hotelID, int roomNo, int mCompany, String repairDate, String description,
+                         String repairType)
+         throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int key = ops.addRepair (hotelID, roomNo, mCompany, repairDate, description, repairType);
+         addRepair.record (start, 1, 0);
+         return key;
+      } catch (SQLException | RuntimeException e) {
+         addRepair.failed (start);
+         throw e;
+      }//end try
+   }//end addRepair
+
+   public int bookRoom (int customer, int hotelID, int roomNo, String bookingDate, Integer noOfPeople, BigDecimal price)
+         throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int key = ops.bookRoom (customer, hotelID, roomNo, bookingDate, noOfPeople, price);
+         bookRoom.record (start, 1, 0);
+         return key;
+      } catch (SQLException | RuntimeException e) {
+         bookRoom.failed (start);
+         throw e;
+      }//end try
+   }//end bookRoom
+
+   public int assignHouseCleaningToRoom (int SSN, int hotelID, int roomNo) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int key = ops.assignHouseCleaningToRoom (SSN, hotelID, roomNo);
+         assignHouseCleaningToRoom.record (start, 1, 0);
+         return key;
+      } catch (SQLException | RuntimeException e) {
+         assignHouseCleaningToRoom.failed (start);
+         throw e;
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   public int repairRequest (int managerID, int repairID, String requestDate, String description)
+         throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int key = ops.repairRequest (managerID, repairID, requestDate, description);
+         repairRequest.record (start, 1, 0);
+         return key;
+      } catch (SQLException | RuntimeException e) {
+         repairRequest.failed (start);
+         throw e;
+      }//end try
+   }//end repairRequest
+
+   public void numberOfAvailableRooms (int hotelID, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.numberOfAvailableRooms (hotelID, out);
+         numberOfAvailableRooms.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         numberOfAvailableRooms.failed (start);
+         throw e;
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public void numberOfAvailableRooms (int hotelID, String from, String to, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.numberOfAvailableRooms (hotelID, from, to, out);
+         availableForDates.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         availableForDates.failed (start);
+         throw e;
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public void numberOfBookedRooms (int hotelID, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.numberOfBookedRooms (hotelID, out);
+         numberOfBookedRooms.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         numberOfBookedRooms.failed (start);
+         throw e;
+      }//end try
+   }//end numberOfBookedRooms
+
+   public void listHotelRoomBookingsForAWeek (int hotelID, String date, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.listHotelRoomBookingsForAWeek (hotelID, date, out);
+         listHotelRoomBookingsForAWeek.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         listHotelRoomBookingsForAWeek.failed (start);
+         throw e;
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   public void topKHighestRoomPriceForADateRange (String startDate, String endDate, int K, PrintStream out)
+         throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.topKHighestRoomPriceForADateRange (startDate, endDate, K, out);
+         topKHighestRoomPriceForADateRange.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         topKHighestRoomPriceForADateRange.failed (start);
+         throw e;
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   public void topKHighestPriceBookingsForACustomer (String fname, String lname, int K, PrintStream out)
+         throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.topKHighestPriceBookingsForACustomer (fname, lname, K, out);
+         topKHighestPriceBookingsForACustomer.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         topKHighestPriceBookingsForACustomer.failed (start);
+         throw e;
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   public void totalCostForCustomer (int hotelID, String fname, String lname, String brange, String erange,
+                                     PrintStream out)
+         throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.totalCostForCustomer (hotelID, fname, lname, brange, erange, out);
+         totalCostForCustomer.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         totalCostForCustomer.failed (start);
+         throw e;
+      }//end try
+   }//end totalCostForCustomer
+
+   public void listRepairsMade (String companyName, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.listRepairsMade (companyName, out);
+         listRepairsMade.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         listRepairsMade.failed (start);
+         throw e;
+      }//end try
+   }//end listRepairsMade
+
+   public void topKMaintenanceCompany (int K, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.topKMaintenanceCompany (K, out);
+         topKMaintenanceCompany.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         topKMaintenanceCompany.failed (start);
+         throw e;
+      }//end try
+   }//end topKMaintenanceCompany
+
+   public void numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.numberOfRepairsForEachRoomPerYear (hotelID, roomNo, out);
+         numberOfRepairsForEachRoomPerYear.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         numberOfRepairsForEachRoomPerYear.failed (start);
+         throw e;
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   public void roomsWithMostRepairs (int hotelID, int year, int K, PrintStream out) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         ops.roomsWithMostRepairs (hotelID, year, K, out);
+         roomsWithMostRepairs.record (start, 0, 0);
+      } catch (SQLException | RuntimeException e) {
+         roomsWithMostRepairs.failed (start);
+         throw e;
+      }//end try
+   }//end roomsWithMostRepairs
+
+   public int rebuild () throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         int wrong = ops.rebuild ();
+         rebuild.record (start, 0, 0);
+         return wrong;
+      } catch (SQLException | RuntimeException e) {
+         rebuild.failed (start);
+         throw e;
+      }//end try
+   }//end rebuild
+
+   public String toString () {
+      return ops.toString ();
+   }//end toString
+
+}//end MeteredOperations
@@ -0,0 +1,365 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Counts and times every hotel operation (see MeteredOperations) and every
+ * JDBC call of DBProject, by SQL text: calls, errors, rows, bytes decoded
+ * and a LatencyHistogram of the durations, plus the wait for a pooled
+ * connection and the errors by SQLState.  Recording is a few atomic
+ * increments, well under a microsecond, so it is always on.
+ *
+ * Each timer is an MXBean, DBProject:type=Operation|Statement|ConnectionPool,
+ * for jconsole and other JMX clients.  The same numbers in the Prometheus
+ * text format are written every dbproject.metrics.intervalSeconds (10) to
+ * the file -Ddbproject.metrics.file, and served on localhost at
+ * http://localhost:<port>/metrics with -Ddbproject.metrics.port.
+ *
+ */
+public class Metrics {
+
+   public interface TimerMXBean {
+      String getName ();
+      long getCount ();
+      long getErrors ();
+      long getRows ();
+      long getBytes ();
+      double getMeanMicros ();
+      long getP50Micros ();
+      long getP90Micros ();
+      long getP99Micros ();
+      long getMaxMicros ();
+   }//end TimerMXBean
+
+   public interface PoolMXBean {
+      int getActive ();
+      int getIdle ();
+      int getMaxSize ();
+      long getBorrowCount ();
+      long getTimeoutCount ();
+      long getWaitP50Micros ();
+      long getWaitP99Micros ();
+      long getWaitMaxMicros ();
+   }//end PoolMXBean
+
+   /**
+    * The measurements of one operation or SQL statement.
+    */
+   public static final class Timer implements TimerMXBean {
+      final String name;
+      final LatencyHistogram latency = new LatencyHistogram ();
+      final LongAdder errors = new LongAdder ();
+      final LongAdder rows = new LongAdder ();
+      final LongAdder bytes = new LongAdder ();
+
+      Timer (String name) {
+         this.name = name;
+      }//end Timer
+
+      /**
+       * @param start System.nanoTime () when the call started
+       * @param rowCount the rows returned or changed
+       * @param byteCount the bytes of the rows decoded
+       * @return the nanoseconds the call took
+       */
+      public long record (long start, long rowCount, long byteCount) {
+         long nanos = System.nanoTime () - start;
+         latency.record (nanos);
+         if (rowCount != 0)
+            rows.add (rowCount);
+         if (byteCount != 0)
+            bytes.add (byteCount);
+         return nanos;
+      }//end record
+
+      /**
+       * Records a call that failed.
+       *
+       * @return the nanoseconds the call took
+       */
+      public long failed (long start) {
+         long nanos = System.nanoTime () - start;
+         latency.record (nanos);
+         errors.increment ();
+         return nanos;
+      }//end failed
+
+      public String getName () { return name; }
+      public long getCount () { return latency.getCount (); }
+      public long getErrors () { return errors.sum (); }
+      public long getRows () { return rows.sum (); }
+      public long getBytes () { return bytes.sum (); }
+      public double getMeanMicros () { return latency.getMean () / 1000; }
+      public long getP50Micros () { return latency.getValueAtPercentile (50) / 1000; }
+      public long getP90Micros () { return latency.getValueAtPercentile (90) / 1000; }
+      public long getP99Micros () { return latency.getValueAtPercentile (99) / 1000; }
+      public long getMaxMicros () { return latency.getMax () / 1000; }
+
+      public String toString () {
+         return String.format ("%s[count=%d, errors=%d, rows=%d, p50=%dus, p99=%dus, max=%dus]", name, getCount (),
+                               getErrors (), getRows (), getP50Micros (), getP99Micros (), getMaxMicros ());
+      }//end toString
+   }//end Timer
+
+   /*
+    * The pool statistics as an MXBean.
+    */
+   private static final class Pool implements PoolMXBean {
+      private final ConnectionPool pool;
+
+      Pool (ConnectionPool pool) {
+         this.pool = pool;
+      }//end Pool
+
+      public int getActive () { return pool.getActive (); }
+      public int getIdle () { return pool.getIdle (); }
+      public int getMaxSize () { return pool.getMaxSize (); }
+      public long getBorrowCount () { return pool.getBorrowCount (); }
+      public long getTimeoutCount () { return pool.getTimeoutCount (); }
+      public long getWaitP50Micros () { return pool.getWaitHistogram ().getValueAtPercentile (50) / 1000; }
+      public long getWaitP99Micros () { return pool.getWaitHistogram ().getValueAtPercentile (99) / 1000; }
+      public long getWaitMaxMicros () { return pool.getWaitHistogram ().getMax () / 1000; }
+   }//end Pool
+
+   private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+   private final String instance;
+   // null without a database
+   private final ConnectionPool pool;
+   private final ConcurrentHashMap<String, Timer> operations = new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<String, Timer> statements = new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<String, LongAdder> errorStates = new ConcurrentHashMap<>();
+   private final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer ();
+
+   private ScheduledExecutorService reporter;
+   private HttpServer server;
+   private File file;
+
+   /**
+    * @param instance tells the MBeans of several instances in one JVM apart
+    * @param pool the pool to report on, null for none
+    */
+   public Metrics (String instance, ConnectionPool pool) {
+      this.instance = instance;
+      this.pool = pool;
+      if (pool != null)
+         register ("ConnectionPool", "pool", new Pool (pool));
+   }//end Metrics
+
+   /**
+    * @return the timer of an operation, created on first use
+    */
+   public Timer operation (String name) {
+      Timer t = operations.get (name);
+      return t != null ? t : operations.computeIfAbsent (name, n -> register ("Operation", n, new Timer (n)));
+   }//end operation
+
+   /**
+    * @return the timer of a SQL statement, created on first use
+    */
+   public Timer statement (String sql) {
+      Timer t = statements.get (sql);
+      return t != null ? t : statements.computeIfAbsent (sql, s -> register ("Statement", id (s), new Timer (s)));
+   }//end statement
+
+   /**
+    * Counts a failed statement by its SQLState.
+    */
+   public void error (SQLException e) {
+      String state = e.getSQLState () == null ? "none" : e.getSQLState ();
+      LongAdder n = errorStates.get (state);
+      if (n == null)
+         n = errorStates.computeIfAbsent (state, s -> new LongAdder ());
+      n.increment ();
+   }//end error
+
+   /**
+    * Starts the file and port reports the system properties ask for.
+    *
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public synchronized void start () throws IOException {
+      String path = System.getProperty ("dbproject.metrics.file");
+      Integer port = Integer.getInteger ("dbproject.metrics.port");
+      if (port != null) {
+         server = HttpServer.create (new InetSocketAddress (InetAddress.getLoopbackAddress (), port), 0);
+         server.createContext ("/metrics", exchange -> {
+            byte[] body = prometheus ().getBytes (StandardCharsets.UTF_8);
+            exchange.getResponseHeaders ().set ("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders (200, body.length);
+            try (OutputStream out = exchange.getResponseBody ()) {
+               out.write (body);
+            }//end try
+         });
+         server.start ();
+      }//end if
+      if (path != null) {
+         file = new File (path);
+         long period = Math.max (1, Long.getLong ("dbproject.metrics.intervalSeconds", 10L));
+         reporter = Executors.newSingleThreadScheduledExecutor (r -> {
+            Thread t = new Thread (r, "metrics-reporter");
+            t.setDaemon (true);
+            return t;
+         });
+         reporter.scheduleWithFixedDelay (this::dump, period, period, TimeUnit.SECONDS);
+      }//end if
+   }//end start
+
+   /**
+    * Stops the reports, writing the file a last time, and unregisters the
+    * MBeans.
+    */
+   public synchronized void close () {
+      if (server != null)
+         server.stop (0);
+      if (reporter != null) {
+         reporter.shutdownNow ();
+         dump ();
+      }//end if
+      try {
+         for (ObjectName name : mbeans.queryNames (new ObjectName ("DBProject:instance=" + instance + ",*"), null))
+            mbeans.unregisterMBean (name);
+      } catch (JMException e) {
+         // ignored.
+      }//end try
+   }//end close
+
+   /**
+    * @return every measurement in the Prometheus text format
+    */
+   public String prometheus () {
+      StringBuilder out = new StringBuilder (4096);
+      summary (out, "dbproject_operation", "operation", "Duration of the hotel operations.", operations);
+      summary (out, "dbproject_statement", "sql", "Duration of the JDBC calls, by SQL text.", statements);
+      counter (out, "dbproject_statement_rows_total", "Rows returned or changed, by SQL text.", statements, 'r');
+      counter (out, "dbproject_statement_bytes_total", "Bytes of the rows decoded, by SQL text.", statements, 'b');
+
+      out.append ("# HELP dbproject_sql_errors_total Failed JDBC calls by SQLState.\n")
+         .append ("# TYPE dbproject_sql_errors_total counter\n");
+      for (Map.Entry<String, LongAdder> e : new TreeMap<>(errorStates).entrySet ())
+         out.append ("dbproject_sql_errors_total{sqlstate=\"").append (escape (e.getKey ())).append ("\"} ")
+            .append (e.getValue ().sum ()).append ('\n');
+
+      if (pool != null) {
+         LatencyHistogram waits = pool.getWaitHistogram ();
+         out.append ("# HELP dbproject_pool_wait_seconds Wait for a pooled connection.\n")
+            .append ("# TYPE dbproject_pool_wait_seconds summary\n");
+         quantiles (out, "dbproject_pool_wait_seconds", "", waits);
+         gauge (out, "dbproject_pool_active", "Connections borrowed.", pool.getActive ());
+         gauge (out, "dbproject_pool_idle", "Connections idle in the pool.", pool.getIdle ());
+         gauge (out, "dbproject_pool_max", "The most connections the pool opens.", pool.getMaxSize ());
+         out.append ("# TYPE dbproject_pool_timeouts_total counter\n")
+            .append ("dbproject_pool_timeouts_total ").append (pool.getTimeoutCount ()).append ('\n');
+      }//end if
+      return out.toString ();
+   }//end prometheus
+
+   public String toString () {
+      long ops = 0, calls = 0;
+      for (Timer t : operations.values ())
+         ops += t.getCount ();
+      for (Timer t : statements.values ())
+         calls += t.getCount ();
+      return String.format ("metrics[operations=%d, statements=%d, sqlCalls=%d, sqlErrors=%d]", ops,
+                            statements.size (), calls, errorStates.values ().stream ().mapToLong (LongAdder::sum).sum ());
+   }//end toString
+
+   /*
+    * Replaces the file, so that a reader never sees half of it.
+    */
+   private void dump () {
+      try {
+         File tmp = new File (file.getPath () + ".tmp");
+         try (FileOutputStream out = new FileOutputStream (tmp)) {
+            out.write (prometheus ().getBytes (StandardCharsets.UTF_8));
+         }//end try
+         Files.move (tmp.toPath (), file.toPath (), StandardCopyOption.REPLACE_EXISTING,
+                     StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         System.err.println ("Metrics: " + e.getMessage ());
+      }//end try
+   }//end dump
+
+   private static void summary (StringBuilder out, String metric, String label, String help, Map<String, Timer> timers) {
+      out.append ("# HELP ").append (metric).append ("_seconds ").append (help).append ('\n')
+         .append ("# TYPE ").append (metric).append ("_seconds summary\n");
+      for (Timer t : new TreeMap<>(timers).values ())
+         quantiles (out, metric + "_seconds", label + "=\"" + escape (t.name) + "\"", t.latency);
+      out.append ("# TYPE ").append (metric).append ("_errors_total counter\n");
+      for (Timer t : new TreeMap<>(timers).values ())
+         out.append (metric).append ("_errors_total{").append (label).append ("=\"").append (escape (t.name))
+            .append ("\"} ").append (t.getErrors ()).append ('\n');
+   }//end summary
+
+   private static void quantiles (StringBuilder out, String metric, String labels, LatencyHistogram h) {
+      String sep = labels.isEmpty () ? "" : ",";
+      for (double q : QUANTILES)
+         out.append (metric).append ('{').append (labels).append (sep).append ("quantile=\"").append (q)
+            .append ("\"} ").append (h.getValueAtPercentile (q * 100) / 1e9).append ('\n');
+      String braces = labels.isEmpty () ? "" : "{" + labels + "}";
+      out.append (metric).append ("_sum").append (braces).append (' ').append (h.getSum () / 1e9).append ('\n')
+         .append (metric).append ("_count").append (braces).append (' ').append (h.getCount ()).append ('\n');
+   }//end quantiles
+
+   private static void counter (StringBuilder out, String metric, String help, Map<String, Timer> timers, char what) {
+      out.append ("# HELP ").append (metric).append (' ').append (help).append ('\n')
+         .append ("# TYPE ").append (metric).append (" counter\n");
+      for (Timer t : new TreeMap<>(timers).values ())
+         out.append (metric).append ("{sql=\"").append (escape (t.name)).append ("\"} ")
+            .append (what == 'r' ? t.getRows () : t.getBytes ()).append ('\n');
+   }//end counter
+
+   private static void gauge (StringBuilder out, String metric, String help, long value) {
+      out.append ("# HELP ").append (metric).append (' ').append (help).append ('\n')
+         .append ("# TYPE ").append (metric).append (" gauge\n")
+         .append (metric).append (' ').append (value).append ('\n');
+   }//end gauge
+
+   /*
+    * A label value on one line, with its quotes and backslashes escaped.
+    */
+   private static String escape (String s) {
+      return s.replaceAll ("\\s+", " ").trim ().replace ("\\", "\\\\").replace ("\"", "\\\"");
+   }//end escape
+
+   private static String id (String sql) {
+      return String.format ("s%08x", sql.hashCode ());
+   }//end id
+
+   /*
+    * Registers bean as DBProject:type=<type>,instance=<instance>,name=<name>;
+    * a JMX failure leaves the measurements to the other reports.
+    */
+   private <T> T register (String type, String name, T bean) {
+      try {
+         mbeans.registerMBean (bean, new ObjectName ("DBProject:type=" + type + ",instance=" + instance +
+                                                     ",name=" + ObjectName.quote (name)));
+      } catch (JMException e) {
+         // e.g. two statements whose text hashes alike
+      }//end try
+      return bean;
+   }//end register
+
+}//end Metrics
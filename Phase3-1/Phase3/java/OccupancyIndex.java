@@ -0,0 +1,270 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * In-memory occupancy of every room, one bitset per hotel per day with bit
+ * roomNo set when the room is booked that day.  A hotel is read from room
+ * and booking the first time it is asked about and kept current by addRoom
+ * and bookRoom afterwards, so availability questions become a few bitwise
+ * operations on at most roomNo/64 words each:
+ *
+ *    free on a day        rooms AND NOT booked(day)
+ *    free for a range     rooms AND NOT (booked(d1) OR ... OR booked(dn))
+ *    never booked         rooms AND NOT everBooked
+ *
+ * Bits are only ever set, because the application never deletes a room or
+ * a booking, so updates that arrive before or during the first load of a
+ * hotel are simply merged with what the load reads.  Call forget when rows
+ * were removed behind the index's back (or a batched insert failed).
+ *
+ */
+public class OccupancyIndex {
+
+   /*
+    * The rooms and bookings of one hotel.  All access is synchronized on
+    * the Hotel.
+    */
+   private static class Hotel {
+      boolean loaded;
+      final BitSet rooms = new BitSet ();
+      final BitSet everBooked = new BitSet ();
+      // booked rooms by epoch day
+      final Map<Long, BitSet> days = new HashMap<>();
+
+      void book (int roomNo, long day) {
+         BitSet booked = days.get (day);
+         if (booked == null)
+            days.put (day, booked = new BitSet ());
+         booked.set (roomNo);
+         everBooked.set (roomNo);
+         // a booking implies its room (the foreign key guarantees it)
+         rooms.set (roomNo);
+      }//end book
+
+      /*
+       * The rooms booked on at least one day of [from, to], looking up
+       * either each day of the range or each booked day, whichever is
+       * fewer.
+       */
+      BitSet bookedBetween (long from, long to) {
+         BitSet booked = new BitSet ();
+         if (to - from < days.size ()) {
+            for (long d = from; d <= to; ++d) {
+               BitSet b = days.get (d);
+               if (b != null)
+                  booked.or (b);
+            }//end for
+         } else {
+            for (Map.Entry<Long, BitSet> e : days.entrySet ())
+               if (e.getKey () >= from && e.getKey () <= to)
+                  booked.or (e.getValue ());
+         }//end if
+         return booked;
+      }//end bookedBetween
+   }//end Hotel
+
+   private final DBProject esql;
+   private final Map<Integer, Hotel> hotels = new ConcurrentHashMap<>();
+
+   public OccupancyIndex (DBProject esql) {
+      this.esql = esql;
+   }//end OccupancyIndex
+
+   /**
+    * @param hotelID the hotel
+    * @return the number of rooms of the hotel that have never been booked
+    * @throws java.sql.SQLException when the hotel cannot be loaded
+    */
+   public int neverBooked (int hotelID) throws SQLException {
+      Hotel h = load (hotelID);
+      synchronized (h) {
+         BitSet free = (BitSet) h.rooms.clone ();
+         free.andNot (h.everBooked);
+         return free.cardinality ();
+      }//end synchronized
+   }//end neverBooked
+
+   /**
+    * @param hotelID the hotel
+    * @param day the day
+    * @return the number of rooms of the hotel not booked on day
+    * @throws java.sql.SQLException when the hotel cannot be loaded
+    */
+   public int available (int hotelID, LocalDate day) throws SQLException {
+      return available (hotelID, day, day);
+   }//end available
+
+   /**
+    * @param hotelID the hotel
+    * @param from the first day
+    * @param to the last day, inclusive
+    * @return the number of rooms of the hotel free on every day from from to to
+    * @throws java.sql.SQLException when the hotel cannot be loaded
+    */
+   public int available (int hotelID, LocalDate from, LocalDate to) throws SQLException {
+      return availableRooms (hotelID, from, to).cardinality ();
+   }//end available
+
+   /**
+    * @param hotelID the hotel
+    * @param from the first day
+    * @param to the last day, inclusive
+    * @return the room numbers of the hotel free on every day from from to to
+    * @throws java.sql.SQLException when the hotel cannot be loaded
+    */
+   public BitSet availableRooms (int hotelID, LocalDate from, LocalDate to) throws SQLException {
+      Hotel h = load (hotelID);
+      synchronized (h) {
+         BitSet free = (BitSet) h.rooms.clone ();
+         free.andNot (h.bookedBetween (from.toEpochDay (), to.toEpochDay ()));
+         return free;
+      }//end synchronized
+   }//end availableRooms
+
+   /**
+    * @param hotelID the hotel
+    * @param roomNo the room
+    * @param day the day
+    * @return true if the room is booked on day
+    * @throws java.sql.SQLException when the hotel cannot be loaded
+    */
+   public boolean isBooked (int hotelID, int roomNo, LocalDate day) throws SQLException {
+      Hotel h = load (hotelID);
+      synchronized (h) {
+         BitSet b = h.days.get (day.toEpochDay ());
+         return b != null && b.get (roomNo);
+      }//end synchronized
+   }//end isBooked
+
+   /**
+    * Records a room inserted into the database.
+    */
+   public void roomAdded (int hotelID, int roomNo) {
+      if (roomNo < 0)
+         return;
+      Hotel h = hotel (hotelID);
+      synchronized (h) {
+         h.rooms.set (roomNo);
+      }//end synchronized
+   }//end roomAdded
+
+   /**
+    * Records a booking inserted into the database.  A date the index cannot
+    * read makes it reload the hotel instead.
+    *
+    * @param bookingDate the date as it was given to the database
+    */
+   public void booked (int hotelID, int roomNo, String bookingDate) {
+      long day;
+      try {
+         day = Row.parseDate (bookingDate).toEpochDay ();
+      } catch (IllegalArgumentException e) {
+         forget (hotelID);
+         return;
+      }//end try
+      if (roomNo < 0)
+         return;
+      Hotel h = hotel (hotelID);
+      synchronized (h) {
+         h.book (roomNo, day);
+      }//end synchronized
+   }//end booked
+
+   /**
+    * Fills every hotel from a snapshot instead of reading each from the
+    * database on its first question.
+    *
+    * @return false when the snapshot does not cover the booking table, in
+    *    which case the hotels are read as before
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public boolean restore (Snapshot s) throws SQLException {
+      s.rooms (esql, (hotelID, roomNo) -> roomAdded (hotelID, roomNo));
+      boolean covered = s.bookings (esql, (bID, customer, hotelID, roomNo, day, priceCents) -> {
+         if (roomNo < 0)
+            return;
+         Hotel h = hotel (hotelID);
+         synchronized (h) {
+            h.book (roomNo, day);
+         }//end synchronized
+      });
+      if (!covered)
+         return false;
+      // every room and booking is in now
+      for (Hotel h : hotels.values ()) {
+         synchronized (h) {
+            h.loaded = true;
+         }//end synchronized
+      }//end for
+      return true;
+   }//end restore
+
+   /**
+    * Drops a hotel, so that its next query reads it from the database again.
+    */
+   public void forget (int hotelID) {
+      hotels.remove (hotelID);
+   }//end forget
+
+   /**
+    * Drops every hotel.
+    */
+   public void clear () {
+      hotels.clear ();
+   }//end clear
+
+   /**
+    * @return the number of bytes the bitsets of the loaded hotels take
+    */
+   public long memoryUsage () {
+      long bytes = 0;
+      for (Hotel h : hotels.values ()) {
+         synchronized (h) {
+            bytes += h.rooms.size () / 8 + h.everBooked.size () / 8;
+            for (BitSet b : h.days.values ())
+               bytes += b.size () / 8;
+         }//end synchronized
+      }//end for
+      return bytes;
+   }//end memoryUsage
+
+   public String toString () {
+      return String.format ("occupancy[hotels=%d, bytes=%d]", hotels.size (), memoryUsage ());
+   }//end toString
+
+   private Hotel hotel (int hotelID) {
+      return hotels.computeIfAbsent (hotelID, k -> new Hotel ());
+   }//end hotel
+
+   /*
+    * Returns the hotel, reading its rooms and bookings first if this is the
+    * first question about it.  The queries run while holding the hotel, so
+    * concurrent callers wait for one load instead of each running their own.
+    */
+   private Hotel load (int hotelID) throws SQLException {
+      final Hotel h = hotel (hotelID);
+      synchronized (h) {
+         if (!h.loaded) {
+            esql.streamQuery ("SELECT roomNo FROM room WHERE hotelID = ?", row -> {
+               int roomNo = row.getInt (1);
+               if (roomNo >= 0)
+                  h.rooms.set (roomNo);
+            }, hotelID);
+            esql.streamQuery ("SELECT roomNo, bookingDate FROM booking WHERE hotelID = ?", row -> {
+               int roomNo = row.getInt (1);
+               LocalDate day = row.getDate (2);
+               if (roomNo >= 0 && day != null)
+                  h.book (roomNo, day.toEpochDay ());
+            }, hotelID);
+            h.loaded = true;
+         }//end if
+      }//end synchronized
+      return h;
+   }//end load
+
+}//end OccupancyIndex
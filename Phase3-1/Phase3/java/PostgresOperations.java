@@ -0,0 +1,109 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+
+
+/**
+ * The operations run against Postgres, through the static methods of
+ * DBProject that the menu uses.
+ *
+ */
+public class PostgresOperations implements HotelOperations {
+
+   private final DBProject esql;
+
+   public PostgresOperations (DBProject esql) {
+      this.esql = esql;
+   }//end PostgresOperations
+
+   /**
+    * @return the database the operations run against
+    */
+   public DBProject getDatabase () {
+      return esql;
+   }//end getDatabase
+
+   public int addCustomer (String fName, String lName, String address, Long phNo, String dob, String gender)
+         throws SQLException {
+      return DBProject.addCustomer (esql, fName, lName, address, phNo, dob, gender);
+   }//end addCustomer
+
+   public int addRoom (int hotelID, String roomType) throws SQLException {
+      return DBProject.addRoom (esql, hotelID, roomType);
+   }//end addRoom
+
+   public int addMaintenanceCompany (String name, String address, boolean isCertified) throws SQLException {
+      return DBProject.addMaintenanceCompany (esql, name, address, isCertified);
+   }//end addMaintenanceCompany
+
+   public int addRepair (int hotelID, int roomNo, int mCompany, String repairDate, String description,
+                         String repairType) throws SQLException {
+      return DBProject.addRepair (esql, hotelID, roomNo, mCompany, repairDate, description, repairType);
+   }//end addRepair
+
+   public int bookRoom (int customer, int hotelID, int roomNo, String bookingDate, Integer noOfPeople, BigDecimal price)
+         throws SQLException {
+      return DBProject.bookRoom (esql, customer, hotelID, roomNo, bookingDate, noOfPeople, price);
+   }//end bookRoom
+
+   public int assignHouseCleaningToRoom (int SSN, int hotelID, int roomNo) throws SQLException {
+      return DBProject.assignHouseCleaningToRoom (esql, SSN, hotelID, roomNo);
+   }//end assignHouseCleaningToRoom
+
+   public int repairRequest (int managerID, int repairID, String requestDate, String description)
+         throws SQLException {
+      return DBProject.repairRequest (esql, managerID, repairID, requestDate, description);
+   }//end repairRequest
+
+   public void numberOfAvailableRooms (int hotelID, PrintStream out) throws SQLException {
+      DBProject.numberOfAvailableRooms (esql, hotelID, out);
+   }//end numberOfAvailableRooms
+
+   public void numberOfAvailableRooms (int hotelID, String from, String to, PrintStream out) throws SQLException {
+      DBProject.numberOfAvailableRooms (esql, hotelID, from, to, out);
+   }//end numberOfAvailableRooms
+
+   public void numberOfBookedRooms (int hotelID, PrintStream out) throws SQLException {
+      DBProject.numberOfBookedRooms (esql, hotelID, out);
+   }//end numberOfBookedRooms
+
+   public void listHotelRoomBookingsForAWeek (int hotelID, String date, PrintStream out) throws SQLException {
+      DBProject.listHotelRoomBookingsForAWeek (esql, hotelID, date, out);
+   }//end listHotelRoomBookingsForAWeek
+
+   public void topKHighestRoomPriceForADateRange (String startDate, String endDate, int K, PrintStream out)
+         throws SQLException {
+      DBProject.topKHighestRoomPriceForADateRange (esql, startDate, endDate, K, out);
+   }//end topKHighestRoomPriceForADateRange
+
+   public void topKHighestPriceBookingsForACustomer (String fname, String lname, int K, PrintStream out)
+         throws SQLException {
+      DBProject.topKHighestPriceBookingsForACustomer (esql, fname, lname, K, out);
+   }//end topKHighestPriceBookingsForACustomer
+
+   public void totalCostForCustomer (int hotelID, String fname, String lname, String brange, String erange,
+                                     PrintStream out) throws SQLException {
+      DBProject.totalCostForCustomer (esql, hotelID, fname, lname, brange, erange, out);
+   }//end totalCostForCustomer
+
+   public void listRepairsMade (String companyName, PrintStream out) throws SQLException {
+      DBProject.listRepairsMade (esql, companyName, out);
+   }//end listRepairsMade
+
+   public void topKMaintenanceCompany (int K, PrintStream out) throws SQLException {
+      DBProject.topKMaintenanceCompany (esql, K, out);
+   }//end topKMaintenanceCompany
+
+   public void numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, PrintStream out) throws SQLException {
+      DBProject.numberOfRepairsForEachRoomPerYear (esql, hotelID, roomNo, out);
+   }//end numberOfRepairsForEachRoomPerYear
+
+   public void roomsWithMostRepairs (int hotelID, int year, int K, PrintStream out) throws SQLException {
+      DBProject.roomsWithMostRepairs (esql, hotelID, year, K, out);
+   }//end roomsWithMostRepairs
+
+   public int rebuild () throws SQLException {
+      return esql.rebuildCaches ();
+   }//end rebuild
+
+}//end PostgresOperations
@@ -0,0 +1,203 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Checks the foreign keys of an insert before it is sent, so that a
+ * mistyped room, customer, staff SSN or repair ID is refused without an
+ * aborted statement, and a key known to exist costs no round trip.  Each
+ * referenced table has a Bloom filter of its keys, read on first use and
+ * kept current by the insert methods and ChangeListener.
+ *
+ * A key the filter has not seen is looked up in the table with a
+ * single-row query, since another process may have committed it before
+ * its notification reached the listener; it is remembered when found and
+ * refused with SQLState 23503, the state Postgres gives a foreign key
+ * violation, when not.  A key the filter has seen is passed to the
+ * database without a lookup, whose foreign keys stay the final check, e.g.
+ * for deleted rows and the filter's false positives.
+ *
+ * Inside a batch (DBProject.beginBatch) the reads and lookups run in the
+ * batch's transaction, so that a room or customer the batch added and has
+ * not committed yet is found, as the database's own check would find it.
+ *
+ */
+public class ReferenceFilter {
+
+   /** SQLState of a foreign key violation. */
+   public static final String FOREIGN_KEY_VIOLATION = "23503";
+
+   // false positive rate the filters are sized for
+   private static final double FPP = 0.01;
+
+   /*
+    * The filter of one referenced table.
+    */
+   private static final class Keys {
+      final String table;
+      final String read;
+      final String lookup;
+      // keys are (hotelID, roomNo) pairs rather than one column
+      final boolean pairs;
+      BloomFilter bloom;
+
+      Keys (String table, String read, String lookup) {
+         this.table = table;
+         this.read = read;
+         this.lookup = lookup;
+         this.pairs = table.equals ("room");
+      }//end Keys
+   }//end Keys
+
+   private final DBProject esql;
+   private final Keys rooms = new Keys ("room",
+      "SELECT hotelID, roomNo FROM room", "SELECT 1 FROM room WHERE hotelID = ? AND roomNo = ?");
+   private final Keys customers = new Keys ("customer",
+      "SELECT customerID FROM customer", "SELECT 1 FROM customer WHERE customerID = ?");
+   private final Keys staff = new Keys ("staff",
+      "SELECT SSN FROM staff", "SELECT 1 FROM staff WHERE SSN = ?");
+   private final Keys repairs = new Keys ("repair",
+      "SELECT rID FROM repair", "SELECT 1 FROM repair WHERE rID = ?");
+
+   private final AtomicLong passed = new AtomicLong ();
+   private final AtomicLong refused = new AtomicLong ();
+   private final AtomicLong lookups = new AtomicLong ();
+
+   public ReferenceFilter (DBProject esql) {
+      this.esql = esql;
+   }//end ReferenceFilter
+
+   /**
+    * @throws java.sql.SQLException with SQLState 23503 when there is no such
+    *    room, or when the rooms cannot be read
+    */
+   public void checkRoom (int hotelID, int roomNo) throws SQLException {
+      check (rooms, key (hotelID, roomNo), "Room " + roomNo + " of hotel " + hotelID, hotelID, roomNo);
+   }//end checkRoom
+
+   /**
+    * @throws java.sql.SQLException with SQLState 23503 when there is no such
+    *    customer, or when the customers cannot be read
+    */
+   public void checkCustomer (int customerID) throws SQLException {
+      check (customers, customerID, "Customer " + customerID, customerID);
+   }//end checkCustomer
+
+   /**
+    * @throws java.sql.SQLException with SQLState 23503 when there is no such
+    *    staff member, or when the staff cannot be read
+    */
+   public void checkStaff (int SSN) throws SQLException {
+      check (staff, SSN, "Staff member " + SSN, SSN);
+   }//end checkStaff
+
+   /**
+    * @throws java.sql.SQLException with SQLState 23503 when there is no such
+    *    repair, or when the repairs cannot be read
+    */
+   public void checkRepair (int rID) throws SQLException {
+      check (repairs, rID, "Repair " + rID, rID);
+   }//end checkRepair
+
+   /**
+    * Records rows inserted into the database.
+    */
+   public void roomAdded (int hotelID, int roomNo) { added (rooms, key (hotelID, roomNo)); }
+   public void customerAdded (int customerID) { added (customers, customerID); }
+   public void staffAdded (int SSN) { added (staff, SSN); }
+   public void repairAdded (int rID) { added (repairs, rID); }
+
+   /**
+    * Drops every filter, so that each is read from the database again.
+    */
+   public void clear () {
+      for (Keys k : new Keys[] { rooms, customers, staff, repairs })
+         synchronized (k) {
+            k.bloom = null;
+         }//end synchronized
+   }//end clear
+
+   public long getPassed () { return passed.get (); }
+   public long getRefused () { return refused.get (); }
+   public long getLookups () { return lookups.get (); }
+
+   public String toString () {
+      StringBuilder sb = new StringBuilder ();
+      sb.append (String.format ("references[passed=%d, refused=%d, lookups=%d]",
+                                getPassed (), getRefused (), getLookups ()));
+      for (Keys k : new Keys[] { rooms, customers, staff, repairs })
+         synchronized (k) {
+            sb.append ("\n  ").append (k.table).append (k.bloom == null ? "[not read]" : k.bloom.toString ());
+         }//end synchronized
+      return sb.toString ();
+   }//end toString
+
+   private void check (Keys k, long key, String what, Object... params) throws SQLException {
+      boolean seen;
+      synchronized (k) {
+         if (k.bloom == null)
+            load (k);
+         seen = k.bloom.mightContain (key);
+      }//end synchronized
+      if (seen) {
+         passed.incrementAndGet ();
+         return;
+      }//end if
+      // not seen yet is not missing: the listener may not have caught up
+      lookups.incrementAndGet ();
+      if (esql.streamBatchQuery (k.lookup, row -> { }, params) > 0) {
+         added (k, key);
+         passed.incrementAndGet ();
+         return;
+      }//end if
+      refused.incrementAndGet ();
+      throw new SQLException (what + " does not exist", FOREIGN_KEY_VIOLATION);
+   }//end check
+
+   private void added (Keys k, long key) {
+      synchronized (k) {
+         if (k.bloom == null)
+            return;
+         if (k.bloom.getCount () >= k.bloom.getExpected ()) {
+            // full, its false positive rate would climb; read it again larger
+            k.bloom = null;
+            return;
+         }//end if
+         k.bloom.put (key);
+      }//end synchronized
+   }//end added
+
+   /*
+    * Reads every key of a table into a filter with room for as many again.
+    * Called holding k.
+    */
+   private void load (Keys k) throws SQLException {
+      final LongList keys = new LongList ();
+      final boolean pairs = k.pairs;
+      esql.streamBatchQuery (k.read, row -> keys.add (pairs ? key (row.getInt (1), row.getInt (2)) : row.getLong (1)));
+      BloomFilter bloom = new BloomFilter (Math.max (1024, keys.size * 2L), FPP);
+      for (int i = 0; i < keys.size; ++i)
+         bloom.put (keys.values[i]);
+      k.bloom = bloom;
+   }//end load
+
+   private static long key (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end key
+
+   /*
+    * A growable array of longs, to read the keys without boxing them.
+    */
+   private static final class LongList {
+      long[] values = new long[1024];
+      int size;
+
+      void add (long v) {
+         if (size == values.length)
+            values = Arrays.copyOf (values, size * 2);
+         values[size++] = v;
+      }//end add
+   }//end LongList
+
+}//end ReferenceFilter
@@ -0,0 +1,266 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Number of repairs of every room per year.  Each room holds its counts in
+ * an int array indexed by year minus the room's first year (a short), so
+ * the history of a room is one hash lookup and one array, and nothing is
+ * boxed per year.  The repair table is read in one pass on first use and
+ * addRepair counts new repairs.
+ *
+ * Rooms are also listed per hotel, which answers "the rooms of a hotel with
+ * the most repairs in a year" by one array read per room.
+ *
+ * As in RepairLeaderboard, a repair reported after the read of the table
+ * that already counted it is not counted again: another process's repair
+ * by the transaction snapshot of the read, this process's own by the
+ * number of reads before its insert.
+ *
+ */
+public class RepairHistogram {
+
+   /*
+    * The repairs of one room.
+    */
+   private static final class Room {
+      final int hotelID;
+      final int roomNo;
+      short firstYear;
+      int[] counts = new int[0];
+
+      Room (int hotelID, int roomNo) {
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+      }//end Room
+
+      int count (int year) {
+         int i = year - firstYear;
+         return i >= 0 && i < counts.length ? counts[i] : 0;
+      }//end count
+
+      void add (int year) {
+         if (counts.length == 0) {
+            firstYear = (short) year;
+            counts = new int[1];
+         } else if (year < firstYear) {
+            int[] grown = new int[counts.length + firstYear - year];
+            System.arraycopy (counts, 0, grown, firstYear - year, counts.length);
+            counts = grown;
+            firstYear = (short) year;
+         } else if (year - firstYear >= counts.length) {
+            counts = Arrays.copyOf (counts, year - firstYear + 1);
+         }//end if
+         ++counts[year - firstYear];
+      }//end add
+   }//end Room
+
+   /**
+    * A year and its number of repairs.
+    */
+   public static final class YearCount {
+      public final int year;
+      public final int repairs;
+
+      YearCount (int year, int repairs) {
+         this.year = year;
+         this.repairs = repairs;
+      }//end YearCount
+   }//end YearCount
+
+   /**
+    * A room and its number of repairs in some year.
+    */
+   public static final class RoomCount {
+      public final int roomNo;
+      public final int repairs;
+
+      RoomCount (int roomNo, int repairs) {
+         this.roomNo = roomNo;
+         this.repairs = repairs;
+      }//end RoomCount
+   }//end RoomCount
+
+   private final DBProject esql;
+   private boolean loaded;
+   private long reloads;
+   // the transactions whose repairs the last read counted, null when unknown
+   private TxSnapshot readAt;
+   private final Map<Long, Room> rooms = new HashMap<>();
+   private final Map<Integer, List<Room>> hotels = new HashMap<>();
+
+   public RepairHistogram (DBProject esql) {
+      this.esql = esql;
+   }//end RepairHistogram
+
+   /**
+    * @param hotelID the hotel
+    * @param roomNo the room
+    * @return the years the room was repaired in with their number of
+    *    repairs, latest year first
+    * @throws java.sql.SQLException when the repairs cannot be read
+    */
+   public synchronized List<YearCount> history (int hotelID, int roomNo) throws SQLException {
+      load ();
+      List<YearCount> years = new ArrayList<>();
+      Room r = rooms.get (key (hotelID, roomNo));
+      if (r != null)
+         for (int i = r.counts.length - 1; i >= 0; --i)
+            if (r.counts[i] > 0)
+               years.add (new YearCount (r.firstYear + i, r.counts[i]));
+      return years;
+   }//end history
+
+   /**
+    * @param hotelID the hotel
+    * @param year the year
+    * @param k the number of rooms wanted
+    * @return the k rooms of the hotel with the most repairs in year, with
+    *    their number of repairs, leaving out rooms without any
+    * @throws java.sql.SQLException when the repairs cannot be read
+    */
+   public synchronized List<RoomCount> mostRepaired (int hotelID, final int year, int k) throws SQLException {
+      load ();
+      List<Room> repaired = new ArrayList<>();
+      List<Room> all = hotels.get (hotelID);
+      if (all != null)
+         for (Room r : all)
+            if (r.count (year) > 0)
+               repaired.add (r);
+      repaired.sort ((a, b) -> a.count (year) != b.count (year) ? Integer.compare (b.count (year), a.count (year))
+                                                                : Integer.compare (a.roomNo, b.roomNo));
+      List<RoomCount> top = new ArrayList<>();
+      for (Room r : repaired.subList (0, Math.min (Math.max (k, 0), repaired.size ())))
+         top.add (new RoomCount (r.roomNo, r.count (year)));
+      return top;
+   }//end mostRepaired
+
+   /**
+    * @return the number of times the repair table was read, to pass to repaired
+    */
+   public synchronized long getReloads () {
+      return reloads;
+   }//end getReloads
+
+   /**
+    * Counts a repair this process inserted into the database.
+    *
+    * @param repairDate the date as it was given to the database
+    * @param reloadsBefore getReloads () read before the repair was inserted
+    */
+   public synchronized void repaired (int hotelID, int roomNo, String repairDate, long reloadsBefore) {
+      if (loaded && reloads != reloadsBefore) {
+         // the read since may or may not have counted this repair
+         clear ();
+         return;
+      }//end if
+      count (hotelID, roomNo, repairDate);
+   }//end repaired
+
+   /**
+    * Counts a repair another process inserted into the database, unless
+    * the last read of the table counted it already.
+    *
+    * @param repairDate the date as the notification carries it
+    * @param xid the transaction that inserted it, or -1 when unknown
+    */
+   public synchronized void notified (int hotelID, int roomNo, String repairDate, long xid) {
+      if (xid >= 0 && readAt != null && readAt.sees (xid))
+         return;
+      count (hotelID, roomNo, repairDate);
+   }//end notified
+
+   /*
+    * A date the histogram cannot read makes it read the repair table again
+    * instead.
+    */
+   private void count (int hotelID, int roomNo, String repairDate) {
+      if (!loaded)
+         return;
+      if (repairDate == null) {
+         clear ();
+         return;
+      }//end if
+      try {
+         add (hotelID, roomNo, Row.parseDate (repairDate).getYear ());
+      } catch (IllegalArgumentException e) {
+         clear ();
+      }//end try
+   }//end count
+
+   /**
+    * Fills the counts from a snapshot instead of reading the repair table,
+    * unless it is read already.
+    *
+    * @return false when the snapshot does not cover the repair table
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public synchronized boolean restore (Snapshot s) throws SQLException {
+      if (loaded)
+         return true;
+      if (!s.repairs (esql, (hotelID, roomNo, year) -> add (hotelID, roomNo, year)))
+         return false;
+      // the snapshot file does not say which transactions it holds
+      readAt = null;
+      ++reloads;
+      loaded = true;
+      return true;
+   }//end restore
+
+   /**
+    * Drops every count, so that the repair table is read again on next use.
+    */
+   public synchronized void clear () {
+      rooms.clear ();
+      hotels.clear ();
+      loaded = false;
+   }//end clear
+
+   public synchronized String toString () {
+      long years = 0;
+      for (Room r : rooms.values ())
+         years += r.counts.length;
+      return String.format ("histogram[rooms=%d, years=%d]", rooms.size (), years);
+   }//end toString
+
+   private void add (int hotelID, int roomNo, int year) {
+      long key = key (hotelID, roomNo);
+      Room r = rooms.get (key);
+      if (r == null) {
+         rooms.put (key, r = new Room (hotelID, roomNo));
+         List<Room> hotel = hotels.get (hotelID);
+         if (hotel == null)
+            hotels.put (hotelID, hotel = new ArrayList<>());
+         hotel.add (r);
+      }//end if
+      r.add (year);
+   }//end add
+
+   private void load () throws SQLException {
+      if (loaded)
+         return;
+      final String[] snapshot = new String[1];
+      // one more row carries the snapshot the statement read the repairs under
+      esql.streamQuery ("SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate), NULL FROM repair " +
+                        "UNION ALL SELECT NULL, NULL, NULL, txid_current_snapshot()::text",
+                        row -> {
+                           String s = row.getString (4);
+                           if (s != null)
+                              snapshot[0] = s;
+                           else
+                              add (row.getInt (1), row.getInt (2), row.getInt (3));
+                        });
+      readAt = TxSnapshot.parse (snapshot[0]);
+      ++reloads;
+      loaded = true;
+   }//end load
+
+   private static long key (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end key
+
+}//end RepairHistogram
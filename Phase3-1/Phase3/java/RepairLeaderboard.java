@@ -0,0 +1,216 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Number of repairs of every maintenance company, kept in an array ordered
+ * by count (most repairs first, then by cmpID) as addRepair counts them.
+ * A repair moves its company up past the companies it overtakes, usually
+ * none or a few, so the top K is simply the first K entries of the array.
+ *
+ * The counts are read from the database on first use and by rebuild, which
+ * also reports how many counters were off, e.g. after BulkLoader replaced
+ * the tables underneath a running client.
+ *
+ * A repair committed before a reload can be reported after it, and would
+ * then be counted twice.  The reload keeps the transaction snapshot it read
+ * the counts under, which tells whether another process's repair, notified
+ * with the id of its transaction, is counted already.  This process's own
+ * repairs pass the number of reloads read before their insert; when a
+ * reload came in between, the counts are read again.
+ *
+ */
+public class RepairLeaderboard {
+
+   /**
+    * One company and its repairs.
+    */
+   public static final class Company {
+      public final int cmpID;
+      public final String name;
+      long repairs;
+      int position;
+
+      Company (int cmpID, String name, long repairs) {
+         this.cmpID = cmpID;
+         this.name = name;
+         this.repairs = repairs;
+      }//end Company
+
+      public long getRepairs () {
+         return repairs;
+      }//end getRepairs
+   }//end Company
+
+   private final DBProject esql;
+   private boolean loaded;
+   private long reloads;
+   // the transactions whose repairs the last reload counted, null when unknown
+   private TxSnapshot readAt;
+   private Company[] ranking = new Company[0];
+   private int size;
+   private final Map<Integer, Company> companies = new HashMap<>();
+
+   public RepairLeaderboard (DBProject esql) {
+      this.esql = esql;
+   }//end RepairLeaderboard
+
+   /**
+    * @param k the number of companies wanted
+    * @return the k companies with the most repairs, leaving out companies
+    *    without any
+    * @throws java.sql.SQLException when the counts cannot be read
+    */
+   public synchronized List<Company> top (int k) throws SQLException {
+      if (!loaded)
+         rebuild ();
+      List<Company> top = new ArrayList<>();
+      for (int i = 0; i < Math.min (k, size) && ranking[i].repairs > 0; ++i)
+         top.add (copy (ranking[i]));
+      return top;
+   }//end top
+
+   /**
+    * @return the number of times the counts were read, to pass to repaired
+    */
+   public synchronized long getReloads () {
+      return reloads;
+   }//end getReloads
+
+   /**
+    * Counts a repair this process inserted into the database.
+    *
+    * @param reloadsBefore getReloads () read before the repair was inserted
+    */
+   public synchronized void repaired (int cmpID, long reloadsBefore) {
+      if (loaded && reloads != reloadsBefore) {
+         // the reload since may or may not have counted this repair
+         loaded = false;
+         return;
+      }//end if
+      count (cmpID);
+   }//end repaired
+
+   /**
+    * Counts a repair another process inserted into the database, unless
+    * the last reload counted it already.
+    *
+    * @param xid the transaction that inserted it, or -1 when unknown
+    */
+   public synchronized void notified (int cmpID, long xid) {
+      if (xid >= 0 && readAt != null && readAt.sees (xid))
+         return;
+      count (cmpID);
+   }//end notified
+
+   private void count (int cmpID) {
+      if (!loaded)
+         return;
+      Company c = companies.get (cmpID);
+      if (c == null) {
+         // a company another client added, read everything again
+         loaded = false;
+         return;
+      }//end if
+      ++c.repairs;
+      moveUp (c);
+   }//end count
+
+   /**
+    * Records a company inserted into the database.
+    */
+   public synchronized void added (int cmpID, String name) {
+      if (loaded && !companies.containsKey (cmpID)) {
+         Company c = new Company (cmpID, name.trim (), 0);
+         append (c);
+         moveUp (c);
+      }//end if
+   }//end added
+
+   /**
+    * Reads every count from the database again.
+    *
+    * @return the number of companies whose count was wrong or missing
+    * @throws java.sql.SQLException when the counts cannot be read
+    */
+   public synchronized int rebuild () throws SQLException {
+      final List<Company> read = new ArrayList<>();
+      final String[] snapshot = new String[1];
+      // the snapshot is taken in the same statement, so it is the one the counts were read under
+      esql.streamQuery ("SELECT m.cmpID, m.name, COUNT(r.rID), txid_current_snapshot()::text " +
+                        "FROM maintenancecompany m LEFT JOIN repair r ON r.mCompany = m.cmpID " +
+                        "GROUP BY m.cmpID, m.name",
+                        row -> {
+                           read.add (new Company (row.getInt (1), row.getTrimmedString (2), row.getLong (3)));
+                           snapshot[0] = row.getString (4);
+                        });
+
+      // compared with the counts held before, if there were any
+      int corrected = 0;
+      if (!companies.isEmpty ()) {
+         for (Company c : read) {
+            Company old = companies.get (c.cmpID);
+            if (old == null || old.repairs != c.repairs)
+               ++corrected;
+         }//end for
+      }//end if
+
+      read.sort ((a, b) -> ranksBefore (a, b) ? -1 : ranksBefore (b, a) ? 1 : 0);
+      companies.clear ();
+      ranking = new Company[Math.max (16, read.size ())];
+      size = 0;
+      for (Company c : read)
+         append (c);
+      readAt = TxSnapshot.parse (snapshot[0]);
+      ++reloads;
+      loaded = true;
+      return corrected;
+   }//end rebuild
+
+   /**
+    * Marks the counts stale, so that they are read again on next use.
+    */
+   public synchronized void clear () {
+      loaded = false;
+   }//end clear
+
+   public synchronized String toString () {
+      return String.format ("repairs[companies=%d, loaded=%b]", size, loaded);
+   }//end toString
+
+   /*
+    * Swaps a company with the ones above it until it is in order again.
+    */
+   private void moveUp (Company c) {
+      while (c.position > 0 && ranksBefore (c, ranking[c.position - 1])) {
+         Company above = ranking[c.position - 1];
+         ranking[c.position] = above;
+         above.position = c.position;
+         ranking[--c.position] = c;
+      }//end while
+   }//end moveUp
+
+   /*
+    * Adds a company at the end of the ranking.
+    */
+   private void append (Company c) {
+      if (size == ranking.length)
+         ranking = Arrays.copyOf (ranking, Math.max (16, size * 2));
+      c.position = size;
+      ranking[size++] = c;
+      companies.put (c.cmpID, c);
+   }//end append
+
+   private static boolean ranksBefore (Company a, Company b) {
+      return a.repairs != b.repairs ? a.repairs > b.repairs : a.cmpID < b.cmpID;
+   }//end ranksBefore
+
+   private static Company copy (Company c) {
+      return new Company (c.cmpID, c.name, c.repairs);
+   }//end copy
+
+}//end RepairLeaderboard
@@ -0,0 +1,268 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Output of the read-only reports, keyed by the report and its parameters.
+ * Every table has a version counter that the insert paths bump; an entry
+ * remembers the versions of the tables its report reads, as they were
+ * before the report ran, and is only replayed while they are unchanged.
+ * A write therefore invalidates exactly the reports that read its table,
+ * without scanning the cache.
+ *
+ * The cache holds at most -Ddbproject.resultCache.size entries (least
+ * recently used first out, 0 turns it off) and, when
+ * -Ddbproject.resultCache.ttlMs is set, drops entries older than that.
+ *
+ * On a miss the report still prints straight to its stream, row by row; a
+ * copy is kept on the side only up to the size of an entry, so a report
+ * too large to cache costs no more memory than one that is not cached.
+ *
+ */
+public class ResultCache {
+
+   public static final String ROOM = "room";
+   public static final String CUSTOMER = "customer";
+   public static final String MAINTENANCE_COMPANY = "maintenancecompany";
+   public static final String REPAIR = "repair";
+   public static final String BOOKING = "booking";
+   public static final String ASSIGNED = "assigned";
+   public static final String REQUEST = "request";
+   public static final String STAFF = "staff";
+
+   // outputs longer than this are printed but not kept
+   private static final int MAX_ENTRY_BYTES = 1 << 20;
+
+   /**
+    * A report that writes its result to a stream.
+    */
+   public interface Report {
+      void run (PrintStream out) throws SQLException;
+   }//end Report
+
+   /**
+    * Hit, miss, stale and eviction counts of one report.
+    */
+   public static class Counters {
+      final AtomicLong hits = new AtomicLong ();
+      final AtomicLong misses = new AtomicLong ();
+      final AtomicLong stale = new AtomicLong ();
+      final AtomicLong evictions = new AtomicLong ();
+
+      public long getHits () { return hits.get (); }
+      public long getMisses () { return misses.get (); }
+      public long getStale () { return stale.get (); }
+      public long getEvictions () { return evictions.get (); }
+
+      public double getHitRate () {
+         long h = hits.get (), total = h + misses.get ();
+         return total == 0 ? 0.0 : (double) h / total;
+      }//end getHitRate
+
+      public String toString () {
+         return String.format ("[hits=%d, misses=%d, stale=%d, evictions=%d, hitRate=%.1f%%]",
+                               getHits (), getMisses (), getStale (), getEvictions (), getHitRate () * 100);
+      }//end toString
+   }//end Counters
+
+   /*
+    * One cached output.
+    */
+   private static class Cached {
+      final String report;
+      final String[] tables;
+      final long[] versions;
+      final long created;
+      final String output;
+
+      Cached (String report, String[] tables, long[] versions, long created, String output) {
+         this.report = report;
+         this.tables = tables;
+         this.versions = versions;
+         this.created = created;
+         this.output = output;
+      }//end Cached
+   }//end Cached
+
+   private final int capacity;
+   private final long ttlNanos;
+   private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+   private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+   private final LinkedHashMap<List<Object>, Cached> entries;
+
+   /**
+    * @param capacity the number of outputs kept, 0 for none
+    * @param ttlMs how long an output is kept in milliseconds, 0 for no limit
+    */
+   public ResultCache (final int capacity, long ttlMs) {
+      this.capacity = capacity;
+      this.ttlNanos = ttlMs * 1000000L;
+      this.entries = new LinkedHashMap<List<Object>, Cached>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<List<Object>, Cached> eldest) {
+            if (size () <= capacity)
+               return false;
+            counters (eldest.getValue ().report).evictions.incrementAndGet ();
+            return true;
+         }
+      };
+   }//end ResultCache
+
+   /**
+    * Prints the output of a report, from the cache when none of the tables
+    * it reads changed since it was cached.
+    *
+    * @param out the stream the output goes to
+    * @param report the report name
+    * @param tables the tables the report reads
+    * @param params the parameters of the report, part of the key
+    * @param run produces the output on a miss
+    * @throws java.sql.SQLException when the report fails
+    */
+   public void print (PrintStream out, String report, String[] tables, Object[] params, Report run)
+         throws SQLException {
+      if (capacity <= 0) {
+         run.run (out);
+         return;
+      }//end if
+      Counters c = counters (report);
+      // the report and each parameter as an element, so that no two calls share a key
+      List<Object> key = new ArrayList<>(params.length + 1);
+      key.add (report);
+      Collections.addAll (key, params);
+      long now = System.nanoTime ();
+      Cached e;
+      synchronized (entries) {
+         e = entries.get (key);
+         if (e != null && !current (e, now)) {
+            entries.remove (key);
+            c.stale.incrementAndGet ();
+            e = null;
+         }//end if
+      }//end synchronized
+      if (e != null) {
+         c.hits.incrementAndGet ();
+         out.print (e.output);
+         return;
+      }//end if
+
+      c.misses.incrementAndGet ();
+      // read before the report runs, so a write during the run leaves it stale
+      long[] seen = new long[tables.length];
+      for (int i = 0; i < tables.length; ++i)
+         seen[i] = version (tables[i]).get ();
+      Tee tee = new Tee (out);
+      PrintStream capture = new PrintStream (tee, false);
+      run.run (capture);
+      capture.flush ();
+      if (tee.copy != null) {
+         synchronized (entries) {
+            entries.put (key, new Cached (report, tables, seen, now, tee.copy.toString ()));
+         }//end synchronized
+      }//end if
+   }//end print
+
+   /**
+    * Marks every output that read table as stale.
+    */
+   public void bump (String table) {
+      version (table).incrementAndGet ();
+   }//end bump
+
+   /**
+    * @return the current version of table
+    */
+   public long getVersion (String table) {
+      return version (table).get ();
+   }//end getVersion
+
+   /**
+    * Drops every output.
+    */
+   public void clear () {
+      synchronized (entries) {
+         entries.clear ();
+      }//end synchronized
+   }//end clear
+
+   /**
+    * @return the counters of each report by name
+    */
+   public Map<String, Counters> getCounters () {
+      return new TreeMap<>(counters);
+   }//end getCounters
+
+   public String toString () {
+      int size;
+      synchronized (entries) {
+         size = entries.size ();
+      }//end synchronized
+      StringBuilder sb = new StringBuilder ();
+      sb.append (String.format ("results[entries=%d/%d]", size, capacity));
+      for (Map.Entry<String, Counters> e : getCounters ().entrySet ())
+         sb.append ("\n  ").append (e.getKey ()).append (e.getValue ());
+      return sb.toString ();
+   }//end toString
+
+   /*
+    * Writes through to the report's stream and keeps a copy of what was
+    * written, until it grows past MAX_ENTRY_BYTES and the copy is dropped.
+    */
+   private static final class Tee extends OutputStream {
+      final PrintStream out;
+      ByteArrayOutputStream copy = new ByteArrayOutputStream ();
+
+      Tee (PrintStream out) {
+         this.out = out;
+      }//end Tee
+
+      public void write (int b) {
+         out.write (b);
+         if (copy != null) {
+            copy.write (b);
+            if (copy.size () > MAX_ENTRY_BYTES)
+               copy = null;
+         }//end if
+      }//end write
+
+      public void write (byte[] b, int off, int len) {
+         out.write (b, off, len);
+         if (copy != null) {
+            copy.write (b, off, len);
+            if (copy.size () > MAX_ENTRY_BYTES)
+               copy = null;
+         }//end if
+      }//end write
+
+      public void flush () {
+         out.flush ();
+      }//end flush
+   }//end Tee
+
+   private boolean current (Cached e, long now) {
+      if (ttlNanos > 0 && now - e.created > ttlNanos)
+         return false;
+      for (int i = 0; i < e.tables.length; ++i)
+         if (version (e.tables[i]).get () != e.versions[i])
+            return false;
+      return true;
+   }//end current
+
+   private AtomicLong version (String table) {
+      return versions.computeIfAbsent (table, k -> new AtomicLong ());
+   }//end version
+
+   private Counters counters (String report) {
+      return counters.computeIfAbsent (report, k -> new Counters ());
+   }//end counters
+
+}//end ResultCache
@@ -0,0 +1,182 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+
+/**
+ * Typed view of the current row of a ResultSet.  One Row is created per
+ * query and moved along with the cursor, so decoding a row allocates
+ * nothing beyond what the accessor itself returns.  Integer columns are
+ * read as primitives and Numeric(6,2) prices as a long number of cents.
+ * The Row counts the bytes it decodes, for Metrics: the characters of
+ * text columns and the width of the others.
+ *
+ */
+public final class Row {
+
+   private ResultSet rs;
+   private long bytes;
+
+   Row (ResultSet rs) {
+      this.rs = rs;
+   }//end Row
+
+   /*
+    * Follows another result set, keeping the byte count.
+    */
+   void moveTo (ResultSet rs) {
+      this.rs = rs;
+   }//end moveTo
+
+   /**
+    * @return the underlying result set, e.g. for its metadata
+    */
+   public ResultSet getResultSet () {
+      return rs;
+   }//end getResultSet
+
+   /**
+    * @return true if the last column read was SQL NULL
+    */
+   public boolean wasNull () throws SQLException {
+      return rs.wasNull ();
+   }//end wasNull
+
+   /**
+    * @return the bytes decoded through this Row so far
+    */
+   public long getBytes () {
+      return bytes;
+   }//end getBytes
+
+   public int getInt (int col) throws SQLException {
+      bytes += 4;
+      return rs.getInt (col);
+   }//end getInt
+
+   public long getLong (int col) throws SQLException {
+      bytes += 8;
+      return rs.getLong (col);
+   }//end getLong
+
+   /**
+    * Reads a money column (e.g. Numeric(6,2)) as a number of cents.
+    *
+    * @param col the column index
+    * @return the amount times 100, or 0 when the column is NULL
+    */
+   public long getMoney (int col) throws SQLException {
+      String s = getString (col);
+      return s == null ? 0 : parseMoney (s);
+   }//end getMoney
+
+   /**
+    * @return the date, or null when the column is NULL
+    */
+   public LocalDate getDate (int col) throws SQLException {
+      bytes += 4;
+      Date d = rs.getDate (col);
+      return d == null ? null : d.toLocalDate ();
+   }//end getDate
+
+   public String getString (int col) throws SQLException {
+      String s = rs.getString (col);
+      if (s != null)
+         bytes += s.length ();
+      return s;
+   }//end getString
+
+   /**
+    * Reads a blank-padded CHAR(n) column without its padding.
+    */
+   public String getTrimmedString (int col) throws SQLException {
+      String s = getString (col);
+      return s == null ? null : s.trim ();
+   }//end getTrimmedString
+
+   /**
+    * Parses a decimal string into cents, rounding half up past the second
+    * decimal place.
+    *
+    * @param s a decimal number such as "1501.00" or "-3.5"
+    * @return the amount times 100
+    */
+   public static long parseMoney (String s) {
+      int i = 0, n = s.length ();
+      boolean negative = false;
+      if (i < n && (s.charAt (i) == '-' || s.charAt (i) == '+'))
+         negative = s.charAt (i++) == '-';
+
+      long cents = 0;
+      int decimals = -1;
+      boolean roundUp = false;
+      for (; i < n; ++i) {
+         char c = s.charAt (i);
+         if (c == '.' && decimals < 0) {
+            decimals = 0;
+         } else if (c >= '0' && c <= '9') {
+            if (decimals < 0) {
+               cents = cents * 10 + (c - '0');
+            } else if (decimals < 2) {
+               cents = cents * 10 + (c - '0');
+               ++decimals;
+            } else {
+               if (decimals == 2)
+                  roundUp = c >= '5';
+               ++decimals;
+            }//end if
+         } else {
+            throw new NumberFormatException ("Not a decimal number: " + s);
+         }//end if
+      }//end for
+      for (int d = Math.max (decimals, 0); d < 2; ++d)
+         cents *= 10;
+      if (roundUp)
+         ++cents;
+      return negative ? -cents : cents;
+   }//end parseMoney
+
+   /**
+    * Parses a date the way Postgres reads it with DateStyle ISO, MDY: either
+    * "2015-05-12" or "5/12/2015".
+    *
+    * @param s the date text
+    * @return the date
+    * @throws java.lang.IllegalArgumentException when s is not a valid date of either form
+    */
+   public static LocalDate parseDate (String s) {
+      String t = s.trim ();
+      try {
+         int first = t.indexOf ('/');
+         if (first < 0)
+            return LocalDate.parse (t);
+         int second = t.indexOf ('/', first + 1);
+         if (second < 0)
+            throw new IllegalArgumentException ("Not a date: " + s);
+         return LocalDate.of (Integer.parseInt (t.substring (second + 1)),
+                              Integer.parseInt (t.substring (0, first)),
+                              Integer.parseInt (t.substring (first + 1, second)));
+      } catch (DateTimeException | NumberFormatException e) {
+         throw new IllegalArgumentException ("Not a date: " + s);
+      }//end try
+   }//end parseDate
+
+   /**
+    * Formats cents the way Postgres prints a Numeric(6,2), e.g. "1501.00".
+    */
+   public static String formatMoney (long cents) {
+      StringBuilder sb = new StringBuilder (12);
+      if (cents < 0) {
+         sb.append ('-');
+         cents = -cents;
+      }//end if
+      long frac = cents % 100;
+      sb.append (cents / 100).append ('.');
+      if (frac < 10)
+         sb.append ('0');
+      return sb.append (frac).toString ();
+   }//end formatMoney
+
+}//end Row
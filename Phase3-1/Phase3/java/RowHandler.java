@@ -0,0 +1,18 @@
+import java.sql.SQLException;
+
+
+/**
+ * Callback used by DBProject.streamQuery.  It is called once per row while
+ * the rows are still being fetched from the server.  The same Row object is
+ * passed for every row, so a handler must copy out what it wants to keep.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * @param row the current row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   void handleRow (Row row) throws SQLException;
+
+}//end RowHandler
@@ -0,0 +1,17 @@
+import java.sql.SQLException;
+
+
+/**
+ * Turns the current row of a query into a value of type T.
+ *
+ */
+public interface RowMapper<T> {
+
+   /**
+    * @param row the current row
+    * @return the decoded value
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   T map (Row row) throws SQLException;
+
+}//end RowMapper
@@ -0,0 +1,335 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+
+/**
+ * Logs the JDBC calls of DBProject that take longer than a threshold,
+ * with their SQL, bound parameters, rows and duration, to a file that
+ * rolls over at a size limit (file, file.1, ... file.<files-1>).
+ *
+ * For a sample of the slow SELECTs the plan is captured as well: the
+ * statement is run again with the same parameters under
+ * EXPLAIN (ANALYZE, BUFFERS), on a read-only connection of its own, and
+ * the plan is written below it.  Each query fingerprint, the SQL with its
+ * literals replaced by '?' and its blanks collapsed, is explained once.
+ *
+ * The calls only hand an entry to a bounded queue; the writing and the
+ * EXPLAINs happen on the daemon thread "slow-query-log".  When the queue
+ * is full, entries are dropped and counted rather than slowing the calls.
+ * An entry the file cannot take, e.g. on a full disk or a failed rename
+ * while rolling over, is counted as lost and the file opened again for the
+ * next one; the error is printed once until a write succeeds again.
+ *
+ * Configured with -Ddbproject.slowQuery.file=<file> (off without it),
+ * dbproject.slowQuery.ms (100), dbproject.slowQuery.explainSample (0.1),
+ * dbproject.slowQuery.maxBytes (10 MB) and dbproject.slowQuery.files (5).
+ *
+ */
+public class SlowQueryLog extends Thread {
+
+   private static final Pattern STRINGS = Pattern.compile ("'(?:[^']|'')*'");
+   private static final Pattern NUMBERS = Pattern.compile ("\\b\\d+(?:\\.\\d+)?\\b");
+   private static final Pattern BLANKS = Pattern.compile ("\\s+");
+   // the most fingerprints remembered before they are forgotten and explained again
+   private static final int MAX_FINGERPRINTS = 10000;
+
+   /*
+    * A slow call, and whether to explain it.
+    */
+   private static final class Entry {
+      final LocalDateTime at = LocalDateTime.now ().truncatedTo (ChronoUnit.MILLIS);
+      final String sql;
+      final Object[] params;
+      final long nanos, rows;
+      final String fingerprint;
+      final boolean explain;
+      final boolean failed;
+
+      Entry (String sql, Object[] params, long nanos, long rows, String fingerprint, boolean explain,
+             boolean failed) {
+         this.sql = sql;
+         this.params = params;
+         this.nanos = nanos;
+         this.rows = rows;
+         this.fingerprint = fingerprint;
+         this.explain = explain;
+         this.failed = failed;
+      }//end Entry
+   }//end Entry
+
+   private final DBProject esql;
+   private final File file;
+   private final long thresholdNanos;
+   private final double explainSample;
+   private final long maxBytes;
+   private final int files;
+
+   private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<> (1000);
+   private final Set<String> explained = ConcurrentHashMap.newKeySet ();
+   private final AtomicLong logged = new AtomicLong ();
+   private final AtomicLong dropped = new AtomicLong ();
+   private final AtomicLong explains = new AtomicLong ();
+   private final AtomicLong lost = new AtomicLong ();
+
+   private OutputStream out;
+   private long size;
+   private boolean failing;
+   private Connection conn;
+   private volatile boolean closed = false;
+
+   /**
+    * @param esql the database the EXPLAINs run against
+    * @param file where the log is written
+    * @param thresholdMs the calls at least this slow are logged
+    * @param explainSample the share of slow SELECTs explained, 0 to 1
+    * @param maxBytes the size at which the file rolls over
+    * @param files the number of files kept, the current one included
+    */
+   public SlowQueryLog (DBProject esql, File file, long thresholdMs, double explainSample, long maxBytes,
+                        int files) {
+      super ("slow-query-log");
+      setDaemon (true);
+      this.esql = esql;
+      this.file = file;
+      this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos (thresholdMs);
+      this.explainSample = explainSample;
+      this.maxBytes = Math.max (4096, maxBytes);
+      this.files = Math.max (1, files);
+   }//end SlowQueryLog
+
+   /**
+    * @return the log the system properties ask for, started, or null when off
+    */
+   static SlowQueryLog fromProperties (DBProject esql) {
+      String path = System.getProperty ("dbproject.slowQuery.file");
+      if (path == null)
+         return null;
+      SlowQueryLog log = new SlowQueryLog (esql, new File (path), Long.getLong ("dbproject.slowQuery.ms", 100L),
+            Double.parseDouble (System.getProperty ("dbproject.slowQuery.explainSample", "0.1")),
+            Long.getLong ("dbproject.slowQuery.maxBytes", 10L << 20),
+            Integer.getInteger ("dbproject.slowQuery.files", 5));
+      log.start ();
+      return log;
+   }//end fromProperties
+
+   /**
+    * Logs a call if it was slow.
+    *
+    * @param sql the statement
+    * @param params its bound parameters, null for a batch
+    * @param nanos how long it took
+    * @param rows the rows it returned or changed
+    * @param failed whether it failed
+    */
+   public void record (String sql, Object[] params, long nanos, long rows, boolean failed) {
+      if (nanos < thresholdNanos)
+         return;
+      String fingerprint = fingerprint (sql);
+      boolean explain = !failed && params != null && isSelect (sql) &&
+                        ThreadLocalRandom.current ().nextDouble () < explainSample && explained.add (fingerprint);
+      if (explained.size () > MAX_FINGERPRINTS)
+         explained.clear ();
+      Entry e = new Entry (sql, params == null ? null : params.clone (), nanos, rows, fingerprint, explain, failed);
+      if (!queue.offer (e)) {
+         dropped.incrementAndGet ();
+         if (explain)
+            explained.remove (fingerprint);
+      }//end if
+   }//end record
+
+   public void run () {
+      try {
+         while (!closed || !queue.isEmpty ()) {
+            Entry e = queue.poll (1, TimeUnit.SECONDS);
+            if (e == null)
+               continue;
+            String text = e.explain ? line (e) + explain (e) : line (e);
+            try {
+               write (text);
+               logged.incrementAndGet ();
+               failing = false;
+            } catch (IOException x) {
+               lost.incrementAndGet ();
+               if (!failing)
+                  System.err.println ("Slow query log: " + x.getMessage () + ", entries are lost until " +
+                                      file + " can be written");
+               failing = true;
+               closeOut ();
+            }//end try
+         }//end while
+      } catch (InterruptedException e) {
+         // closing.
+      } finally {
+         closeConnection ();
+         closeOut ();
+      }//end try
+   }//end run
+
+   /**
+    * Writes what is queued and stops.
+    */
+   public void close () {
+      closed = true;
+      try {
+         join (TimeUnit.SECONDS.toMillis (5));
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+      }//end try
+      interrupt ();
+   }//end close
+
+   public String toString () {
+      return String.format ("slowQueries[logged=%d, explained=%d, dropped=%d, lost=%d, file=%s]", logged.get (),
+                            explains.get (), dropped.get (), lost.get (), file);
+   }//end toString
+
+   /**
+    * @return sql with its literals replaced by '?', its blanks collapsed
+    *         and in lower case, so that calls of one statement match
+    */
+   static String fingerprint (String sql) {
+      String s = STRINGS.matcher (sql).replaceAll ("?");
+      s = NUMBERS.matcher (s).replaceAll ("?");
+      return BLANKS.matcher (s).replaceAll (" ").trim ().toLowerCase ();
+   }//end fingerprint
+
+   private static boolean isSelect (String sql) {
+      return sql.trim ().regionMatches (true, 0, "select", 0, 6);
+   }//end isSelect
+
+   private String line (Entry e) {
+      StringBuilder b = new StringBuilder (256);
+      b.append (e.at).append (e.failed ? " slow-failed " : " slow ")
+       .append (String.format ("%.1f ms", e.nanos / 1e6))
+       .append (" rows=").append (e.rows)
+       .append (" fp=").append (Integer.toHexString (e.fingerprint.hashCode ()))
+       .append (" sql=\"").append (BLANKS.matcher (e.sql).replaceAll (" ").trim ()).append ('"');
+      if (e.params == null) {
+         b.append (" params=batch");
+      } else {
+         b.append (" params=[");
+         for (int i = 0; i < e.params.length; ++i) {
+            if (i > 0)
+               b.append (", ");
+            Object p = e.params[i];
+            if (p instanceof String)
+               b.append ('\'').append (((String) p).replace ("'", "''")).append ('\'');
+            else
+               b.append (p);
+         }//end for
+         b.append (']');
+      }//end if
+      return b.append ('\n').toString ();
+   }//end line
+
+   /*
+    * Runs the statement again under EXPLAIN (ANALYZE, BUFFERS) in a
+    * read-only transaction that is rolled back.
+    */
+   private String explain (Entry e) {
+      StringBuilder b = new StringBuilder (1024);
+      b.append ("  EXPLAIN (ANALYZE, BUFFERS) fp=").append (Integer.toHexString (e.fingerprint.hashCode ()))
+       .append ('\n');
+      try {
+         if (conn == null || conn.isClosed ()) {
+            conn = esql.getPool ().openUnpooled ();
+            conn.setAutoCommit (false);
+            conn.setReadOnly (true);
+            try (Statement s = conn.createStatement ()) {
+               s.execute ("SET statement_timeout = '60s'");
+            }//end try
+            conn.commit ();
+         }//end if
+         try (PreparedStatement stmt = conn.prepareStatement ("EXPLAIN (ANALYZE, BUFFERS) " + e.sql)) {
+            for (int i = 0; i < e.params.length; ++i)
+               DBProject.bind (stmt, i + 1, e.params[i]);
+            try (ResultSet rs = stmt.executeQuery ()) {
+               while (rs.next ())
+                  b.append ("    ").append (rs.getString (1)).append ('\n');
+            }//end try
+         } finally {
+            conn.rollback ();
+         }//end try
+         explains.incrementAndGet ();
+      } catch (SQLException x) {
+         b.append ("    failed: ").append (x.getMessage ()).append ('\n');
+         if (x.getSQLState () != null && x.getSQLState ().startsWith ("08"))
+            closeConnection ();
+      }//end try
+      return b.toString ();
+   }//end explain
+
+   private void write (String text) throws IOException {
+      byte[] bytes = text.getBytes (StandardCharsets.UTF_8);
+      if (out == null) {
+         out = new FileOutputStream (file, true);
+         size = file.length ();
+      }//end if
+      if (size > 0 && size + bytes.length > maxBytes)
+         roll ();
+      out.write (bytes);
+      out.flush ();
+      size += bytes.length;
+   }//end write
+
+   /*
+    * file.<n-2> becomes file.<n-1>, ..., file becomes file.1.
+    */
+   private void roll () throws IOException {
+      out.close ();
+      for (int i = files - 1; i >= 1; --i) {
+         File from = i == 1 ? file : new File (file.getPath () + "." + (i - 1));
+         if (from.exists ())
+            Files.move (from.toPath (), new File (file.getPath () + "." + i).toPath (),
+                        StandardCopyOption.REPLACE_EXISTING);
+      }//end for
+      if (files == 1)
+         Files.deleteIfExists (file.toPath ());
+      out = new FileOutputStream (file, true);
+      size = 0;
+   }//end roll
+
+   private void closeConnection () {
+      try {
+         if (conn != null)
+            conn.close ();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+      conn = null;
+   }//end closeConnection
+
+   /*
+    * Closes the file, so that the next write opens it again.
+    */
+   private void closeOut () {
+      try {
+         if (out != null)
+            out.close ();
+      } catch (IOException e) {
+         // ignored.
+      }//end try
+      out = null;
+   }//end closeOut
+
+}//end SlowQueryLog
@@ -0,0 +1,577 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+/**
+ * A binary copy of the rows the in-memory indexes are built from, so that
+ * a new process fills them from a file instead of scanning booking, room,
+ * customer and repair:
+ *
+ *    occupancy          rooms (hotelID, roomNo) and bookings
+ *    top-K              bookings (bID, customer, hotelID, roomNo, day, price)
+ *    name resolution    customers (customerID, fName, lName)
+ *    repair histogram   repairs (hotelID, roomNo, year)
+ *
+ * The file is a fixed header followed by one column per field, each a
+ * plain big-endian array, so that open maps every column read-only and the
+ * indexes read it in place.  The header holds a format version, a CRC32 of
+ * all columns and, per table, the watermark the rows were read at: the
+ * database, the largest key, the insert, update and delete counters of
+ * pg_stat and the table's filenode (which TRUNCATE changes).
+ *
+ * Restoring a table compares its watermark with the database.  When the
+ * only changes since are inserts of keys above the largest one, exactly as
+ * many as pg_stat counted, the index gets the snapshot's rows plus those
+ * read with "key > largest"; otherwise the method returns false and the
+ * index reads the table as it would without a snapshot.  Since pg_stat
+ * counts reach the statistics a moment after a commit and count inserts
+ * that rolled back, a fresh or failed insert only costs the warm start,
+ * never a wrong index.  Rooms have no key and are read again whenever the
+ * room table changed.
+ *
+ * Writer writes a new snapshot every so often from a REPEATABLE READ
+ * transaction, to a temporary file that replaces the old one.
+ *
+ */
+public class Snapshot {
+
+   // "DBPSNAP1"
+   private static final long MAGIC = 0x444250534E415031L;
+   private static final int VERSION = 1;
+
+   // tables, with the key the delta is read by
+   private static final int ROOM = 0, BOOKING = 1, CUSTOMER = 2, REPAIR = 3;
+   private static final String[] TABLES = { ResultCache.ROOM, ResultCache.BOOKING, ResultCache.CUSTOMER,
+                                            ResultCache.REPAIR };
+   private static final String[] KEYS = { "0", "bID", "customerID", "rID" };
+
+   // the longs of a watermark
+   private static final int DATABASE = 0, MAX_KEY = 1, INSERTED = 2, UPDATED = 3, DELETED = 4, FILENODE = 5;
+   private static final int MARK = 6;
+
+   // columns
+   private static final int ROOM_HOTEL = 0, ROOM_NO = 1;
+   private static final int BOOKING_ID = 2, BOOKING_CUSTOMER = 3, BOOKING_HOTEL = 4, BOOKING_ROOM = 5,
+                            BOOKING_DAY = 6, BOOKING_PRICE = 7;
+   // the names are "fName\u0000lName" in UTF-8, one after the other, and
+   // CUSTOMER_END holds where each ends
+   private static final int CUSTOMER_ID = 8, CUSTOMER_END = 9, CUSTOMER_NAMES = 10;
+   private static final int REPAIR_HOTEL = 11, REPAIR_ROOM = 12, REPAIR_YEAR = 13;
+   private static final int COLUMNS = 14;
+
+   // magic, version, columns, created, crc, the marks, then offset and
+   // length of each column
+   private static final int HEADER = 32 + TABLES.length * MARK * 8 + COLUMNS * 16;
+
+   public interface RoomHandler {
+      void room (int hotelID, int roomNo);
+   }//end RoomHandler
+
+   public interface BookingHandler {
+      void booking (int bID, int customer, int hotelID, int roomNo, long day, long priceCents);
+   }//end BookingHandler
+
+   public interface CustomerHandler {
+      void customer (int customerID, String fName, String lName);
+   }//end CustomerHandler
+
+   public interface RepairHandler {
+      void repair (int hotelID, int roomNo, int year);
+   }//end RepairHandler
+
+   /*
+    * Runs a query and hands its rows to a handler, DBProject.streamQuery
+    * or a query on the writer's own connection.
+    */
+   private interface Source {
+      void query (String query, RowHandler handler, Object... params) throws SQLException;
+   }//end Source
+
+   private final File file;
+   private final long created;
+   private final long[][] marks = new long[TABLES.length][MARK];
+   private final ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+
+   private Snapshot (File file, long created) {
+      this.file = file;
+      this.created = created;
+   }//end Snapshot
+
+   /**
+    * Maps a snapshot file and checks its format and checksum.
+    *
+    * @param file the file Writer wrote
+    * @return the snapshot
+    * @throws java.io.IOException when the file cannot be read, is of
+    *    another version or its columns do not match the checksum
+    */
+   public static Snapshot open (File file) throws IOException {
+      try (FileChannel in = FileChannel.open (file.toPath (), StandardOpenOption.READ)) {
+         if (in.size () < HEADER)
+            throw new IOException (file + " is not a snapshot");
+         ByteBuffer header = in.map (FileChannel.MapMode.READ_ONLY, 0, HEADER);
+         if (header.getLong () != MAGIC)
+            throw new IOException (file + " is not a snapshot");
+         int version = header.getInt ();
+         if (version != VERSION || header.getInt () != COLUMNS)
+            throw new IOException (file + " is a snapshot of version " + version + ", not " + VERSION);
+         Snapshot s = new Snapshot (file, header.getLong ());
+         long crc = header.getLong ();
+         for (long[] mark : s.marks)
+            for (int i = 0; i < MARK; ++i)
+               mark[i] = header.getLong ();
+         CRC32 check = new CRC32 ();
+         for (int c = 0; c < COLUMNS; ++c) {
+            long offset = header.getLong (), length = header.getLong ();
+            if (offset < HEADER || length < 0 || length > Integer.MAX_VALUE || offset + length > in.size ())
+               throw new IOException (file + " is truncated or damaged");
+            MappedByteBuffer column = in.map (FileChannel.MapMode.READ_ONLY, offset, length);
+            check.update (column.duplicate ());
+            s.columns[c] = column;
+         }//end for
+         if (check.getValue () != crc)
+            throw new IOException (file + " does not match its checksum");
+         return s;
+      }//end try
+   }//end open
+
+   /**
+    * Hands every room to handler, from the snapshot when the room table is
+    * unchanged since, otherwise from the table.
+    *
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public void rooms (DBProject esql, final RoomHandler handler) throws SQLException {
+      long[] now = mark (esql::streamQuery, ROOM);
+      if (Arrays.equals (now, marks[ROOM])) {
+         IntBuffer hotel = ints (ROOM_HOTEL), no = ints (ROOM_NO);
+         for (int i = 0, n = hotel.limit (); i < n; ++i)
+            handler.room (hotel.get (i), no.get (i));
+      } else {
+         esql.streamQuery ("SELECT hotelID, roomNo FROM room", row -> handler.room (row.getInt (1), row.getInt (2)));
+      }//end if
+   }//end rooms
+
+   /**
+    * Hands every booking to handler, the snapshot's first.
+    *
+    * @return false, having handed none, when the booking table changed
+    *    other than by inserts of larger keys
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public boolean bookings (DBProject esql, BookingHandler handler) throws SQLException {
+      final List<long[]> added = new ArrayList<>();
+      if (!delta (esql, BOOKING, "SELECT bID, customer, hotelID, roomNo, bookingDate, price FROM booking WHERE bID > ?",
+                  row -> added.add (new long[] { row.getInt (1), row.getInt (2), row.getInt (3), row.getInt (4),
+                                                 row.getDate (5).toEpochDay (), row.getMoney (6) }), added))
+         return false;
+      IntBuffer id = ints (BOOKING_ID), customer = ints (BOOKING_CUSTOMER), hotel = ints (BOOKING_HOTEL);
+      IntBuffer room = ints (BOOKING_ROOM), day = ints (BOOKING_DAY);
+      LongBuffer price = columns[BOOKING_PRICE].duplicate ().asLongBuffer ();
+      for (int i = 0, n = id.limit (); i < n; ++i)
+         handler.booking (id.get (i), customer.get (i), hotel.get (i), room.get (i), day.get (i), price.get (i));
+      for (long[] b : added)
+         handler.booking ((int) b[0], (int) b[1], (int) b[2], (int) b[3], b[4], b[5]);
+      return true;
+   }//end bookings
+
+   /**
+    * Hands every customer to handler, the snapshot's first.
+    *
+    * @return false, having handed none, when the customer table changed
+    *    other than by inserts of larger keys
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public boolean customers (DBProject esql, CustomerHandler handler) throws SQLException {
+      final List<Object[]> added = new ArrayList<>();
+      if (!delta (esql, CUSTOMER, "SELECT customerID, fName, lName FROM customer WHERE customerID > ?",
+                  row -> added.add (new Object[] { row.getInt (1), row.getString (2), row.getString (3) }), added))
+         return false;
+      IntBuffer id = ints (CUSTOMER_ID), end = ints (CUSTOMER_END);
+      ByteBuffer names = columns[CUSTOMER_NAMES].duplicate ();
+      byte[] text = new byte[64];
+      for (int i = 0, n = id.limit (), start = 0; i < n; start = end.get (i++)) {
+         int length = end.get (i) - start;
+         if (length > text.length)
+            text = new byte[Math.max (length, text.length * 2)];
+         names.position (start);
+         names.get (text, 0, length);
+         String name = new String (text, 0, length, StandardCharsets.UTF_8);
+         int split = name.indexOf ('\u0000');
+         handler.customer (id.get (i), name.substring (0, split), name.substring (split + 1));
+      }//end for
+      for (Object[] c : added)
+         handler.customer ((Integer) c[0], (String) c[1], (String) c[2]);
+      return true;
+   }//end customers
+
+   /**
+    * Hands every repair to handler, the snapshot's first.
+    *
+    * @return false, having handed none, when the repair table changed
+    *    other than by inserts of larger keys
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public boolean repairs (DBProject esql, RepairHandler handler) throws SQLException {
+      final List<int[]> added = new ArrayList<>();
+      if (!delta (esql, REPAIR, "SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate) FROM repair WHERE rID > ?",
+                  row -> added.add (new int[] { row.getInt (1), row.getInt (2), row.getInt (3) }), added))
+         return false;
+      IntBuffer hotel = ints (REPAIR_HOTEL), room = ints (REPAIR_ROOM);
+      ShortBuffer year = columns[REPAIR_YEAR].duplicate ().asShortBuffer ();
+      for (int i = 0, n = hotel.limit (); i < n; ++i)
+         handler.repair (hotel.get (i), room.get (i), year.get (i));
+      for (int[] r : added)
+         handler.repair (r[0], r[1], r[2]);
+      return true;
+   }//end repairs
+
+   /**
+    * @return when the snapshot was written, in milliseconds since 1970
+    */
+   public long getCreated () {
+      return created;
+   }//end getCreated
+
+   public File getFile () {
+      return file;
+   }//end getFile
+
+   public String toString () {
+      return String.format ("snapshot[file=%s, rooms=%d, bookings=%d, customers=%d, repairs=%d, age=%ds]",
+                            file, ints (ROOM_HOTEL).limit (), ints (BOOKING_ID).limit (), ints (CUSTOMER_ID).limit (),
+                            ints (REPAIR_HOTEL).limit (), (System.currentTimeMillis () - created) / 1000);
+   }//end toString
+
+   private IntBuffer ints (int column) {
+      return columns[column].duplicate ().asIntBuffer ();
+   }//end ints
+
+   /*
+    * Reads the rows of a table added since the snapshot into added, and
+    * checks that nothing else changed.
+    */
+   private boolean delta (DBProject esql, int table, String query, RowHandler handler, List<?> added)
+         throws SQLException {
+      long[] then = marks[table];
+      long[] now = mark (esql::streamQuery, table);
+      if (now[DATABASE] != then[DATABASE] || now[FILENODE] != then[FILENODE] || now[UPDATED] != then[UPDATED] ||
+          now[DELETED] != then[DELETED] || now[INSERTED] < then[INSERTED] || now[MAX_KEY] < then[MAX_KEY])
+         return false;
+      if (now[MAX_KEY] > then[MAX_KEY])
+         esql.streamQuery (query, handler, then[MAX_KEY]);
+      return added.size () == now[INSERTED] - then[INSERTED];
+   }//end delta
+
+   /*
+    * The watermark of a table as the database stands.
+    */
+   private static long[] mark (Source source, int table) throws SQLException {
+      final long[] mark = new long[MARK];
+      source.query ("SELECT (SELECT oid FROM pg_database WHERE datname = current_database()), " +
+                    "coalesce((SELECT max(" + KEYS[table] + ") FROM " + TABLES[table] + "), 0), " +
+                    "pg_stat_get_tuples_inserted(c.oid), pg_stat_get_tuples_updated(c.oid), " +
+                    "pg_stat_get_tuples_deleted(c.oid), pg_relation_filenode(c.oid) " +
+                    "FROM pg_class c WHERE c.oid = '" + TABLES[table] + "'::regclass", row -> {
+         for (int i = 0; i < MARK; ++i)
+            mark[i] = row.getLong (i + 1);
+      });
+      return mark;
+   }//end mark
+
+   /**
+    * Writes a snapshot of the database to file, replacing it once complete.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public static void write (DBProject esql, File file) throws SQLException, IOException {
+      final Ints roomHotel = new Ints (), roomNo = new Ints ();
+      final Ints bookingID = new Ints (), bookingCustomer = new Ints (), bookingHotel = new Ints ();
+      final Ints bookingRoom = new Ints (), bookingDay = new Ints ();
+      final Longs bookingPrice = new Longs ();
+      final Ints customerID = new Ints (), customerEnd = new Ints ();
+      final ByteArrayOutputStream customerNames = new ByteArrayOutputStream ();
+      final Ints repairHotel = new Ints (), repairRoom = new Ints (), repairYear = new Ints ();
+      long[][] marks = new long[TABLES.length][];
+
+      try (final Connection c = esql.getPool ().openUnpooled ()) {
+         // every table and watermark as of one moment
+         c.setTransactionIsolation (Connection.TRANSACTION_REPEATABLE_READ);
+         c.setAutoCommit (false);
+         c.setReadOnly (true);
+         Source source = (query, handler, params) -> stream (c, query, handler, params);
+         for (int t = 0; t < TABLES.length; ++t)
+            marks[t] = mark (source, t);
+         source.query ("SELECT hotelID, roomNo FROM room", row -> {
+            roomHotel.add (row.getInt (1));
+            roomNo.add (row.getInt (2));
+         });
+         source.query ("SELECT bID, customer, hotelID, roomNo, bookingDate, price FROM booking", row -> {
+            bookingID.add (row.getInt (1));
+            bookingCustomer.add (row.getInt (2));
+            bookingHotel.add (row.getInt (3));
+            bookingRoom.add (row.getInt (4));
+            bookingDay.add (day (row.getDate (5)));
+            bookingPrice.add (row.getMoney (6));
+         });
+         source.query ("SELECT customerID, trim(fName), trim(lName) FROM customer", row -> {
+            byte[] name = (row.getString (2) + '\u0000' + row.getString (3)).getBytes (StandardCharsets.UTF_8);
+            customerNames.write (name, 0, name.length);
+            customerID.add (row.getInt (1));
+            customerEnd.add (customerNames.size ());
+         });
+         source.query ("SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate) FROM repair", row -> {
+            repairHotel.add (row.getInt (1));
+            repairRoom.add (row.getInt (2));
+            repairYear.add (row.getInt (3));
+         });
+         c.commit ();
+      }//end try
+
+      File tmp = new File (file.getPath () + ".tmp");
+      try (FileChannel out = FileChannel.open (tmp.toPath (), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+         Columns w = new Columns (out);
+         w.ints (roomHotel);
+         w.ints (roomNo);
+         w.ints (bookingID);
+         w.ints (bookingCustomer);
+         w.ints (bookingHotel);
+         w.ints (bookingRoom);
+         w.ints (bookingDay);
+         w.longs (bookingPrice);
+         w.ints (customerID);
+         w.ints (customerEnd);
+         w.bytes (customerNames.toByteArray ());
+         w.ints (repairHotel);
+         w.ints (repairRoom);
+         w.shorts (repairYear);
+
+         ByteBuffer header = ByteBuffer.allocate (HEADER);
+         header.putLong (MAGIC).putInt (VERSION).putInt (COLUMNS);
+         header.putLong (System.currentTimeMillis ()).putLong (w.crc.getValue ());
+         for (long[] mark : marks)
+            for (long m : mark)
+               header.putLong (m);
+         for (int i = 0; i < COLUMNS; ++i)
+            header.putLong (w.offsets[i]).putLong (w.lengths[i]);
+         header.flip ();
+         while (header.hasRemaining ())
+            out.write (header, header.position ());
+         out.force (true);
+      }//end try
+      Files.move (tmp.toPath (), file.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }//end write
+
+   private static int day (LocalDate d) throws SQLException {
+      long day = d.toEpochDay ();
+      if (day < Integer.MIN_VALUE || day > Integer.MAX_VALUE)
+         throw new SQLException ("date out of range: \"" + d + "\"", "22008");
+      return (int) day;
+   }//end day
+
+   private static void stream (Connection c, String query, RowHandler handler, Object... params)
+         throws SQLException {
+      try (PreparedStatement stmt = c.prepareStatement (query)) {
+         for (int i = 0; i < params.length; ++i)
+            stmt.setObject (i + 1, params[i]);
+         stmt.setFetchSize (10000);
+         try (ResultSet rs = stmt.executeQuery ()) {
+            Row row = new Row (rs);
+            while (rs.next ())
+               handler.handleRow (row);
+         }//end try
+      }//end try
+   }//end stream
+
+   /*
+    * A growable int column.
+    */
+   private static final class Ints {
+      int[] values = new int[1024];
+      int size;
+
+      void add (int v) {
+         values = ColumnStore.grow (values, size);
+         values[size++] = v;
+      }//end add
+   }//end Ints
+
+   /*
+    * A growable long column.
+    */
+   private static final class Longs {
+      long[] values = new long[1024];
+      int size;
+
+      void add (long v) {
+         values = ColumnStore.grow (values, size);
+         values[size++] = v;
+      }//end add
+   }//end Longs
+
+   /*
+    * Writes columns one after the other from HEADER on, each starting at a
+    * multiple of 8, through one buffer, and sums them into crc.
+    */
+   private static final class Columns {
+      final FileChannel out;
+      final ByteBuffer buffer = ByteBuffer.allocateDirect (1 << 20);
+      final CRC32 crc = new CRC32 ();
+      final long[] offsets = new long[COLUMNS];
+      final long[] lengths = new long[COLUMNS];
+      long position = HEADER;
+      int column;
+
+      Columns (FileChannel out) {
+         this.out = out;
+      }//end Columns
+
+      void ints (Ints c) throws IOException {
+         begin ();
+         for (int i = 0; i < c.size; ++i) {
+            room (4);
+            buffer.putInt (c.values[i]);
+         }//end for
+         end ();
+      }//end ints
+
+      void shorts (Ints c) throws IOException {
+         begin ();
+         for (int i = 0; i < c.size; ++i) {
+            room (2);
+            buffer.putShort ((short) c.values[i]);
+         }//end for
+         end ();
+      }//end shorts
+
+      void longs (Longs c) throws IOException {
+         begin ();
+         for (int i = 0; i < c.size; ++i) {
+            room (8);
+            buffer.putLong (c.values[i]);
+         }//end for
+         end ();
+      }//end longs
+
+      void bytes (byte[] values) throws IOException {
+         begin ();
+         for (int i = 0; i < values.length; ) {
+            room (1);
+            int n = Math.min (buffer.remaining (), values.length - i);
+            buffer.put (values, i, n);
+            i += n;
+         }//end for
+         end ();
+      }//end bytes
+
+      private void begin () {
+         position = (position + 7) & ~7L;
+         offsets[column] = position;
+      }//end begin
+
+      private void room (int bytes) throws IOException {
+         if (buffer.remaining () < bytes)
+            flush ();
+      }//end room
+
+      private void end () throws IOException {
+         flush ();
+         lengths[column] = position - offsets[column];
+         ++column;
+      }//end end
+
+      private void flush () throws IOException {
+         buffer.flip ();
+         crc.update (buffer.duplicate ());
+         while (buffer.hasRemaining ())
+            position += out.write (buffer, position);
+         buffer.clear ();
+      }//end flush
+   }//end Columns
+
+   /**
+    * Writes a snapshot every interval on a daemon thread and hands each to
+    * DBProject.setSnapshot.  A failed write is reported and retried at the
+    * next interval.
+    */
+   public static final class Writer implements Runnable {
+      private final DBProject esql;
+      private final File file;
+      private final long intervalMs;
+      private final boolean now;
+      private final Thread thread;
+      private volatile boolean closed;
+      private volatile long written;
+      private volatile long lastMs;
+
+      /**
+       * @param now whether to write the first snapshot right away rather
+       *    than after an interval
+       */
+      public Writer (DBProject esql, File file, long intervalMs, boolean now) {
+         this.esql = esql;
+         this.file = file;
+         this.intervalMs = Math.max (1000, intervalMs);
+         this.now = now;
+         this.thread = new Thread (this, "snapshot-writer");
+         this.thread.setDaemon (true);
+      }//end Writer
+
+      public void start () {
+         thread.start ();
+      }//end start
+
+      public void close () {
+         closed = true;
+         thread.interrupt ();
+      }//end close
+
+      public void run () {
+         boolean wait = !now;
+         while (!closed) {
+            try {
+               if (wait)
+                  Thread.sleep (intervalMs);
+               wait = true;
+               long start = System.nanoTime ();
+               write (esql, file);
+               esql.setSnapshot (open (file));
+               lastMs = (System.nanoTime () - start) / 1000000;
+               ++written;
+            } catch (InterruptedException e) {
+               break;
+            } catch (SQLException | IOException e) {
+               if (!closed)
+                  System.err.println ("Snapshot writer: " + e.getMessage ());
+            }//end try
+         }//end while
+      }//end run
+
+      public String toString () {
+         return String.format ("snapshot-writer[file=%s, written=%d, lastMs=%d]", file, written, lastMs);
+      }//end toString
+   }//end Writer
+
+}//end Snapshot
@@ -0,0 +1,109 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Least-recently-used cache of PreparedStatements for one physical
+ * connection, keyed by the SQL text (the query shape, parameters are bound
+ * separately).  A cache is only ever used by the thread that borrowed its
+ * connection, so it needs no locking of its own; the hit and miss counters
+ * are shared by all caches of a DBProject instance.
+ *
+ */
+public class StatementCache {
+
+   /**
+    * Hit, miss and eviction counters shared by every cache of a pool.
+    */
+   public static class Counters {
+      final AtomicLong hits = new AtomicLong();
+      final AtomicLong misses = new AtomicLong();
+      final AtomicLong evictions = new AtomicLong();
+
+      public long getHits () { return hits.get (); }
+      public long getMisses () { return misses.get (); }
+      public long getEvictions () { return evictions.get (); }
+
+      public double getHitRate () {
+         long h = hits.get (), total = h + misses.get ();
+         return total == 0 ? 0.0 : (double) h / total;
+      }//end getHitRate
+
+      public String toString () {
+         return String.format ("statements[hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%]",
+                               getHits (), getMisses (), getEvictions (), getHitRate () * 100);
+      }//end toString
+   }//end Counters
+
+   private final Connection connection;
+   private final Counters counters;
+   private final LinkedHashMap<String, PreparedStatement> statements;
+
+   /**
+    * @param connection the connection the statements are prepared on
+    * @param capacity the maximum number of statements kept open
+    * @param counters the counters to record hits and misses in
+    */
+   public StatementCache (Connection connection, final int capacity, Counters counters) {
+      this.connection = connection;
+      this.counters = counters;
+      this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+            if (size () <= capacity)
+               return false;
+            close (eldest.getValue ());
+            StatementCache.this.counters.evictions.incrementAndGet ();
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for sql, preparing it on a miss.  The
+    * parameters of a cached statement are cleared before it is returned.
+    *
+    * @param sql the parameterized SQL text
+    * @return a statement ready for binding
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement get (String sql) throws SQLException {
+      PreparedStatement ps = statements.get (sql);
+      if (ps != null && !ps.isClosed ()) {
+         counters.hits.incrementAndGet ();
+         ps.clearParameters ();
+         return ps;
+      }//end if
+      counters.misses.incrementAndGet ();
+      ps = connection.prepareStatement (sql);
+      statements.put (sql, ps);
+      return ps;
+   }//end get
+
+   /**
+    * Closes and forgets every cached statement.
+    */
+   public void clear () {
+      for (Iterator<PreparedStatement> it = statements.values ().iterator (); it.hasNext (); ) {
+         close (it.next ());
+         it.remove ();
+      }//end for
+   }//end clear
+
+   public int size () {
+      return statements.size ();
+   }//end size
+
+   private static void close (PreparedStatement ps) {
+      try {
+         ps.close ();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end close
+
+}//end StatementCache
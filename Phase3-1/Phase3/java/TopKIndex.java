@@ -0,0 +1,323 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Every booking ordered by price, twice: once per calendar month and once
+ * per customer.  Each list is kept sorted (highest price first) as bookRoom
+ * adds to it, so the K most expensive bookings of a date range or of a set
+ * of customers come from a K-way merge of the heads of the lists involved
+ * instead of sorting every matching row:
+ *
+ *    date range   the months it touches; the first and last month may
+ *                 hold bookings outside the range, which are skipped
+ *    customers    the lists of each customer of that name
+ *
+ * A merge costs O(B log B + K log B) for B lists, independent of how many
+ * bookings they hold.  The whole booking table is read on first use.
+ *
+ */
+public class TopKIndex {
+
+   /**
+    * One booking as the index holds it.
+    */
+   public static final class Booking {
+      public final int bID;
+      public final int customer;
+      public final int hotelID;
+      public final int roomNo;
+      public final long day;
+      public final long priceCents;
+
+      Booking (int bID, int customer, int hotelID, int roomNo, long day, long priceCents) {
+         this.bID = bID;
+         this.customer = customer;
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.day = day;
+         this.priceCents = priceCents;
+      }//end Booking
+
+      public LocalDate getDate () {
+         return LocalDate.ofEpochDay (day);
+      }//end getDate
+   }//end Booking
+
+   // highest price first, then the older booking
+   private static final Comparator<Booking> BY_PRICE = (a, b) ->
+      a.priceCents != b.priceCents ? Long.compare (b.priceCents, a.priceCents) : Integer.compare (a.bID, b.bID);
+
+   /*
+    * Bookings sorted by BY_PRICE in a growable array.
+    */
+   private static class Sorted {
+      int size;
+      Booking[] items = new Booking[4];
+
+      void add (Booking b) {
+         int at = Arrays.binarySearch (items, 0, size, b, BY_PRICE);
+         if (at >= 0)
+            return;
+         at = -at - 1;
+         if (size == items.length)
+            items = Arrays.copyOf (items, size * 2);
+         System.arraycopy (items, at, items, at + 1, size - at);
+         items[at] = b;
+         ++size;
+      }//end add
+   }//end Sorted
+
+   /*
+    * The position of a merge in one list.
+    */
+   private static class Cursor {
+      final Sorted list;
+      int next;
+
+      Cursor (Sorted list) {
+         this.list = list;
+      }//end Cursor
+
+      Booking head () {
+         return list.items[next];
+      }//end head
+   }//end Cursor
+
+   private final DBProject esql;
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock ();
+   private boolean loaded;
+   // by year * 12 + month - 1
+   private final TreeMap<Integer, Sorted> months = new TreeMap<>();
+   private final Map<Integer, Sorted> customers = new HashMap<>();
+   private long size;
+
+   public TopKIndex (DBProject esql) {
+      this.esql = esql;
+   }//end TopKIndex
+
+   /**
+    * @param from the first day
+    * @param to the last day, inclusive
+    * @param k the number of bookings wanted
+    * @return the k most expensive bookings from from to to, highest price first
+    * @throws java.sql.SQLException when the bookings cannot be read
+    */
+   public List<Booking> topByDate (LocalDate from, LocalDate to, int k) throws SQLException {
+      load ();
+      final long first = from.toEpochDay (), last = to.toEpochDay ();
+      if (last < first)
+         return new ArrayList<>();
+      lock.readLock ().lock ();
+      try {
+         Collection<Sorted> lists = months.subMap (month (from), true, month (to), true).values ();
+         return merge (lists, k, b -> b.day >= first && b.day <= last);
+      } finally {
+         lock.readLock ().unlock ();
+      }//end try
+   }//end topByDate
+
+   /**
+    * @param customerIDs the customers
+    * @param k the number of bookings wanted
+    * @return the k most expensive bookings of these customers, highest price first
+    * @throws java.sql.SQLException when the bookings cannot be read
+    */
+   public List<Booking> topByCustomer (Collection<Integer> customerIDs, int k) throws SQLException {
+      load ();
+      lock.readLock ().lock ();
+      try {
+         List<Sorted> lists = new ArrayList<>();
+         for (Integer c : customerIDs) {
+            Sorted s = customers.get (c);
+            if (s != null)
+               lists.add (s);
+         }//end for
+         return merge (lists, k, null);
+      } finally {
+         lock.readLock ().unlock ();
+      }//end try
+   }//end topByCustomer
+
+   /**
+    * Records a booking inserted into the database, once the index is read.
+    */
+   public void booked (int bID, int customer, int hotelID, int roomNo, LocalDate day, long priceCents) {
+      lock.writeLock ().lock ();
+      try {
+         if (loaded)
+            add (new Booking (bID, customer, hotelID, roomNo, day.toEpochDay (), priceCents));
+      } finally {
+         lock.writeLock ().unlock ();
+      }//end try
+   }//end booked
+
+   /**
+    * Fills the index from a snapshot instead of reading the booking table,
+    * unless it is read already.
+    *
+    * @return false when the snapshot does not cover the booking table
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public boolean restore (Snapshot s) throws SQLException {
+      lock.writeLock ().lock ();
+      try {
+         if (loaded)
+            return true;
+         final List<Booking> all = new ArrayList<>();
+         if (!s.bookings (esql, (bID, customer, hotelID, roomNo, day, priceCents) ->
+                             all.add (new Booking (bID, customer, hotelID, roomNo, day, priceCents))))
+            return false;
+         fill (all);
+         return true;
+      } finally {
+         lock.writeLock ().unlock ();
+      }//end try
+   }//end restore
+
+   /**
+    * Drops every booking, so that the index is read again on its next use.
+    */
+   public void clear () {
+      lock.writeLock ().lock ();
+      try {
+         months.clear ();
+         customers.clear ();
+         size = 0;
+         loaded = false;
+      } finally {
+         lock.writeLock ().unlock ();
+      }//end try
+   }//end clear
+
+   public String toString () {
+      lock.readLock ().lock ();
+      try {
+         return String.format ("topk[bookings=%d, months=%d, customers=%d]", size, months.size (), customers.size ());
+      } finally {
+         lock.readLock ().unlock ();
+      }//end try
+   }//end toString
+
+   /*
+    * The filter of a merge; null accepts every booking.
+    */
+   private interface Filter {
+      boolean accept (Booking b);
+   }//end Filter
+
+   /*
+    * Takes the k highest bookings of the sorted lists that pass filter,
+    * keeping one cursor per list in a heap ordered by its current head.
+    */
+   private static List<Booking> merge (Collection<Sorted> lists, int k, Filter filter) {
+      List<Booking> top = new ArrayList<>(Math.max (0, Math.min (k, 1024)));
+      if (k <= 0)
+         return top;
+      PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max (1, lists.size ()),
+                                                       (a, b) -> BY_PRICE.compare (a.head (), b.head ()));
+      for (Sorted s : lists) {
+         Cursor c = new Cursor (s);
+         if (advance (c, filter))
+            heap.add (c);
+      }//end for
+      while (top.size () < k && !heap.isEmpty ()) {
+         Cursor c = heap.poll ();
+         top.add (c.head ());
+         ++c.next;
+         if (advance (c, filter))
+            heap.add (c);
+      }//end while
+      return top;
+   }//end merge
+
+   /*
+    * Moves a cursor to the next booking that passes filter.
+    *
+    * @return false when the list is exhausted
+    */
+   private static boolean advance (Cursor c, Filter filter) {
+      if (filter != null)
+         while (c.next < c.list.size && !filter.accept (c.head ()))
+            ++c.next;
+      return c.next < c.list.size;
+   }//end advance
+
+   private void add (Booking b) {
+      list (months, month (b.getDate ())).add (b);
+      list (customers, b.customer).add (b);
+      ++size;
+   }//end add
+
+   private static Sorted list (Map<Integer, Sorted> lists, int key) {
+      Sorted s = lists.get (key);
+      if (s == null)
+         lists.put (key, s = new Sorted ());
+      return s;
+   }//end list
+
+   private void load () throws SQLException {
+      lock.readLock ().lock ();
+      try {
+         if (loaded)
+            return;
+      } finally {
+         lock.readLock ().unlock ();
+      }//end try
+      lock.writeLock ().lock ();
+      try {
+         if (loaded)
+            return;
+         final List<Booking> all = new ArrayList<>();
+         esql.streamQuery ("SELECT bID, customer, hotelID, roomNo, bookingDate, price FROM booking", row -> {
+            LocalDate day = row.getDate (5);
+            all.add (new Booking (row.getInt (1), row.getInt (2), row.getInt (3), row.getInt (4),
+                                  day.toEpochDay (), row.getMoney (6)));
+         });
+         fill (all);
+      } finally {
+         lock.writeLock ().unlock ();
+      }//end try
+   }//end load
+
+   /*
+    * Builds the lists from every booking at once, sorting them once at the
+    * end instead of on every add.  Called holding the write lock.
+    */
+   private void fill (List<Booking> all) {
+      all.sort (BY_PRICE);
+      for (Booking b : all)
+         append (b);
+      loaded = true;
+   }//end fill
+
+   /*
+    * Adds a booking that sorts after every booking already held.
+    */
+   private void append (Booking b) {
+      append (list (months, month (b.getDate ())), b);
+      append (list (customers, b.customer), b);
+      ++size;
+   }//end append
+
+   private static void append (Sorted s, Booking b) {
+      if (s.size == s.items.length)
+         s.items = Arrays.copyOf (s.items, s.size * 2);
+      s.items[s.size++] = b;
+   }//end append
+
+   private static int month (LocalDate day) {
+      return day.getYear () * 12 + day.getMonthValue () - 1;
+   }//end month
+
+}//end TopKIndex
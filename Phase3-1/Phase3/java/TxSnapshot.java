@@ -0,0 +1,67 @@
+/**
+ * The transactions whose rows a query saw, as txid_current_snapshot()
+ * prints them: "xmin:xmax:xip,...".  Transactions below xmin had committed,
+ * those from xmax on had not started, and those listed in between were
+ * still running; the rest of [xmin, xmax) had committed.
+ *
+ * A reload reads the snapshot in the same statement as its rows, so that
+ * a notification of a later insert can tell whether the reload saw it.
+ *
+ */
+public final class TxSnapshot {
+
+   private final long xmin;
+   private final long xmax;
+   private final long[] running;
+
+   private TxSnapshot (long xmin, long xmax, long[] running) {
+      this.xmin = xmin;
+      this.xmax = xmax;
+      this.running = running;
+   }//end TxSnapshot
+
+   /**
+    * @param s the snapshot as txid_current_snapshot()::text prints it
+    * @return the snapshot, or null when s is null
+    * @throws java.lang.IllegalArgumentException when s is not a snapshot
+    */
+   public static TxSnapshot parse (String s) {
+      if (s == null)
+         return null;
+      String[] f = s.trim ().split (":", -1);
+      if (f.length != 3)
+         throw new IllegalArgumentException ("Not a snapshot: " + s);
+      try {
+         String[] ids = f[2].isEmpty () ? new String[0] : f[2].split (",");
+         long[] running = new long[ids.length];
+         for (int i = 0; i < ids.length; ++i)
+            running[i] = Long.parseLong (ids[i]);
+         return new TxSnapshot (Long.parseLong (f[0]), Long.parseLong (f[1]), running);
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException ("Not a snapshot: " + s);
+      }//end try
+   }//end parse
+
+   /**
+    * @param xid a transaction id as txid_current() returns it
+    * @return whether the rows that transaction committed were visible
+    */
+   public boolean sees (long xid) {
+      if (xid < xmin)
+         return true;
+      if (xid >= xmax)
+         return false;
+      for (long r : running)
+         if (r == xid)
+            return false;
+      return true;
+   }//end sees
+
+   public String toString () {
+      StringBuilder sb = new StringBuilder ().append (xmin).append (':').append (xmax).append (':');
+      for (int i = 0; i < running.length; ++i)
+         sb.append (i == 0 ? "" : ",").append (running[i]);
+      return sb.toString ();
+   }//end toString
+
+}//end TxSnapshot
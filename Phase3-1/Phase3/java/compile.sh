@@ -1,14 +1,17 @@
     #!/bin/sh
-    # Indicate the path of the java compiler to use
-    export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
-    export PATH=$JAVA_HOME/bin:$PATH
+    # The java compiler to use: Java 8 or newer, the one on the PATH unless
+    # JAVA_HOME is set.  LoadDriver runs its clients on virtual threads with
+    # Java 21 or newer, on platform threads before that.
+    if [ -n "$JAVA_HOME" ]; then
+       export PATH=$JAVA_HOME/bin:$PATH
+    fi
 
     # Export classpath with the postgressql driver
     export CLASSPATH=$CLASSPATH:/usr/share/java/postgresql-jdbc.jar
 
 
     # compile the java program
-    javac DBProject.java
+    javac *.java
 
     #run the java program
     #Use your database name, port number and login
@@ -149,6 +149,19 @@ FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT; 
 
+-- No two bookings of a room may overlap.  A booking is the night
+-- [bookingDate, bookingDate + 1); the client checks this under a per-room
+-- lock first (BookingGuard.java), the constraint catches concurrent
+-- bookings from other clients.  Bookings moved to the default room 0 by
+-- ON DELETE SET DEFAULT are exempt.
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+ALTER TABLE Booking
+ADD CONSTRAINT booking_no_overlap
+EXCLUDE USING gist (hotelID WITH =, roomNo WITH =,
+                    daterange(bookingDate, bookingDate + 1) WITH &&)
+WHERE (roomNo <> 0);
+
 
 DROP INDEX IF EXISTS index_hotelR;
 DROP INDEX IF EXISTS index_customer;
@@ -156,7 +169,9 @@ DROP INDEX IF EXISTS index_booking;
 DROP INDEX IF EXISTS index_bookingC;
 DROP INDEX IF EXISTS index_bookingH;
 DROP INDEX IF EXISTS index_fname;
+DROP INDEX IF EXISTS index_customer_name;
 DROP INDEX IF EXISTS index_MainComp;
+DROP INDEX IF EXISTS index_repairRoom;
 
 
 
@@ -185,10 +200,19 @@ CREATE INDEX index_fname
 ON customer
 USING BTREE (fname, lname);
 
+-- the case-folded name CustomerResolver.java looks up customers by
+CREATE INDEX index_customer_name
+ON customer
+USING BTREE (lower(trim(fname)), lower(trim(lname)));
+
 CREATE INDEX index_MainComp
 ON maintenancecompany
 USING BTREE (cmpID);
 
+CREATE INDEX index_repairRoom
+ON repair
+USING BTREE (hotelID, roomNo);
+
 
 
 
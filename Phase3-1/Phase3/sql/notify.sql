@@ -0,0 +1,111 @@
+-- Change notifications used by ChangeListener in the Java client.
+-- Run this after create.sql.  Every insert, update or delete of the tables
+-- the client caches sends a NOTIFY on channel dbproject_changes, so that
+-- other client processes can update or drop what they hold about the row.
+--
+-- The payload is a list of fields separated by chr(31):
+--    origin, table, operation, then the row's keys:
+--    booking              bID, customer, hotelID, roomNo, bookingDate, price
+--    repair               rID, hotelID, roomNo, mCompany, repairDate, xid
+--    room                 hotelID, roomNo
+--    customer             customerID, fName, lName
+--    maintenancecompany   cmpID, name
+--    staff                SSN
+-- origin is the application_name of the writing session, which lets a
+-- client skip its own changes.  xid is the writing transaction's
+-- txid_current(), which a client compares with the txid_current_snapshot()
+-- it last read the table under, to tell whether it has counted the row.
+-- An UPDATE is sent as a DELETE of the old row followed by an INSERT of
+-- the new one.  Notifications are delivered when the writing transaction
+-- commits, and not at all if it rolls back.
+--
+-- A TRUNCATE sends one notification per table instead, with operation
+-- RELOAD and no keys, upon which a client drops everything it holds.
+-- BulkLoader disables the row triggers while it copies, and sends a single
+-- RELOAD (table *) once the load is complete.
+
+CREATE OR REPLACE FUNCTION notify_change()
+RETURNS TRIGGER AS $$
+DECLARE
+   op TEXT;
+   r RECORD;
+   keys TEXT;
+BEGIN
+   FOREACH op IN ARRAY CASE TG_OP WHEN 'INSERT' THEN ARRAY['INSERT']
+                                  WHEN 'DELETE' THEN ARRAY['DELETE']
+                                  ELSE ARRAY['DELETE', 'INSERT'] END LOOP
+      IF op = 'DELETE' THEN
+         r := OLD;
+      ELSE
+         r := NEW;
+      END IF;
+      IF TG_TABLE_NAME = 'booking' THEN
+         keys := concat_ws(chr(31), r.bID, r.customer, r.hotelID, r.roomNo,
+                           to_char(r.bookingDate, 'YYYY-MM-DD'), r.price);
+      ELSIF TG_TABLE_NAME = 'repair' THEN
+         keys := concat_ws(chr(31), r.rID, r.hotelID, r.roomNo, r.mCompany,
+                           to_char(r.repairDate, 'YYYY-MM-DD'), txid_current());
+      ELSIF TG_TABLE_NAME = 'room' THEN
+         keys := concat_ws(chr(31), r.hotelID, r.roomNo);
+      ELSIF TG_TABLE_NAME = 'customer' THEN
+         keys := concat_ws(chr(31), r.customerID, trim(r.fName), trim(r.lName));
+      ELSIF TG_TABLE_NAME = 'staff' THEN
+         keys := r.SSN::text;
+      ELSE
+         keys := concat_ws(chr(31), r.cmpID, trim(r.name));
+      END IF;
+      PERFORM pg_notify('dbproject_changes',
+                        concat_ws(chr(31), current_setting('application_name'), TG_TABLE_NAME, op, keys));
+   END LOOP;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS booking_notify ON Booking;
+DROP TRIGGER IF EXISTS repair_notify ON Repair;
+DROP TRIGGER IF EXISTS room_notify ON Room;
+DROP TRIGGER IF EXISTS customer_notify ON Customer;
+DROP TRIGGER IF EXISTS maintenancecompany_notify ON MaintenanceCompany;
+DROP TRIGGER IF EXISTS staff_notify ON Staff;
+
+CREATE TRIGGER booking_notify AFTER INSERT OR UPDATE OR DELETE ON Booking
+FOR EACH ROW EXECUTE PROCEDURE notify_change();
+CREATE TRIGGER repair_notify AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE notify_change();
+CREATE TRIGGER room_notify AFTER INSERT OR UPDATE OR DELETE ON Room
+FOR EACH ROW EXECUTE PROCEDURE notify_change();
+CREATE TRIGGER customer_notify AFTER INSERT OR UPDATE OR DELETE ON Customer
+FOR EACH ROW EXECUTE PROCEDURE notify_change();
+CREATE TRIGGER maintenancecompany_notify AFTER INSERT OR UPDATE OR DELETE ON MaintenanceCompany
+FOR EACH ROW EXECUTE PROCEDURE notify_change();
+CREATE TRIGGER staff_notify AFTER INSERT OR UPDATE OR DELETE ON Staff
+FOR EACH ROW EXECUTE PROCEDURE notify_change();
+
+CREATE OR REPLACE FUNCTION notify_reload()
+RETURNS TRIGGER AS $$
+BEGIN
+   PERFORM pg_notify('dbproject_changes',
+                     concat_ws(chr(31), current_setting('application_name'), TG_TABLE_NAME, 'RELOAD'));
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS booking_reload ON Booking;
+DROP TRIGGER IF EXISTS repair_reload ON Repair;
+DROP TRIGGER IF EXISTS room_reload ON Room;
+DROP TRIGGER IF EXISTS customer_reload ON Customer;
+DROP TRIGGER IF EXISTS maintenancecompany_reload ON MaintenanceCompany;
+DROP TRIGGER IF EXISTS staff_reload ON Staff;
+
+CREATE TRIGGER booking_reload AFTER TRUNCATE ON Booking
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reload();
+CREATE TRIGGER repair_reload AFTER TRUNCATE ON Repair
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reload();
+CREATE TRIGGER room_reload AFTER TRUNCATE ON Room
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reload();
+CREATE TRIGGER customer_reload AFTER TRUNCATE ON Customer
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reload();
+CREATE TRIGGER maintenancecompany_reload AFTER TRUNCATE ON MaintenanceCompany
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reload();
+CREATE TRIGGER staff_reload AFTER TRUNCATE ON Staff
+FOR EACH STATEMENT EXECUTE PROCEDURE notify_reload();
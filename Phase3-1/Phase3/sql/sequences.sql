@@ -0,0 +1,28 @@
+-- ID sequences used by IdAllocator in the Java client.
+-- Run this after create.sql has created the tables and copied the data in
+-- data/*.csv; each sequence starts right after the highest id loaded.
+--
+-- A nextval reserves a whole block of INCREMENT BY ids which the client then
+-- hands out from memory, so the increment is also the block size.
+
+DROP SEQUENCE IF EXISTS customer_id_seq;
+DROP SEQUENCE IF EXISTS maintenancecompany_id_seq;
+DROP SEQUENCE IF EXISTS repair_id_seq;
+DROP SEQUENCE IF EXISTS booking_id_seq;
+DROP SEQUENCE IF EXISTS assigned_id_seq;
+DROP SEQUENCE IF EXISTS request_id_seq;
+
+CREATE SEQUENCE customer_id_seq INCREMENT BY 50 MINVALUE 1;
+CREATE SEQUENCE maintenancecompany_id_seq INCREMENT BY 50 MINVALUE 1;
+CREATE SEQUENCE repair_id_seq INCREMENT BY 50 MINVALUE 1;
+CREATE SEQUENCE booking_id_seq INCREMENT BY 50 MINVALUE 1;
+CREATE SEQUENCE assigned_id_seq INCREMENT BY 50 MINVALUE 1;
+CREATE SEQUENCE request_id_seq INCREMENT BY 50 MINVALUE 1;
+
+-- seed each sequence from the loaded data
+SELECT setval('customer_id_seq', COALESCE(MAX(customerID), 0)::bigint + 1, false) FROM Customer;
+SELECT setval('maintenancecompany_id_seq', COALESCE(MAX(cmpID), 0)::bigint + 1, false) FROM MaintenanceCompany;
+SELECT setval('repair_id_seq', COALESCE(MAX(rID), 0)::bigint + 1, false) FROM Repair;
+SELECT setval('booking_id_seq', COALESCE(MAX(bID), 0)::bigint + 1, false) FROM Booking;
+SELECT setval('assigned_id_seq', COALESCE(MAX(asgID), 0)::bigint + 1, false) FROM Assigned;
+SELECT setval('request_id_seq', COALESCE(MAX(reqID), 0)::bigint + 1, false) FROM Request;